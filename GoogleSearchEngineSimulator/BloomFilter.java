@@ -0,0 +1,400 @@
+package searchengine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A blocked Bloom filter of URLs, used by the crawler to remember which pages it has seen
+ * Every URL is hashed once. The hash picks one 512-bit block, the size of a cache line, and
+ * sets k bits inside it, so adding or checking a URL touches a single cache line whatever the
+ * size of the filter. A URL that was added is always reported as seen; a URL that was not added
+ * is reported as seen with about the false positive rate the filter was sized for, as long as
+ * no more than the expected number of URLs are added.
+ *
+ * The bits live in one heap or direct buffer and take about 1.25 bytes per URL at a 1% false
+ * positive rate, whatever the length of the URLs. The filter can be written to a file and read
+ * back, so a restarted crawl skips the pages it already visited.
+ *
+ * The layout, little-endian:
+ *   int magic, int hash count, int block count, int 0, long URL count, long capacity, 32 bytes of 0,
+ *   block count blocks of 8 longs
+ *
+ * The filter is not thread-safe.
+ *
+ */
+public class BloomFilter
+{
+	private static final int MAGIC = 0x424C4F4D; // "BLOM"
+
+	// the header fills one block so that every block starts on a cache line
+	private static final int HEADER_BYTES = 64;
+	private static final int BLOCK_BYTES = 64;
+	private static final int BLOCK_BITS = BLOCK_BYTES * 8;
+
+	private final ByteBuffer buf;
+	private final int blocks;
+	private final int hashes;
+	private final long capacity;
+	private long count;
+
+	/**
+	 * Constructs an empty filter on the heap
+	 * @param expectedUrls the number of URLs the filter is sized for
+	 * @param falsePositiveRate the wanted false positive rate, between 0 and 1
+	 */
+	public BloomFilter(long expectedUrls, double falsePositiveRate)
+	{
+		this(expectedUrls, falsePositiveRate, false);
+	}
+
+	/**
+	 * Constructs an empty filter
+	 * @param expectedUrls the number of URLs the filter is sized for
+	 * @param falsePositiveRate the wanted false positive rate, between 0 and 1
+	 * @param offHeap true to keep the bits in a direct buffer, outside the Java heap
+	 */
+	public BloomFilter(long expectedUrls, double falsePositiveRate, boolean offHeap)
+	{
+		if (expectedUrls < 1)
+		{
+			throw new IllegalArgumentException("ERROR: Expected URL count must be positive.");
+		}
+		if (!(falsePositiveRate > 0 && falsePositiveRate < 1))
+		{
+			throw new IllegalArgumentException("ERROR: False positive rate must be between 0 and 1.");
+		}
+		// a blocked filter fills its blocks unevenly, so it needs more room than a classic one
+		double bitsPerUrl = -Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+		while (blockedFalsePositiveRate(bitsPerUrl, hashCount(bitsPerUrl)) > falsePositiveRate)
+		{
+			bitsPerUrl *= 1.02;
+		}
+		long blockCount = Math.max(1, (long) Math.ceil(expectedUrls * bitsPerUrl / BLOCK_BITS));
+		if (HEADER_BYTES + blockCount * BLOCK_BYTES > Integer.MAX_VALUE)
+		{
+			throw new IllegalArgumentException("ERROR: Bloom filter would be larger than 2 GB.");
+		}
+		int bytes = HEADER_BYTES + (int) blockCount * BLOCK_BYTES;
+		this.buf = (offHeap ? ByteBuffer.allocateDirect(bytes) : ByteBuffer.allocate(bytes)).order(ByteOrder.LITTLE_ENDIAN);
+		this.blocks = (int) blockCount;
+		this.hashes = hashCount(bitsPerUrl);
+		this.capacity = expectedUrls;
+		buf.putInt(0, MAGIC).putInt(4, hashes).putInt(8, blocks).putLong(24, capacity);
+	}
+
+	private BloomFilter(ByteBuffer buf)
+	{
+		if (buf.capacity() < HEADER_BYTES || buf.getInt(0) != MAGIC)
+		{
+			throw new IllegalArgumentException("ERROR: Not a Bloom filter.");
+		}
+		this.buf = buf;
+		this.hashes = buf.getInt(4);
+		this.blocks = buf.getInt(8);
+		this.count = buf.getLong(16);
+		if (hashes < 1 || blocks < 1 || buf.capacity() != HEADER_BYTES + (long) blocks * BLOCK_BYTES)
+		{
+			throw new IllegalArgumentException("ERROR: Damaged Bloom filter.");
+		}
+		// files written before the capacity was stored: the number of URLs that would set half the bits
+		long stored = buf.getLong(24);
+		this.capacity = stored > 0 ? stored : Math.max(1, (long) ((double) blocks * BLOCK_BITS * Math.log(2) / hashes));
+	}
+
+	/**
+	 * Reads a filter file written by write()
+	 * @param path the filter file
+	 * @param offHeap true to keep the bits in a direct buffer, outside the Java heap
+	 * @return the filter
+	 * @throws IOException if the file cannot be read or is not a filter
+	 */
+	public static BloomFilter read(Path path, boolean offHeap) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			if (channel.size() > Integer.MAX_VALUE)
+			{
+				throw new IOException("ERROR: Bloom filter is larger than 2 GB.");
+			}
+			int bytes = (int) channel.size();
+			ByteBuffer in = (offHeap ? ByteBuffer.allocateDirect(bytes) : ByteBuffer.allocate(bytes)).order(ByteOrder.LITTLE_ENDIAN);
+			while (in.hasRemaining())
+			{
+				if (channel.read(in) < 0)
+				{
+					throw new IOException("ERROR: Bloom filter file is truncated.");
+				}
+			}
+			try
+			{
+				return new BloomFilter(in);
+			}
+			catch (IllegalArgumentException e)
+			{
+				throw new IOException(e.getMessage(), e);
+			}
+		}
+	}
+
+	/**
+	 * Writes the filter to a file, replacing it atomically
+	 * @param path the filter file
+	 * @throws IOException if the file cannot be written
+	 */
+	public void write(Path path) throws IOException
+	{
+		buf.putLong(16, count);
+		Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			ByteBuffer view = buf.duplicate();
+			view.clear();
+			while (view.hasRemaining())
+			{
+				channel.write(view);
+			}
+			channel.force(true);
+		}
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Adds a URL
+	 * @param url the URL
+	 * @return true if the URL was not seen before, false if it was or if it is a false positive
+	 */
+	public boolean add(String url)
+	{
+		long h = hash(url);
+		int base = blockOf(h);
+		long bits = h;
+		boolean added = false;
+		for (int i = 0; i < hashes; i++)
+		{
+			if (i % 7 == 0)
+			{
+				bits = nextBits(bits);
+			}
+			int word = base + (((int) bits >>> 6 & 7) << 3);
+			long mask = 1L << bits;
+			long value = buf.getLong(word);
+			if ((value & mask) == 0)
+			{
+				buf.putLong(word, value | mask);
+				added = true;
+			}
+			bits >>>= 9;
+		}
+		if (added)
+		{
+			count++;
+		}
+		return added;
+	}
+
+	/**
+	 * Checks if a URL might have been added
+	 * @param url the URL
+	 * @return false if the URL was certainly never added, true if it probably was
+	 */
+	public boolean mightContain(String url)
+	{
+		long h = hash(url);
+		int base = blockOf(h);
+		long bits = h;
+		for (int i = 0; i < hashes; i++)
+		{
+			if (i % 7 == 0)
+			{
+				bits = nextBits(bits);
+			}
+			if ((buf.getLong(base + (((int) bits >>> 6 & 7) << 3)) & (1L << bits)) == 0)
+			{
+				return false;
+			}
+			bits >>>= 9;
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the number of URLs added, not counting URLs that were reported as already seen
+	 * @return the number of distinct URLs added
+	 */
+	public long getCount()
+	{
+		return count;
+	}
+
+	/**
+	 * Gets the number of URLs the filter was sized for
+	 * @return the expected number of URLs
+	 */
+	public long getCapacity()
+	{
+		return capacity;
+	}
+
+	/**
+	 * Checks if the filter holds as many URLs as it was sized for
+	 * Past that point the false positive rate keeps climbing with every URL added.
+	 * @return true if no more URLs should be added
+	 */
+	public boolean isFull()
+	{
+		return count >= capacity;
+	}
+
+	/**
+	 * Gets the number of bits set per URL
+	 * @return the number of hash functions
+	 */
+	public int getHashCount()
+	{
+		return hashes;
+	}
+
+	/**
+	 * Gets the number of bytes used by the filter
+	 * @return the size of the buffer
+	 */
+	public int sizeInBytes()
+	{
+		return buf.capacity();
+	}
+
+	// The number of bits per URL that minimizes the false positive rate of a classic filter
+	private static int hashCount(double bitsPerUrl)
+	{
+		return (int) Math.max(1, Math.min(16, Math.round(bitsPerUrl * Math.log(2))));
+	}
+
+	// Estimates the false positive rate of a blocked filter
+	// The number of URLs in a block follows a Poisson distribution; each block is a small classic filter
+	private static double blockedFalsePositiveRate(double bitsPerUrl, int k)
+	{
+		double mean = BLOCK_BITS / bitsPerUrl;
+		double term = Math.exp(-mean);
+		double rate = 0;
+		for (int urls = 0; urls < 4 * mean + 100; urls++)
+		{
+			if (urls > 0)
+			{
+				term *= mean / urls;
+			}
+			rate += term * Math.pow(1 - Math.pow(1 - 1.0 / BLOCK_BITS, (double) k * urls), k);
+		}
+		return rate;
+	}
+
+	// Picks the block from the high bits of the hash; the bit positions are drawn from remixed bits
+	private int blockOf(long h)
+	{
+		return HEADER_BYTES + (int) (((h >>> 32) * blocks) >>> 32) * BLOCK_BYTES;
+	}
+
+	// Draws 64 new bits from the hash, enough for seven 9-bit positions inside a block
+	private static long nextBits(long h)
+	{
+		h *= 0xD6E8FEB86659FD93L;
+		return h ^ (h >>> 32);
+	}
+
+	// Hashes the chars four at a time, each word mixed in with a multiply, then finishes with a strong mixer
+	// The result depends only on the chars, so a filter written by one run is valid in the next
+	private static long hash(String s)
+	{
+		int n = s.length();
+		long h = 0xCBF29CE484222325L ^ n;
+		int i = 0;
+		for (; i + 4 <= n; i += 4)
+		{
+			long w = s.charAt(i) | (long) s.charAt(i + 1) << 16 | (long) s.charAt(i + 2) << 32 | (long) s.charAt(i + 3) << 48;
+			h = (h ^ w) * 0x9E3779B97F4A7C15L;
+			h ^= h >>> 29;
+		}
+		for (; i < n; i++)
+		{
+			h = (h ^ s.charAt(i)) * 0x100000001B3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	// Measures the false positive rate and the size per URL, and compares with a HashSet: java BloomFilter [n] [rate]
+	public static void main(String[] args) throws IOException
+	{
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+		double rate = args.length > 1 ? Double.parseDouble(args[1]) : 0.01;
+
+		BloomFilter filter = new BloomFilter(n, rate, true);
+		long start = System.nanoTime();
+		for (int i = 0; i < n; i++)
+		{
+			filter.add(url(i));
+		}
+		double addMillis = (System.nanoTime() - start) / 1e6;
+		boolean noFalseNegatives = true;
+		for (int i = 0; i < n; i++)
+		{
+			noFalseNegatives &= filter.mightContain(url(i));
+		}
+		start = System.nanoTime();
+		long falsePositives = 0;
+		for (int i = n; i < 2 * n; i++)
+		{
+			if (filter.mightContain(url(i)))
+			{
+				falsePositives++;
+			}
+		}
+		double checkMillis = (System.nanoTime() - start) / 1e6;
+		System.out.printf("%d URLs, %d hashes: wanted %.3f%% false positives, measured %.3f%%, no false negatives: %b%n",
+				n, filter.getHashCount(), rate * 100, falsePositives * 100.0 / n, noFalseNegatives);
+		System.out.printf("%.2f off-heap bytes/URL, add %.0f ns, check %.0f ns (including building the URL string)%n",
+				(double) filter.sizeInBytes() / n, addMillis * 1e6 / n, checkMillis * 1e6 / n);
+
+		Path file = Files.createTempFile("bloom", ".bin");
+		filter.write(file);
+		BloomFilter restored = read(file, false);
+		boolean same = restored.getCount() == filter.getCount();
+		for (int i = 0; i < 1000; i++)
+		{
+			same &= restored.mightContain(url(i)) && restored.mightContain(url(n + i)) == filter.mightContain(url(n + i));
+		}
+		Files.delete(file);
+		System.out.println("restored from file: " + same);
+
+		// the heap a HashSet of the same URLs needs, measured on a sample that fits in memory
+		int sample = Math.min(n, 1_000_000);
+		Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		long before = runtime.totalMemory() - runtime.freeMemory();
+		Set<String> set = new HashSet<>();
+		for (int i = 0; i < sample; i++)
+		{
+			set.add(url(i));
+		}
+		System.gc();
+		long after = runtime.totalMemory() - runtime.freeMemory();
+		System.out.printf("HashSet: %.1f heap bytes/URL (%d URLs)%n", (double) (after - before) / sample, set.size());
+	}
+
+	private static String url(int i)
+	{
+		return "https://www.site" + (i * 7919L % 1_000_003) + ".com/page/" + i;
+	}
+}
@@ -0,0 +1,261 @@
+package searchengine;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToIntFunction;
+
+/**
+ * A thread-safe ranking priority queue made of independently locked IndexedMaxHeaps
+ * Every element is routed to one shard by its identity (e.g. the URL of a website), so crawler
+ * threads that push or re-rank different pages mostly lock different shards. Readers take the
+ * top k of every shard, one shard at a time, and merge them.
+ *
+ * A reader never blocks all writers at once, so peekTopK is not an atomic snapshot: an element
+ * re-ranked while the shards are being read may show up with its old or its new score.
+ *
+ * @param <K> the element type
+ */
+public class ConcurrentRankingQueue<K>
+{
+	private final Comparator<? super K> order;
+	private final ToIntFunction<? super K> identity;
+	private final IndexedMaxHeap<K>[] shards;
+
+	/**
+	 * Constructs a queue with two shards per core
+	 * @param order the order of the elements; the greatest element ranks first
+	 * @param identity a hash that stays the same when an element is re-ranked
+	 */
+	public ConcurrentRankingQueue(Comparator<? super K> order, ToIntFunction<? super K> identity)
+	{
+		this(order, identity, 2 * Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Constructs a queue
+	 * @param order the order of the elements; the greatest element ranks first
+	 * @param identity a hash that stays the same when an element is re-ranked
+	 * @param shardCount the number of shards, rounded up to a power of two
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public ConcurrentRankingQueue(Comparator<? super K> order, ToIntFunction<? super K> identity, int shardCount)
+	{
+		if (shardCount < 1)
+		{
+			throw new IllegalArgumentException("ERROR: Shard count must be positive.");
+		}
+		this.order = order;
+		this.identity = identity;
+		int n = Integer.highestOneBit(shardCount);
+		if (n < shardCount)
+		{
+			n <<= 1;
+		}
+		shards = new IndexedMaxHeap[n];
+		for (int i = 0; i < n; i++)
+		{
+			shards[i] = new IndexedMaxHeap<>(order);
+		}
+	}
+
+	/**
+	 * Inserts an element
+	 * @param key the new element
+	 */
+	public void insert(K key)
+	{
+		IndexedMaxHeap<K> shard = shardOf(key);
+		synchronized (shard)
+		{
+			shard.insert(key);
+		}
+	}
+
+	/**
+	 * Checks if an element is in the queue
+	 * @param key the element
+	 * @return true if an equal element is stored
+	 */
+	public boolean contains(K key)
+	{
+		IndexedMaxHeap<K> shard = shardOf(key);
+		synchronized (shard)
+		{
+			return shard.contains(key);
+		}
+	}
+
+	/**
+	 * Replaces an element with a greater one; both must have the same identity
+	 * @param oldKey the stored element
+	 * @param newKey the replacement, not smaller than oldKey
+	 */
+	public void increaseKey(K oldKey, K newKey)
+	{
+		IndexedMaxHeap<K> shard = shardOf(oldKey);
+		if (shard != shardOf(newKey))
+		{
+			throw new IllegalArgumentException("ERROR: New key has a different identity.");
+		}
+		synchronized (shard)
+		{
+			shard.increaseKey(oldKey, newKey);
+		}
+	}
+
+	/**
+	 * Removes an element
+	 * @param key the element to remove
+	 * @return true if the element was in the queue
+	 */
+	public boolean remove(K key)
+	{
+		IndexedMaxHeap<K> shard = shardOf(key);
+		synchronized (shard)
+		{
+			return shard.remove(key);
+		}
+	}
+
+	/**
+	 * Gets the number of elements; may be stale while other threads are writing
+	 * @return the size of the queue
+	 */
+	public int size()
+	{
+		int size = 0;
+		for (IndexedMaxHeap<K> shard : shards)
+		{
+			synchronized (shard)
+			{
+				size += shard.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Gets the k greatest elements without removing them
+	 * Each shard is locked only while its own top k are copied out.
+	 * @param k the number of elements
+	 * @return at most k elements, greatest first
+	 */
+	public List<K> peekTopK(int k)
+	{
+		List<List<K>> tops = new ArrayList<>(shards.length);
+		for (IndexedMaxHeap<K> shard : shards)
+		{
+			synchronized (shard)
+			{
+				tops.add(shard.topK(k));
+			}
+		}
+		// merge the sorted shard lists by repeatedly taking the greatest head
+		List<K> merged = new ArrayList<>();
+		int[] heads = new int[tops.size()];
+		while (merged.size() < k)
+		{
+			int best = -1;
+			for (int s = 0; s < heads.length; s++)
+			{
+				List<K> top = tops.get(s);
+				if (heads[s] < top.size()
+						&& (best < 0 || order.compare(top.get(heads[s]), tops.get(best).get(heads[best])) > 0))
+				{
+					best = s;
+				}
+			}
+			if (best < 0)
+			{
+				break;
+			}
+			merged.add(tops.get(best).get(heads[best]++));
+		}
+		return merged;
+	}
+
+	private IndexedMaxHeap<K> shardOf(K key)
+	{
+		int h = identity.applyAsInt(key);
+		h ^= h >>> 16;
+		return shards[(h * 0x9E3779B9) >>> 16 & (shards.length - 1)];
+	}
+
+	// Stress test and throughput: java ConcurrentRankingQueue [seconds per run]
+	// Every thread owns its own websites and keeps inserting them and raising their scores while
+	// reading the top 10 every 16 operations; at the end the queue must hold exactly the final
+	// version of every website, in order.
+	public static void main(String[] args) throws InterruptedException
+	{
+		double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+		for (int threads : new int[] { 1, 4, 16 })
+		{
+			ConcurrentRankingQueue<WebLink> queue = new ConcurrentRankingQueue<>((a, b) -> a.compareTo(b),
+					w -> w.getUrl().hashCode());
+			AtomicLong operations = new AtomicLong();
+			List<List<WebLink>> finals = new ArrayList<>();
+			CountDownLatch done = new CountDownLatch(threads);
+			long deadline = System.nanoTime() + (long) (seconds * 1e9);
+			for (int t = 0; t < threads; t++)
+			{
+				List<WebLink> mine = new ArrayList<>();
+				finals.add(mine);
+				int owner = t;
+				new Thread(() ->
+				{
+					Random random = new Random(owner);
+					long ops = 0;
+					while (System.nanoTime() < deadline)
+					{
+						for (int batch = 0; batch < 16; batch++)
+						{
+							if (mine.size() < 1000 || random.nextInt(4) == 0)
+							{
+								WebLink w = new WebLink("https://host" + owner + ".example/" + mine.size(),
+										new PageRank(1 + random.nextInt(50), 1 + random.nextInt(50), 1 + random.nextInt(50), 1));
+								queue.insert(w);
+								mine.add(w);
+							}
+							else
+							{
+								int i = random.nextInt(mine.size());
+								WebLink old = mine.get(i);
+								WebLink raised = new WebLink(old.getUrl(), new PageRank(old.getFrequency(), old.getAge(),
+										old.getOtherWebLinks(), Math.min(100, old.getMoney() + 1)));
+								queue.increaseKey(old, raised);
+								mine.set(i, raised);
+							}
+							ops++;
+						}
+						queue.peekTopK(10);
+						ops++;
+					}
+					operations.addAndGet(ops);
+					done.countDown();
+				}).start();
+			}
+			done.await();
+
+			Set<WebLink> expected = new HashSet<>();
+			for (List<WebLink> mine : finals)
+			{
+				expected.addAll(mine);
+			}
+			List<WebLink> all = queue.peekTopK(Integer.MAX_VALUE);
+			boolean ordered = true;
+			for (int i = 1; i < all.size() && ordered; i++)
+			{
+				ordered = all.get(i - 1).compareTo(all.get(i)) >= 0;
+			}
+			boolean consistent = all.size() == expected.size() && expected.containsAll(all);
+			System.out.printf("threads %2d: %,12.0f ops/s, %d websites, ordered: %b, consistent: %b%n",
+					threads, operations.get() / seconds, all.size(), ordered, consistent);
+		}
+	}
+}
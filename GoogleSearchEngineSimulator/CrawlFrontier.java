@@ -0,0 +1,190 @@
+package searchengine;
+
+import java.util.ArrayDeque;
+import searchengine.index.UrlIdTable;
+
+/**
+ * A bounded breadth-first URL frontier used by the WebCrawler
+ * Every accepted URL is remembered in a Bloom filter so that a page is never queued twice. Most
+ * new URLs are told apart by the filter alone; the few it mistakes for seen ones, about its false
+ * positive rate, are caught by an exact UrlIdTable of the accepted URLs, kept mostly off the heap,
+ * which is only read when the filter says yes. The visited filter of earlier crawls has no exact
+ * table behind it, so the new URLs it mistakes for visited ones are skipped, and counted.
+ * The frontier is owned by the crawl coordinator thread and is not thread-safe.
+ *
+ */
+public class CrawlFrontier
+{
+	/**
+	 * A URL waiting to be fetched together with its distance from the seed page
+	 */
+	public static final class Entry
+	{
+		public final String url;
+		public final int depth;
+
+		Entry(String url, int depth)
+		{
+			this.url = url;
+			this.depth = depth;
+		}
+	}
+
+	// maximum number of URLs that may wait in the queue at the same time
+	private final int capacity;
+
+	// URLs waiting to be fetched, oldest first
+	private final ArrayDeque<Entry> queue;
+
+	// number of URLs the default seen filter is sized for, and its false positive rate
+	public static final long DEFAULT_EXPECTED_URLS = 1 << 20;
+	public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.001;
+
+	// every URL ever accepted by the frontier
+	private final BloomFilter seen;
+
+	// URLs visited by earlier crawls, or null
+	private final BloomFilter visited;
+
+	// every URL ever accepted, to check the URLs the seen filter claims to know
+	private final UrlIdTable accepted = new UrlIdTable();
+
+	// number of URLs rejected because the queue was full
+	private int dropped;
+
+	// number of new URLs the seen filter mistook for seen ones
+	private int falsePositives;
+
+	// number of URLs skipped because the visited filter reported them, a few of them wrongly
+	private int skippedVisited;
+
+	/**
+	 * Constructs an empty frontier
+	 * @param capacity the maximum number of queued URLs
+	 */
+	public CrawlFrontier(int capacity)
+	{
+		this(capacity, new BloomFilter(DEFAULT_EXPECTED_URLS, DEFAULT_FALSE_POSITIVE_RATE), null);
+	}
+
+	/**
+	 * Constructs an empty frontier that also skips the URLs visited by earlier crawls
+	 * @param capacity the maximum number of queued URLs
+	 * @param seen an empty filter sized for the number of URLs the crawl may discover
+	 * @param visited the URLs visited by earlier crawls, or null
+	 */
+	public CrawlFrontier(int capacity, BloomFilter seen, BloomFilter visited)
+	{
+		if (capacity < 1)
+		{
+			throw new IllegalArgumentException("ERROR: Frontier capacity must be positive.");
+		}
+		this.capacity = capacity;
+		this.queue = new ArrayDeque<>(Math.min(capacity, 1024));
+		this.seen = seen;
+		this.visited = visited;
+	}
+
+	/**
+	 * Queues a URL unless it was seen before or the frontier is full
+	 * @param url the URL to fetch
+	 * @param depth the number of links between the seed page and this URL
+	 * @return true if the URL was queued, false otherwise
+	 */
+	public boolean offer(String url, int depth)
+	{
+		if (seen.mightContain(url))
+		{
+			if (accepted.find(url) >= 0)
+			{
+				return false;
+			}
+			falsePositives++;
+		}
+		if (visited != null && visited.mightContain(url))
+		{
+			skippedVisited++;
+			return false;
+		}
+		if (queue.size() >= capacity)
+		{
+			dropped++;
+			return false;
+		}
+		accept(url, depth);
+		return true;
+	}
+
+	/**
+	 * Queues a URL even if it was seen before, e.g. the seed page of a new crawl
+	 * @param url the URL to fetch
+	 * @param depth the number of links between the seed page and this URL
+	 */
+	public void push(String url, int depth)
+	{
+		accept(url, depth);
+	}
+
+	private void accept(String url, int depth)
+	{
+		seen.add(url);
+		accepted.idOf(url);
+		queue.addLast(new Entry(url, depth));
+	}
+
+	/**
+	 * Removes and returns the oldest queued URL
+	 * @return the next entry, or null if the frontier is empty
+	 */
+	public Entry poll()
+	{
+		return queue.pollFirst();
+	}
+
+	/**
+	 * Checks if there is nothing left to fetch
+	 * @return true if no URL is queued
+	 */
+	public boolean isEmpty()
+	{
+		return queue.isEmpty();
+	}
+
+	/**
+	 * Gets the number of queued URLs
+	 * @return the number of queued URLs
+	 */
+	public int size()
+	{
+		return queue.size();
+	}
+
+	/**
+	 * Gets the number of URLs rejected because the frontier was full
+	 * @return the number of dropped URLs
+	 */
+	public int getDropped()
+	{
+		return dropped;
+	}
+
+	/**
+	 * Gets the number of new URLs the seen filter mistook for seen ones
+	 * They were still queued, after the exact check found them new.
+	 * @return the number of false positives of the seen filter
+	 */
+	public int getFalsePositives()
+	{
+		return falsePositives;
+	}
+
+	/**
+	 * Gets the number of URLs skipped because earlier crawls visited them
+	 * About the false positive rate of the visited filter of them were never visited.
+	 * @return the number of skipped URLs
+	 */
+	public int getSkippedVisited()
+	{
+		return skippedVisited;
+	}
+}
@@ -0,0 +1,319 @@
+package searchengine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A stand-in web server that serves a tree of linked fixture pages from the loopback address
+ * Page n at depth d links to FANOUT pages one level deeper and to a page under /private/, which
+ * robots.txt disallows. Every other child is linked through the "localhost" host name and the
+ * rest through "127.0.0.1", so one crawl spans two hosts of the HostScheduler. The server counts
+ * the requests of every page and the most simultaneous requests per host, and holds every
+ * response for a while, so requests overlap the way they do on a real network.
+ *
+ * main() crawls the fixture and checks the depth limit, the page budget, the per-host cap and
+ * robots.txt, in DOM and in streaming mode.
+ *
+ */
+public class CrawlerFixture implements Closeable
+{
+	// number of links from every page to pages one level deeper
+	public static final int FANOUT = 4;
+
+	// deepest page served; deeper links get a 404
+	private static final int MAX_DEPTH = 6;
+
+	private final HttpServer server;
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+	private final long latencyMillis;
+
+	// requests per path, and the current and the most simultaneous requests per host
+	private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+	private final Map<String, AtomicInteger> active = new ConcurrentHashMap<>();
+	private final Map<String, AtomicInteger> maxActive = new ConcurrentHashMap<>();
+	// robots.txt requests per host
+	private final Map<String, AtomicInteger> robotsRequests = new ConcurrentHashMap<>();
+
+	/**
+	 * Starts a server on a free port of the loopback address
+	 * @param latencyMillis how long every response is held back
+	 * @throws IOException if the server cannot be started
+	 */
+	public CrawlerFixture(long latencyMillis) throws IOException
+	{
+		this.latencyMillis = latencyMillis;
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/", this::handle);
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	/**
+	 * Gets the URL of the root page, the seed of a crawl
+	 * @return the URL of page 0 at depth 0
+	 */
+	public String getSeedUrl()
+	{
+		return pageUrl("127.0.0.1", 0, 0);
+	}
+
+	/**
+	 * Gets the number of distinct pages requested, robots.txt aside
+	 * @return the number of pages
+	 */
+	public int getPagesRequested()
+	{
+		return (int) requests.keySet().stream().filter(p -> p.startsWith("/page/")).count();
+	}
+
+	/**
+	 * Gets the number of requests of pages under /private/, which robots.txt disallows
+	 * @return the number of requests
+	 */
+	public int getPrivateRequests()
+	{
+		return (int) requests.keySet().stream().filter(p -> p.startsWith("/private/")).count();
+	}
+
+	/**
+	 * Gets the most times one host was asked for robots.txt
+	 * @return the largest count over both hosts
+	 */
+	public int getMaxRobotsRequestsPerHost()
+	{
+		return robotsRequests.values().stream().mapToInt(AtomicInteger::get).max().orElse(0);
+	}
+
+	/**
+	 * Gets the depth of the deepest page requested
+	 * @return the depth, or -1 if no page was requested
+	 */
+	public int getDeepestRequest()
+	{
+		int deepest = -1;
+		for (String path : requests.keySet())
+		{
+			if (path.startsWith("/page/"))
+			{
+				deepest = Math.max(deepest, Integer.parseInt(path.split("/")[2]));
+			}
+		}
+		return deepest;
+	}
+
+	/**
+	 * Gets the number of pages requested more than once
+	 * @return the number of pages
+	 */
+	public int getRepeatedRequests()
+	{
+		return (int) requests.values().stream().filter(c -> c.get() > 1).count();
+	}
+
+	/**
+	 * Gets the most requests one host had in progress at the same time
+	 * @return the largest count over both hosts
+	 */
+	public int getMaxActivePerHost()
+	{
+		return maxActive.values().stream().mapToInt(AtomicInteger::get).max().orElse(0);
+	}
+
+	/**
+	 * Gets the number of hosts that received requests
+	 * @return the number of hosts
+	 */
+	public int getHostCount()
+	{
+		return maxActive.size();
+	}
+
+	/**
+	 * Forgets the requests counted so far
+	 */
+	public void reset()
+	{
+		requests.clear();
+		maxActive.clear();
+		robotsRequests.clear();
+	}
+
+	/**
+	 * Stops the server
+	 */
+	public void close()
+	{
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private String pageUrl(String host, int depth, int n)
+	{
+		return "http://" + host + ":" + server.getAddress().getPort() + "/page/" + depth + "/" + n;
+	}
+
+	private void handle(HttpExchange exchange) throws IOException
+	{
+		String host = exchange.getRequestHeaders().getFirst("Host");
+		String path = exchange.getRequestURI().getPath();
+		AtomicInteger current = active.computeIfAbsent(host, h -> new AtomicInteger());
+		int now = current.incrementAndGet();
+		maxActive.computeIfAbsent(host, h -> new AtomicInteger()).accumulateAndGet(now, Math::max);
+		try
+		{
+			if (path.equals("/robots.txt"))
+			{
+				robotsRequests.computeIfAbsent(host, h -> new AtomicInteger()).incrementAndGet();
+				respond(exchange, 200, "text/plain", "User-agent: *\nDisallow: /private/\n");
+				return;
+			}
+			requests.computeIfAbsent(path, p -> new AtomicInteger()).incrementAndGet();
+			Thread.sleep(latencyMillis);
+			String[] parts = path.split("/");
+			if (parts.length != 4 || !parts[1].equals("page"))
+			{
+				respond(exchange, 404, "text/html", "<html><body>Not found</body></html>");
+				return;
+			}
+			int depth = Integer.parseInt(parts[2]);
+			int n = Integer.parseInt(parts[3]);
+			if (depth > MAX_DEPTH)
+			{
+				respond(exchange, 404, "text/html", "<html><body>Not found</body></html>");
+				return;
+			}
+			respond(exchange, 200, "text/html; charset=utf-8", page(depth, n));
+		}
+		catch (InterruptedException | NumberFormatException e)
+		{
+			respond(exchange, 500, "text/plain", "error");
+		}
+		finally
+		{
+			current.decrementAndGet();
+		}
+	}
+
+	// A page with text of its own, so that no two pages are near-duplicates, and links to its children
+	private String page(int depth, int n)
+	{
+		StringBuilder html = new StringBuilder("<html><head><title>Fixture ").append(depth).append('.').append(n)
+				.append("</title></head><body><p>fixture page");
+		long words = n * 0x9E3779B97F4A7C15L + depth;
+		for (int w = 0; w < 40; w++)
+		{
+			words = words * 6364136223846793005L + 1442695040888963407L;
+			html.append(" w").append((words >>> 40) % 5000);
+		}
+		html.append("</p>\n<a href=\"/private/").append(depth).append('/').append(n).append("\">private</a>\n");
+		for (int i = 0; i < FANOUT; i++)
+		{
+			String host = i % 2 == 0 ? "127.0.0.1" : "localhost";
+			html.append("<a href=\"").append(pageUrl(host, depth + 1, n * FANOUT + i)).append("\">child ").append(i).append("</a>\n");
+		}
+		return html.append("</body></html>").toString();
+	}
+
+	private static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException
+	{
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody())
+		{
+			out.write(bytes);
+		}
+	}
+
+	// Crawls the fixture and checks the limits of the crawler: java CrawlerFixture [latencyMillis]
+	public static void main(String[] args) throws IOException
+	{
+		long latency = args.length > 0 ? Long.parseLong(args[0]) : 50;
+		boolean ok = true;
+		try (CrawlerFixture fixture = new CrawlerFixture(latency))
+		{
+			for (boolean streaming : new boolean[] { false, true })
+			{
+				String mode = streaming ? "streaming" : "DOM";
+
+				// depth 2 with room to spare: 1 + 4 + 16 pages, nothing deeper, nothing private
+				fixture.reset();
+				WebCrawler crawler = newCrawler(fixture, streaming, 2, 1000, 2);
+				long start = System.nanoTime();
+				crawler.search();
+				double millis = (System.nanoTime() - start) / 1e6;
+				int expected = 1 + FANOUT + FANOUT * FANOUT;
+				ok &= check(mode + " depth 2: " + fixture.getPagesRequested() + " of " + expected + " pages, deepest "
+						+ fixture.getDeepestRequest() + ", " + crawler.getIndex().getDocCount() + " indexed",
+						fixture.getPagesRequested() == expected && fixture.getDeepestRequest() == 2
+						&& crawler.getIndex().getDocCount() == expected);
+				ok &= check(mode + " robots.txt: " + fixture.getPrivateRequests() + " private pages requested",
+						fixture.getPrivateRequests() == 0);
+				ok &= check(mode + " robots.txt fetched at most " + fixture.getMaxRobotsRequestsPerHost() + " time(s) per host",
+						fixture.getMaxRobotsRequestsPerHost() == 1);
+				ok &= check(mode + " per-host cap 2: at most " + fixture.getMaxActivePerHost() + " requests at once on "
+						+ fixture.getHostCount() + " hosts", fixture.getMaxActivePerHost() <= 2 && fixture.getHostCount() == 2);
+				ok &= check(mode + " no page fetched twice: " + fixture.getRepeatedRequests() + " repeated",
+						fixture.getRepeatedRequests() == 0);
+				System.out.printf("%s: %d pages in %.0f ms, %.0f ms if fetched one by one%n", mode, expected, millis,
+						(double) expected * latency);
+
+				// the page budget stops a crawl that could go much deeper
+				fixture.reset();
+				crawler = newCrawler(fixture, streaming, 5, 30, 4);
+				crawler.search();
+				ok &= check(mode + " page budget 30: " + fixture.getPagesRequested() + " pages requested",
+						fixture.getPagesRequested() == 30);
+				ok &= check(mode + " per-host cap 4: at most " + fixture.getMaxActivePerHost() + " requests at once",
+						fixture.getMaxActivePerHost() <= 4);
+
+				// pages held back for their host count in its stats, and those left when the budget ran out leave its queue
+				long requests = 0;
+				int queued = 0;
+				double maxWait = 0;
+				for (HostScheduler.HostStats stats : crawler.getHostScheduler().getStats())
+				{
+					requests += stats.requests;
+					queued += stats.queueDepth;
+					maxWait = Math.max(maxWait, stats.maxWaitMillis);
+				}
+				ok &= check(String.format("%s host stats: %d requests, %d still queued, max wait %.0f ms", mode, requests, queued, maxWait),
+						requests > fixture.getPagesRequested() && queued == 0 && maxWait > 0);
+			}
+		}
+		System.out.println(ok ? "All fixture checks passed" : "FAILED");
+		if (!ok)
+		{
+			System.exit(1);
+		}
+	}
+
+	private static WebCrawler newCrawler(CrawlerFixture fixture, boolean streaming, int maxDepth, int maxPages, int perHost)
+	{
+		WebCrawler crawler = new WebCrawler("fixture", fixture.getSeedUrl());
+		crawler.setStreaming(streaming);
+		crawler.setMaxDepth(maxDepth);
+		crawler.setMaxPages(maxPages);
+		crawler.setMaxConnectionsPerHost(perHost);
+		crawler.setMinHostDelayMillis(0);
+		return crawler;
+	}
+
+	private static boolean check(String what, boolean passed)
+	{
+		System.out.println((passed ? "ok      " : "FAILED  ") + what);
+		return passed;
+	}
+}
@@ -0,0 +1,359 @@
+package searchengine;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A columnar store of websites and their PageRank scores
+ * A website is a dense int document ID. All URLs share one UTF-8 byte arena indexed by an
+ * offsets array, and each of the four factors and the total is a parallel int array, so a
+ * website costs about 20 bytes of scores plus its URL bytes instead of a WebLink, a PageRank
+ * and a String with their object headers and pointers. WebLink views read straight from the
+ * arrays. Views compare and hash their URLs straight from the byte arena, so sifting views
+ * through a heap decodes no URL.
+ *
+ */
+public class DocumentStore
+{
+	private byte[] urlBytes;
+	private int urlLength;
+	// urlOffsets[d] .. urlOffsets[d + 1] are the URL bytes of document d
+	private int[] urlOffsets;
+
+	private int[] frequency;
+	private int[] age;
+	private int[] otherWebLinks;
+	private int[] money;
+	private int[] total;
+	private int size;
+
+	/**
+	 * Constructs an empty store
+	 */
+	public DocumentStore()
+	{
+		this(16);
+	}
+
+	/**
+	 * Constructs an empty store with room for a number of documents
+	 * @param capacity the expected number of documents
+	 */
+	public DocumentStore(int capacity)
+	{
+		capacity = Math.max(1, capacity);
+		urlBytes = new byte[capacity * 32];
+		urlOffsets = new int[capacity + 1];
+		frequency = new int[capacity];
+		age = new int[capacity];
+		otherWebLinks = new int[capacity];
+		money = new int[capacity];
+		total = new int[capacity];
+	}
+
+	/**
+	 * Adds a website
+	 * @param url the URL of the website
+	 * @param rank its PageRank scores
+	 * @return the document ID of the website
+	 */
+	public int add(String url, PageRank rank)
+	{
+		return add(url, rank.frequency, rank.age, rank.otherWebLinks, rank.money);
+	}
+
+	/**
+	 * Adds a website
+	 * @param url the URL of the website
+	 * @param frequency the frequency score
+	 * @param age the age score
+	 * @param otherWebLinks the link score
+	 * @param money the money score
+	 * @return the document ID of the website
+	 */
+	public int add(String url, int frequency, int age, int otherWebLinks, int money)
+	{
+		if (size == this.frequency.length)
+		{
+			growColumns(size * 2);
+		}
+		byte[] bytes = url.getBytes(StandardCharsets.UTF_8);
+		if (urlLength + bytes.length > urlBytes.length)
+		{
+			urlBytes = Arrays.copyOf(urlBytes, Math.max(urlBytes.length * 2, urlLength + bytes.length));
+		}
+		System.arraycopy(bytes, 0, urlBytes, urlLength, bytes.length);
+		urlLength += bytes.length;
+		int docId = size++;
+		urlOffsets[size] = urlLength;
+		setScores(docId, frequency, age, otherWebLinks, money);
+		return docId;
+	}
+
+	/**
+	 * Replaces the scores of a website
+	 * Views of the website hash its total score, so a view must not be stored in a hash-based
+	 * collection, such as a heap, while its scores change.
+	 * @param docId the document ID
+	 * @param frequency the frequency score
+	 * @param age the age score
+	 * @param otherWebLinks the link score
+	 * @param money the money score
+	 */
+	public void setScores(int docId, int frequency, int age, int otherWebLinks, int money)
+	{
+		checkDoc(docId);
+		this.frequency[docId] = frequency;
+		this.age[docId] = age;
+		this.otherWebLinks[docId] = otherWebLinks;
+		this.money[docId] = money;
+		this.total[docId] = frequency + age + otherWebLinks + money;
+	}
+
+	/**
+	 * Gets a view of a website that reads from this store
+	 * @param docId the document ID
+	 * @return a WebLink backed by the store
+	 */
+	public WebLink view(int docId)
+	{
+		checkDoc(docId);
+		return new WebLink(this, docId);
+	}
+
+	/**
+	 * Gets the number of websites
+	 * @return the number of documents
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Gets the URL of a website
+	 * @param docId the document ID
+	 * @return the URL
+	 */
+	public String getUrl(int docId)
+	{
+		checkDoc(docId);
+		int start = urlOffsets[docId];
+		return new String(urlBytes, start, urlOffsets[docId + 1] - start, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Compares the URLs of two websites by their UTF-8 bytes, i.e. by code point, in place
+	 * @param a a document ID
+	 * @param b another document ID
+	 * @return a negative number, zero or a positive number as the URL of a sorts before, with or after that of b
+	 */
+	public int compareUrls(int a, int b)
+	{
+		checkDoc(a);
+		checkDoc(b);
+		return Arrays.compareUnsigned(urlBytes, urlOffsets[a], urlOffsets[a + 1], urlBytes, urlOffsets[b], urlOffsets[b + 1]);
+	}
+
+	/**
+	 * Gets the hash code of the URL of a website without decoding it
+	 * @param docId the document ID
+	 * @return the same value as getUrl(docId).hashCode()
+	 */
+	public int getUrlHashCode(int docId)
+	{
+		checkDoc(docId);
+		int h = 0;
+		int end = urlOffsets[docId + 1];
+		for (int i = urlOffsets[docId]; i < end; )
+		{
+			int b = urlBytes[i++];
+			if (b >= 0)
+			{
+				h = 31 * h + b;
+				continue;
+			}
+			// the bytes were encoded by String.getBytes, so every sequence is well-formed
+			int cp;
+			if ((b & 0xE0) == 0xC0)
+			{
+				cp = (b & 0x1F) << 6 | urlBytes[i++] & 0x3F;
+			}
+			else if ((b & 0xF0) == 0xE0)
+			{
+				cp = (b & 0x0F) << 12 | (urlBytes[i++] & 0x3F) << 6 | urlBytes[i++] & 0x3F;
+			}
+			else
+			{
+				cp = (b & 0x07) << 18 | (urlBytes[i++] & 0x3F) << 12 | (urlBytes[i++] & 0x3F) << 6 | urlBytes[i++] & 0x3F;
+			}
+			if (cp >= Character.MIN_SUPPLEMENTARY_CODE_POINT)
+			{
+				h = 31 * h + Character.highSurrogate(cp);
+				h = 31 * h + Character.lowSurrogate(cp);
+			}
+			else
+			{
+				h = 31 * h + cp;
+			}
+		}
+		return h;
+	}
+
+	/**
+	 * Gets the frequency score of a website
+	 * @param docId the document ID
+	 * @return the frequency score
+	 */
+	public int getFrequency(int docId)
+	{
+		checkDoc(docId);
+		return frequency[docId];
+	}
+
+	/**
+	 * Gets the age score of a website
+	 * @param docId the document ID
+	 * @return the age score
+	 */
+	public int getAge(int docId)
+	{
+		checkDoc(docId);
+		return age[docId];
+	}
+
+	/**
+	 * Gets the link score of a website
+	 * @param docId the document ID
+	 * @return the link score
+	 */
+	public int getOtherWebLinks(int docId)
+	{
+		checkDoc(docId);
+		return otherWebLinks[docId];
+	}
+
+	/**
+	 * Gets the money score of a website
+	 * @param docId the document ID
+	 * @return the money score
+	 */
+	public int getMoney(int docId)
+	{
+		checkDoc(docId);
+		return money[docId];
+	}
+
+	/**
+	 * Gets the total of the four scores of a website
+	 * @param docId the document ID
+	 * @return the total of the four scores
+	 */
+	public int getTotal(int docId)
+	{
+		checkDoc(docId);
+		return total[docId];
+	}
+
+	/**
+	 * Gets the number of bytes of the arrays in use
+	 * @return the memory used by the documents
+	 */
+	public long sizeInBytes()
+	{
+		return urlLength + 4L * (size + 1) + 5 * 4L * size;
+	}
+
+	private void checkDoc(int docId)
+	{
+		if (docId < 0 || docId >= size)
+		{
+			throw new IllegalArgumentException("ERROR: No document " + docId + ".");
+		}
+	}
+
+	private void growColumns(int capacity)
+	{
+		urlOffsets = Arrays.copyOf(urlOffsets, capacity + 1);
+		frequency = Arrays.copyOf(frequency, capacity);
+		age = Arrays.copyOf(age, capacity);
+		otherWebLinks = Arrays.copyOf(otherWebLinks, capacity);
+		money = Arrays.copyOf(money, capacity);
+		total = Arrays.copyOf(total, capacity);
+	}
+
+	// Compares the heap used by WebLink objects and by the store: java DocumentStore [n]
+	public static void main(String[] args)
+	{
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		long before = usedMemory();
+		WebLink[] objects = new WebLink[n];
+		for (int d = 0; d < n; d++)
+		{
+			objects[d] = new WebLink("https://www.site" + d + ".com/", new PageRank());
+		}
+		long objectBytes = usedMemory() - before;
+
+		before = usedMemory();
+		DocumentStore store = new DocumentStore(n);
+		for (int d = 0; d < n; d++)
+		{
+			store.add(objects[d].getUrl(), objects[d].getRank());
+		}
+		long storeBytes = usedMemory() - before;
+		System.out.printf("%d websites: objects %.1f bytes/doc, store %.1f bytes/doc, %.1fx smaller%n",
+				n, (double) objectBytes / n, (double) storeBytes / n, (double) objectBytes / storeBytes);
+
+		for (int round = 0; round < 5; round++)
+		{
+			long start = System.nanoTime();
+			long sum = 0;
+			for (WebLink w : objects)
+			{
+				sum += w.getRank().getTotalScore();
+			}
+			double objectMillis = (System.nanoTime() - start) / 1e6;
+			start = System.nanoTime();
+			long storeSum = 0;
+			for (int d = 0; d < n; d++)
+			{
+				storeSum += store.getTotal(d);
+			}
+			double storeMillis = (System.nanoTime() - start) / 1e6;
+			System.out.printf("score all: objects %.1f ms, store %.1f ms, same totals: %b%n",
+					objectMillis, storeMillis, sum == storeSum);
+		}
+
+		// drain a heap of views: comparing and hashing them must not decode URLs
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		int heapSize = Math.min(n, 200_000);
+		for (int round = 0; round < 5; round++)
+		{
+			IndexedMaxHeap<WebLink> heap = new IndexedMaxHeap<>((a, b) -> a.compareTo(b), heapSize);
+			for (int d = 0; d < heapSize; d++)
+			{
+				heap.insert(store.view(d));
+			}
+			long allocated = threads.getThreadAllocatedBytes(thread);
+			long start = System.nanoTime();
+			while (!heap.isEmpty())
+			{
+				heap.extractMax();
+			}
+			System.out.printf("drain a heap of %d views: %.0f ns and %.1f bytes allocated per extractMax%n", heapSize,
+					(double) (System.nanoTime() - start) / heapSize, (double) (threads.getThreadAllocatedBytes(thread) - allocated) / heapSize);
+		}
+	}
+
+	private static long usedMemory()
+	{
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++)
+		{
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
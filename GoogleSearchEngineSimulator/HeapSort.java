@@ -10,12 +10,12 @@ import java.util.ArrayList;
 
 public class HeapSort {
 	
-	// size of the Heap
-	private int heapsize;
+	// index of the last element of the Heap, -1 when the Heap is empty
+	private int heapsize = -1;
 	
 	/**
-	 * Gets the size of the Heap
-	 * @return the size of the Heap
+	 * Gets the index of the last element of the Heap
+	 * @return the size of the Heap minus 1
 	 */
 	public int getHeapSize()
 	{
@@ -29,7 +29,7 @@ public class HeapSort {
 	 */
 	public int getLeftChild(int i)
 	{
-		return 2*i;
+		return 2*i+1;
 	}
 	
 	/**
@@ -39,7 +39,7 @@ public class HeapSort {
 	 */
 	public int getRightChild(int i)
 	{
-		return 2*i+1;
+		return 2*i+2;
 	}
 	
 	/**
@@ -49,7 +49,7 @@ public class HeapSort {
 	 */
 	public int getParent(int i)
 	{
-		return i/2;
+		return (i-1)/2;
 	}
 	
 	/**
@@ -59,39 +59,39 @@ public class HeapSort {
 	 */
 	public void MaxHeapify(int A[], int i)
 	{
-		int l = getLeftChild(i); // left child 
- 		int r = getRightChild(i); // right child
-		int largest = i;
-		
-		// Check left child
-		// if left child > largest
-		if(l <= heapsize && A[l] > A[i])
-		{
-			largest = l; // largest = left child 
-		}
-		else
-		{
-			largest = i;
-		}
-	
-		//Check right child
-		// if right child > largest
-		if(r <= heapsize && A[r] > A[largest])
+		while(true)
 		{
-			largest = r; // largest = right child 
-		}
+			int l = getLeftChild(i); // left child 
+			int r = getRightChild(i); // right child
+			int largest = i;
+			
+			// Check left child
+			// if left child > largest
+			if(l <= heapsize && A[l] > A[largest])
+			{
+				largest = l; // largest = left child 
+			}
 		
-		// largest is not the root
-		if(largest != i)
-		{
+			//Check right child
+			// if right child > largest
+			if(r <= heapsize && A[r] > A[largest])
+			{
+				largest = r; // largest = right child 
+			}
+			
+			// largest is the root, the heap property holds
+			if(largest == i)
+			{
+				return;
+			}
+			
 			// swap A[i] with A[largest]
 			int temp = A[i];
 			A[i] = A[largest];
 			A[largest] = temp;
-
 			
-			// recursively call MaxHeapify
-			MaxHeapify(A, largest);
+			// continue from the child instead of calling MaxHeapify recursively
+			i = largest;
 		}
 	}
 	
@@ -173,6 +173,10 @@ public class HeapSort {
 	 */
 	public void MaxHeapInsert(int A[], int key)
 	{
+		if(this.heapsize + 1 >= A.length)
+		{
+			throw new IllegalArgumentException("ERROR: Heap overflow.");
+		}
 		this.heapsize++;
 		A[this.heapsize] = Integer.MIN_VALUE;
 		HeapIncreaseKey(A, heapsize, key);
@@ -0,0 +1,352 @@
+package searchengine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A per-host politeness scheduler for the WebCrawler
+ * Every host has its own first-come first-served queue. A request may start only when the
+ * host has a free connection and the minimum delay since the previous request has passed,
+ * so many hosts are crawled in parallel while no single host is hammered.
+ * A caller that holds requests back until their host is ready registers them with enqueue(host)
+ * when they are queued, so the queue depth and wait times count the time they were held back.
+ *
+ */
+public class HostScheduler
+{
+	/**
+	 * A snapshot of the queue and wait statistics of one host
+	 */
+	public static final class HostStats
+	{
+		public final String host;
+		public final int queueDepth;
+		public final int activeConnections;
+		public final long requests;
+		public final double averageWaitMillis;
+		public final double maxWaitMillis;
+
+		HostStats(String host, int queueDepth, int activeConnections, long requests, double averageWaitMillis, double maxWaitMillis)
+		{
+			this.host = host;
+			this.queueDepth = queueDepth;
+			this.activeConnections = activeConnections;
+			this.requests = requests;
+			this.averageWaitMillis = averageWaitMillis;
+			this.maxWaitMillis = maxWaitMillis;
+		}
+
+		public String toString()
+		{
+			return String.format("%s | queued: %d | active: %d | requests: %d | avg wait: %.1f ms | max wait: %.1f ms",
+					host, queueDepth, activeConnections, requests, averageWaitMillis, maxWaitMillis);
+		}
+	}
+
+	// The state of one host, guarded by its own lock
+	private static final class HostQueue
+	{
+		final ReentrantLock lock = new ReentrantLock();
+		final Condition changed = lock.newCondition();
+
+		// tickets hand out queue positions so waiting requests are served in arrival order
+		long nextTicket;
+		long servingTicket;
+
+		// requests registered and not yet started, waiting here or held back by the caller
+		int pending;
+
+		int active;
+		long nextStartNanos;
+		long delayNanos;
+
+		long requests;
+		long totalWaitNanos;
+		long maxWaitNanos;
+	}
+
+	private final long minDelayNanos;
+	private final int maxConnectionsPerHost;
+	private final Map<String, HostQueue> hosts = new ConcurrentHashMap<>();
+
+	/**
+	 * Constructs a scheduler
+	 * @param minDelayMillis the minimum time between two request starts on the same host
+	 * @param maxConnectionsPerHost the maximum number of simultaneous requests to the same host
+	 */
+	public HostScheduler(long minDelayMillis, int maxConnectionsPerHost)
+	{
+		if (minDelayMillis < 0 || maxConnectionsPerHost < 1)
+		{
+			throw new IllegalArgumentException("ERROR: Invalid politeness settings.");
+		}
+		this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(minDelayMillis);
+		this.maxConnectionsPerHost = maxConnectionsPerHost;
+	}
+
+	private HostQueue queueOf(String host)
+	{
+		return hosts.computeIfAbsent(host, h ->
+		{
+			HostQueue q = new HostQueue();
+			q.delayNanos = minDelayNanos;
+			return q;
+		});
+	}
+
+	/**
+	 * Raises the delay of one host, e.g. to honour a robots.txt Crawl-delay
+	 * The delay never drops below the scheduler's minimum delay.
+	 * @param host the host name
+	 * @param delayMillis the requested delay between two request starts
+	 */
+	public void setHostDelay(String host, long delayMillis)
+	{
+		HostQueue q = queueOf(host);
+		q.lock.lock();
+		try
+		{
+			q.delayNanos = Math.max(minDelayNanos, TimeUnit.MILLISECONDS.toNanos(delayMillis));
+		}
+		finally
+		{
+			q.lock.unlock();
+		}
+	}
+
+	/**
+	 * Registers a request to a host that will start later
+	 * Every call must be followed by exactly one call to acquire(host, queuedNanos) or cancel(host).
+	 * @param host the host name
+	 * @return the time the request was queued, to pass to acquire(host, queuedNanos)
+	 */
+	public long enqueue(String host)
+	{
+		HostQueue q = queueOf(host);
+		q.lock.lock();
+		try
+		{
+			q.pending++;
+			return System.nanoTime();
+		}
+		finally
+		{
+			q.lock.unlock();
+		}
+	}
+
+	/**
+	 * Withdraws a request registered with enqueue(host) that will not start
+	 * @param host the host name
+	 */
+	public void cancel(String host)
+	{
+		HostQueue q = queueOf(host);
+		q.lock.lock();
+		try
+		{
+			q.pending--;
+		}
+		finally
+		{
+			q.lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits in the host's queue until a request to it may start
+	 * Every call must be followed by exactly one call to release(host).
+	 * An interrupt does not abandon the queue position; the interrupt status is restored on return.
+	 * @param host the host name
+	 */
+	public void acquire(String host)
+	{
+		acquire(host, enqueue(host));
+	}
+
+	/**
+	 * Waits in the host's queue until a request registered with enqueue(host) may start
+	 * Its wait is counted from the time it was queued. Every call must be followed by exactly one
+	 * call to release(host).
+	 * @param host the host name
+	 * @param queuedNanos the time returned by enqueue(host)
+	 */
+	public void acquire(String host, long queuedNanos)
+	{
+		HostQueue q = queueOf(host);
+		boolean interrupted = false;
+		q.lock.lock();
+		try
+		{
+			long ticket = q.nextTicket++;
+			while (true)
+			{
+				long now = System.nanoTime();
+				if (ticket == q.servingTicket && q.active < maxConnectionsPerHost && now - q.nextStartNanos >= 0)
+				{
+					break;
+				}
+				try
+				{
+					if (ticket == q.servingTicket && q.active < maxConnectionsPerHost)
+					{
+						// first in line, only the delay is left
+						q.changed.awaitNanos(q.nextStartNanos - now);
+					}
+					else
+					{
+						q.changed.await();
+					}
+				}
+				catch (InterruptedException ie)
+				{
+					interrupted = true;
+				}
+			}
+
+			long now = System.nanoTime();
+			q.servingTicket++;
+			q.pending--;
+			q.active++;
+			q.nextStartNanos = now + q.delayNanos;
+
+			long waited = now - queuedNanos;
+			q.requests++;
+			q.totalWaitNanos += waited;
+			q.maxWaitNanos = Math.max(q.maxWaitNanos, waited);
+
+			// the next ticket holder may now start waiting for its delay
+			q.changed.signalAll();
+		}
+		finally
+		{
+			q.lock.unlock();
+		}
+		if (interrupted)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Gives back the connection taken by acquire(host)
+	 * @param host the host name
+	 */
+	public void release(String host)
+	{
+		HostQueue q = queueOf(host);
+		q.lock.lock();
+		try
+		{
+			q.active--;
+			q.changed.signalAll();
+		}
+		finally
+		{
+			q.lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets how long a request to a host would wait before it could start
+	 * @param host the host name
+	 * @return 0 if a request may start now, the rest of the delay if only the delay is left, or
+	 * Long.MAX_VALUE if every connection is taken or other requests are waiting
+	 */
+	public long nanosUntilReady(String host)
+	{
+		HostQueue q = hosts.get(host);
+		if (q == null)
+		{
+			return 0;
+		}
+		q.lock.lock();
+		try
+		{
+			if (q.nextTicket != q.servingTicket || q.active >= maxConnectionsPerHost)
+			{
+				return Long.MAX_VALUE;
+			}
+			return Math.max(0, q.nextStartNanos - System.nanoTime());
+		}
+		finally
+		{
+			q.lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the number of requests waiting for a host, including those held back by the caller
+	 * @param host the host name
+	 * @return the number of waiting requests
+	 */
+	public int getQueueDepth(String host)
+	{
+		HostQueue q = hosts.get(host);
+		if (q == null)
+		{
+			return 0;
+		}
+		q.lock.lock();
+		try
+		{
+			return q.pending;
+		}
+		finally
+		{
+			q.lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the average time a request waited from being queued until it could start on a host
+	 * @param host the host name
+	 * @return the average wait in milliseconds, or 0 if the host has no requests yet
+	 */
+	public double getAverageWaitMillis(String host)
+	{
+		HostQueue q = hosts.get(host);
+		if (q == null)
+		{
+			return 0;
+		}
+		q.lock.lock();
+		try
+		{
+			return q.requests == 0 ? 0 : q.totalWaitNanos / 1e6 / q.requests;
+		}
+		finally
+		{
+			q.lock.unlock();
+		}
+	}
+
+	/**
+	 * Takes a snapshot of the statistics of every host seen so far
+	 * @return one entry per host
+	 */
+	public List<HostStats> getStats()
+	{
+		List<HostStats> stats = new ArrayList<>(hosts.size());
+		for (Map.Entry<String, HostQueue> e : hosts.entrySet())
+		{
+			HostQueue q = e.getValue();
+			q.lock.lock();
+			try
+			{
+				stats.add(new HostStats(e.getKey(), q.pending, q.active, q.requests,
+						q.requests == 0 ? 0 : q.totalWaitNanos / 1e6 / q.requests, q.maxWaitNanos / 1e6));
+			}
+			finally
+			{
+				q.lock.unlock();
+			}
+		}
+		return stats;
+	}
+}
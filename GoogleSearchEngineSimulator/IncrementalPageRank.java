@@ -0,0 +1,729 @@
+package searchengine;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Keeps PageRank up to date while pages and links are added or re-crawled
+ * After a batch of changes only the pages whose rank can actually move are recomputed: the
+ * targets of changed links are put on a work list, and a page whose rank changes by more than
+ * the push threshold puts its own out-links on the list in turn. Rank changes below the threshold
+ * are dropped and added to an error estimate; once the estimate passes the error bound, or the
+ * work list grows too large, the ranks are recomputed from scratch with PageRankComputer.
+ * A batch that queues pages with more than half the links of the graph between them goes
+ * straight to the recompute, without first spending the work budget locally.
+ *
+ * Scores are kept unnormalized (they sum to the number of pages), so that the random-jump term
+ * of every page does not change when new pages are added.
+ *
+ * Every link's place in the out-list of its source and in the in-list of its target is kept in a
+ * hash table, so adding or removing a link takes O(1) time even for pages with thousands of links.
+ *
+ */
+public class IncrementalPageRank
+{
+	private final double damping;
+	private final int parallelism;
+	private double pushThreshold = 1e-3;
+	private double errorBound = 1e-2;
+
+	// mutable adjacency lists; out[u][0 .. outDegree[u]) and in[v][0 .. inDegree[v])
+	private int nodeCount;
+	private int[][] out = new int[16][];
+	private int[] outDegree = new int[16];
+	private int[][] in = new int[16][];
+	private int[] inDegree = new int[16];
+	private final EdgeTable edges = new EdgeTable();
+
+	// unnormalized scores, and the sum of the scores of pages without out-links
+	private double[] score = new double[16];
+	private double danglingScore;
+
+	// random-jump term the scores were last fully consistent with
+	private double baseAtRecompute;
+	private double droppedResidual;
+
+	// pages waiting to be recomputed
+	private int[] queue = new int[16];
+	private int queueHead;
+	private int queueSize;
+	private boolean[] queued = new boolean[16];
+
+	// pages whose out-links changed since the last update
+	private int[] changedSources = new int[16];
+	private int changedCount;
+	private boolean[] sourceChanged = new boolean[16];
+
+	// statistics of the last update
+	private int lastUpdatedNodes;
+	private boolean lastWasFullRecompute;
+
+	/**
+	 * Constructs the ranker from a link graph and computes its ranks from scratch on one thread
+	 * @param graph the starting link graph
+	 * @param damping the damping factor, usually 0.85
+	 */
+	public IncrementalPageRank(LinkGraph graph, double damping)
+	{
+		this(graph, damping, 1);
+	}
+
+	/**
+	 * Constructs the ranker from a link graph and computes its ranks from scratch
+	 * @param graph the starting link graph
+	 * @param damping the damping factor, usually 0.85
+	 * @param parallelism the number of threads of every full recompute, as in PageRankComputer.setParallelism
+	 */
+	public IncrementalPageRank(LinkGraph graph, double damping, int parallelism)
+	{
+		if (parallelism < 1)
+		{
+			throw new IllegalArgumentException("ERROR: Parallelism must be positive.");
+		}
+		this.damping = damping;
+		this.parallelism = parallelism;
+		addNodes(graph.getNodeCount());
+		int[] offsets = graph.outOffsets();
+		int[] targets = graph.outTargets();
+		for (int u = 0; u < graph.getNodeCount(); u++)
+		{
+			for (int e = offsets[u]; e < offsets[u + 1]; e++)
+			{
+				append(u, targets[e]);
+			}
+		}
+		recompute();
+		queueSize = 0;
+		Arrays.fill(queued, false);
+	}
+
+	/**
+	 * Sets the smallest change of a page's score that is propagated to the pages it links to
+	 * @param pushThreshold the threshold, in unnormalized score units
+	 */
+	public void setPushThreshold(double pushThreshold)
+	{
+		this.pushThreshold = pushThreshold;
+	}
+
+	/**
+	 * Sets the largest estimated L1 error of the normalized ranks before a full recompute
+	 * @param errorBound the error bound
+	 */
+	public void setErrorBound(double errorBound)
+	{
+		this.errorBound = errorBound;
+	}
+
+	/**
+	 * Adds pages with no links
+	 * @param count the number of new pages
+	 * @return the node ID of the first new page
+	 */
+	public int addNodes(int count)
+	{
+		int first = nodeCount;
+		ensureCapacity(nodeCount + count);
+		for (int v = first; v < first + count; v++)
+		{
+			out[v] = new int[2];
+			in[v] = new int[2];
+			score[v] = 1 - damping;
+			danglingScore += score[v];
+			enqueue(v);
+		}
+		nodeCount += count;
+		return first;
+	}
+
+	/**
+	 * Adds a link; duplicates and self-links are ignored
+	 * @param from the linking page
+	 * @param to the linked page
+	 */
+	public void addEdge(int from, int to)
+	{
+		if (from == to || edges.get(from, to) >= 0)
+		{
+			return;
+		}
+		changingOutLinks(from);
+		append(from, to);
+		enqueue(to);
+	}
+
+	/**
+	 * Removes a link if it exists
+	 * @param from the linking page
+	 * @param to the linked page
+	 */
+	public void removeEdge(int from, int to)
+	{
+		if (edges.get(from, to) < 0)
+		{
+			return;
+		}
+		changingOutLinks(from);
+		unlink(from, to);
+		if (outDegree[from] == 0)
+		{
+			danglingScore += score[from];
+		}
+		enqueue(to);
+	}
+
+	/**
+	 * Replaces every out-link of a re-crawled page
+	 * @param from the re-crawled page
+	 * @param targets the pages it links to now; duplicates and self-links are ignored
+	 */
+	public void replaceOutLinks(int from, int[] targets)
+	{
+		changingOutLinks(from);
+		while (outDegree[from] > 0)
+		{
+			int to = out[from][outDegree[from] - 1];
+			unlink(from, to);
+			enqueue(to);
+		}
+		for (int to : targets)
+		{
+			if (to != from && edges.get(from, to) < 0)
+			{
+				append(from, to);
+				enqueue(to);
+			}
+		}
+		if (outDegree[from] == 0)
+		{
+			danglingScore += score[from];
+		}
+	}
+
+	// Removes an existing link from both adjacency lists and from the link table
+	private void unlink(int from, int to)
+	{
+		long places = edges.get(from, to);
+		edges.remove(from, to);
+		// fill both holes with the last link of the list, which moves to the hole's place
+		int i = (int) (places >>> 32);
+		int last = out[from][--outDegree[from]];
+		if (i < outDegree[from])
+		{
+			out[from][i] = last;
+			long moved = edges.get(from, last);
+			edges.put(from, last, (long) i << 32 | (moved & 0xFFFFFFFFL));
+		}
+		int j = (int) places;
+		int lastSource = in[to][--inDegree[to]];
+		if (j < inDegree[to])
+		{
+			in[to][j] = lastSource;
+			long moved = edges.get(lastSource, to);
+			edges.put(lastSource, to, (moved & 0xFFFFFFFF00000000L) | j);
+		}
+	}
+
+	/**
+	 * Propagates the pending changes
+	 * @return the normalized rank of every page; the ranks sum to 1
+	 */
+	public double[] update()
+	{
+		// give up on the local update once it has done as much work as a few full iterations
+		long iteration = nodeCount + edgeCount();
+		long budget = 5 * iteration;
+		long work = 0;
+		lastUpdatedNodes = 0;
+		lastWasFullRecompute = false;
+		for (int c = 0; c < changedCount; c++)
+		{
+			int u = changedSources[c];
+			sourceChanged[u] = false;
+			for (int i = 0; i < outDegree[u]; i++)
+			{
+				enqueue(out[u][i]);
+			}
+		}
+		changedCount = 0;
+
+		// the changes spread from the queued pages over several passes, so if the first pass alone
+		// pulls half the links of the graph the local update would cost more than the recompute
+		long firstPass = 0;
+		for (int i = 0; i < queueSize && firstPass <= iteration / 2; i++)
+		{
+			firstPass += 1 + inDegree[queue[(queueHead + i) % queue.length]];
+		}
+		boolean tooLarge = firstPass > iteration / 2;
+		if (tooLarge)
+		{
+			queueSize = 0;
+		}
+
+		while (queueSize > 0)
+		{
+			int v = dequeue();
+			double next = base() + damping * pull(v);
+			double delta = next - score[v];
+			work += 1 + inDegree[v];
+			if (Math.abs(delta) <= pushThreshold)
+			{
+				droppedResidual += Math.abs(delta);
+				continue;
+			}
+			score[v] = next;
+			lastUpdatedNodes++;
+			if (outDegree[v] == 0)
+			{
+				danglingScore += delta;
+			}
+			for (int i = 0; i < outDegree[v]; i++)
+			{
+				enqueue(out[v][i]);
+			}
+			if (work > budget)
+			{
+				break;
+			}
+		}
+
+		if (tooLarge || work > budget || estimatedError() > errorBound)
+		{
+			recompute();
+			lastWasFullRecompute = true;
+		}
+		queueSize = 0;
+		Arrays.fill(queued, 0, nodeCount, false);
+		return getRanks();
+	}
+
+	/**
+	 * Gets the current normalized ranks
+	 * @return the rank of every page; the ranks sum to 1
+	 */
+	public double[] getRanks()
+	{
+		double[] ranks = new double[nodeCount];
+		double total = 0;
+		for (int v = 0; v < nodeCount; v++)
+		{
+			total += score[v];
+		}
+		for (int v = 0; v < nodeCount; v++)
+		{
+			ranks[v] = score[v] / total;
+		}
+		return ranks;
+	}
+
+	/**
+	 * Gets the number of pages
+	 * @return the number of nodes
+	 */
+	public int getNodeCount()
+	{
+		return nodeCount;
+	}
+
+	/**
+	 * Gets the number of pages whose rank was recomputed by the last update
+	 * @return the number of updated pages
+	 */
+	public int getLastUpdatedNodes()
+	{
+		return lastUpdatedNodes;
+	}
+
+	/**
+	 * Checks if the last update fell back to a full recompute
+	 * @return true if everything was recomputed
+	 */
+	public boolean wasLastFullRecompute()
+	{
+		return lastWasFullRecompute;
+	}
+
+	/**
+	 * Gets the current estimate of the L1 error of the normalized ranks
+	 * Dropped changes and the drift of the random-jump term are both amplified by at most 1 / (1 - damping).
+	 * @return the estimated error
+	 */
+	public double estimatedError()
+	{
+		double drift = nodeCount * Math.abs(base() - baseAtRecompute);
+		return (droppedResidual + drift) / (1 - damping) / Math.max(1, nodeCount);
+	}
+
+	/**
+	 * Builds an immutable copy of the current link graph
+	 * @return the pages and links as they are now
+	 */
+	public LinkGraph toGraph()
+	{
+		LinkGraph.Builder builder = new LinkGraph.Builder();
+		builder.ensureNodes(nodeCount);
+		for (int u = 0; u < nodeCount; u++)
+		{
+			for (int i = 0; i < outDegree[u]; i++)
+			{
+				builder.addEdge(u, out[u][i]);
+			}
+		}
+		return builder.build();
+	}
+
+	// Runs the full power iteration and resets the error estimate
+	private void recompute()
+	{
+		PageRankComputer computer = new PageRankComputer();
+		computer.setDamping(damping);
+		computer.setParallelism(parallelism);
+		double[] ranks = computer.compute(toGraph());
+		danglingScore = 0;
+		for (int v = 0; v < nodeCount; v++)
+		{
+			score[v] = ranks[v] * nodeCount;
+			if (outDegree[v] == 0)
+			{
+				danglingScore += score[v];
+			}
+		}
+		baseAtRecompute = base();
+		droppedResidual = 0;
+	}
+
+	private double base()
+	{
+		return (1 - damping) + damping * danglingScore / Math.max(1, nodeCount);
+	}
+
+	private double pull(int v)
+	{
+		double sum = 0;
+		int[] sources = in[v];
+		for (int i = 0; i < inDegree[v]; i++)
+		{
+			int u = sources[i];
+			sum += score[u] / outDegree[u];
+		}
+		return sum;
+	}
+
+	// Every page that page u links to gets a new share when u's out-degree changes; the pages it
+	// still links to are queued once by update(), however many of u's links change
+	private void changingOutLinks(int u)
+	{
+		if (outDegree[u] == 0)
+		{
+			danglingScore -= score[u];
+		}
+		if (!sourceChanged[u])
+		{
+			sourceChanged[u] = true;
+			if (changedCount == changedSources.length)
+			{
+				changedSources = Arrays.copyOf(changedSources, changedCount * 2);
+			}
+			changedSources[changedCount++] = u;
+		}
+	}
+
+	private void append(int from, int to)
+	{
+		if (outDegree[from] == out[from].length)
+		{
+			out[from] = Arrays.copyOf(out[from], outDegree[from] * 2);
+		}
+		if (inDegree[to] == in[to].length)
+		{
+			in[to] = Arrays.copyOf(in[to], inDegree[to] * 2);
+		}
+		edges.put(from, to, (long) outDegree[from] << 32 | inDegree[to]);
+		out[from][outDegree[from]++] = to;
+		in[to][inDegree[to]++] = from;
+	}
+
+	private long edgeCount()
+	{
+		long edges = 0;
+		for (int u = 0; u < nodeCount; u++)
+		{
+			edges += outDegree[u];
+		}
+		return edges;
+	}
+
+	private void enqueue(int v)
+	{
+		if (queued[v])
+		{
+			return;
+		}
+		if (queueSize == queue.length)
+		{
+			int[] grown = new int[queue.length * 2];
+			for (int i = 0; i < queueSize; i++)
+			{
+				grown[i] = queue[(queueHead + i) % queue.length];
+			}
+			queue = grown;
+			queueHead = 0;
+		}
+		queue[(queueHead + queueSize) % queue.length] = v;
+		queueSize++;
+		queued[v] = true;
+	}
+
+	private int dequeue()
+	{
+		int v = queue[queueHead];
+		queueHead = (queueHead + 1) % queue.length;
+		queueSize--;
+		queued[v] = false;
+		return v;
+	}
+
+	private void ensureCapacity(int capacity)
+	{
+		if (capacity <= score.length)
+		{
+			return;
+		}
+		int size = Math.max(capacity, score.length * 2);
+		out = Arrays.copyOf(out, size);
+		outDegree = Arrays.copyOf(outDegree, size);
+		in = Arrays.copyOf(in, size);
+		inDegree = Arrays.copyOf(inDegree, size);
+		score = Arrays.copyOf(score, size);
+		queued = Arrays.copyOf(queued, size);
+		sourceChanged = Arrays.copyOf(sourceChanged, size);
+	}
+
+	/**
+	 * An open-addressing hash table from a link to its places: the index of the target in the
+	 * source's out-list in the high 32 bits, the index of the source in the target's in-list in
+	 * the low 32 bits. Removal shifts the following entries back, so there are no tombstones.
+	 */
+	private static final class EdgeTable
+	{
+		private static final long EMPTY = -1;
+
+		private long[] keys = newKeys(16);
+		private long[] values = new long[16];
+		private int size;
+
+		// Gets the places of a link, or -1 if it does not exist
+		long get(int from, int to)
+		{
+			long key = key(from, to);
+			int mask = keys.length - 1;
+			for (int slot = slotOf(key, mask); keys[slot] != EMPTY; slot = (slot + 1) & mask)
+			{
+				if (keys[slot] == key)
+				{
+					return values[slot];
+				}
+			}
+			return -1;
+		}
+
+		void put(int from, int to, long places)
+		{
+			if (2 * (size + 1) > keys.length)
+			{
+				grow();
+			}
+			long key = key(from, to);
+			int mask = keys.length - 1;
+			int slot = slotOf(key, mask);
+			while (keys[slot] != EMPTY && keys[slot] != key)
+			{
+				slot = (slot + 1) & mask;
+			}
+			if (keys[slot] == EMPTY)
+			{
+				keys[slot] = key;
+				size++;
+			}
+			values[slot] = places;
+		}
+
+		void remove(int from, int to)
+		{
+			long key = key(from, to);
+			int mask = keys.length - 1;
+			int slot = slotOf(key, mask);
+			while (keys[slot] != key)
+			{
+				if (keys[slot] == EMPTY)
+				{
+					return;
+				}
+				slot = (slot + 1) & mask;
+			}
+			size--;
+			// move back every later entry of the run that may no longer be reachable past the hole
+			int hole = slot;
+			for (int next = (hole + 1) & mask; keys[next] != EMPTY; next = (next + 1) & mask)
+			{
+				int home = slotOf(keys[next], mask);
+				if (((next - home) & mask) >= ((next - hole) & mask))
+				{
+					keys[hole] = keys[next];
+					values[hole] = values[next];
+					hole = next;
+				}
+			}
+			keys[hole] = EMPTY;
+		}
+
+		private void grow()
+		{
+			long[] oldKeys = keys;
+			long[] oldValues = values;
+			keys = newKeys(oldKeys.length * 2);
+			values = new long[oldKeys.length * 2];
+			int mask = keys.length - 1;
+			for (int i = 0; i < oldKeys.length; i++)
+			{
+				if (oldKeys[i] != EMPTY)
+				{
+					int slot = slotOf(oldKeys[i], mask);
+					while (keys[slot] != EMPTY)
+					{
+						slot = (slot + 1) & mask;
+					}
+					keys[slot] = oldKeys[i];
+					values[slot] = oldValues[i];
+				}
+			}
+		}
+
+		private static long[] newKeys(int capacity)
+		{
+			long[] keys = new long[capacity];
+			Arrays.fill(keys, EMPTY);
+			return keys;
+		}
+
+		private static long key(int from, int to)
+		{
+			return (long) from << 32 | to;
+		}
+
+		private static int slotOf(long key, int mask)
+		{
+			key *= 0x9E3779B97F4A7C15L;
+			return (int) (key ^ key >>> 32) & mask;
+		}
+	}
+
+	// Compares incremental updates with full recomputes on a random graph, both on every core: java IncrementalPageRank [nodes] [edgesPerNode]
+	public static void main(String[] args)
+	{
+		int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+		int perNode = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		Random random = new Random(7);
+		LinkGraph.Builder builder = new LinkGraph.Builder();
+		builder.ensureNodes(nodes);
+		for (int u = 0; u < nodes; u++)
+		{
+			for (int k = 0; k < perNode; k++)
+			{
+				builder.addEdge(u, skewed(random, nodes));
+			}
+		}
+		LinkGraph graph = builder.build();
+		long start = System.nanoTime();
+		int threads = Runtime.getRuntime().availableProcessors();
+		IncrementalPageRank ranker = new IncrementalPageRank(graph, 0.85, threads);
+		System.out.printf("%d nodes, %d edges, first ranking in %.0f ms%n", nodes, graph.getEdgeCount(), (System.nanoTime() - start) / 1e6);
+
+		PageRankComputer computer = new PageRankComputer();
+		computer.setParallelism(threads);
+		// the batches below zero only warm up the JIT, so that batch 1 is not timed in the interpreter
+		for (int batch = -9; batch <= 10; batch++)
+		{
+			// a crawl batch: 20 new pages, 200 new links, 20 removed links and 20 re-crawled pages
+			int first = ranker.addNodes(20);
+			for (int k = 0; k < 200; k++)
+			{
+				ranker.addEdge(first + random.nextInt(20), skewed(random, ranker.getNodeCount()));
+			}
+			for (int k = 0; k < 20; k++)
+			{
+				int u = random.nextInt(nodes);
+				if (ranker.outDegree[u] > 0)
+				{
+					ranker.removeEdge(u, ranker.out[u][random.nextInt(ranker.outDegree[u])]);
+				}
+			}
+			for (int k = 0; k < 20; k++)
+			{
+				int[] targets = new int[perNode];
+				for (int t = 0; t < targets.length; t++)
+				{
+					targets[t] = skewed(random, ranker.getNodeCount());
+				}
+				ranker.replaceOutLinks(random.nextInt(ranker.getNodeCount()), targets);
+			}
+			start = System.nanoTime();
+			double[] incremental = ranker.update();
+			double updateMillis = (System.nanoTime() - start) / 1e6;
+			if (batch <= 0)
+			{
+				continue;
+			}
+
+			LinkGraph now = ranker.toGraph();
+			start = System.nanoTime();
+			double[] full = computer.compute(now);
+			double fullMillis = (System.nanoTime() - start) / 1e6;
+			double error = 0;
+			for (int v = 0; v < full.length; v++)
+			{
+				error += Math.abs(full[v] - incremental[v]);
+			}
+			System.out.printf("batch %2d: update %.1f ms (%d pages%s), full recompute %.1f ms, L1 error %.1e, estimated %.1e%n",
+					batch, updateMillis, ranker.getLastUpdatedNodes(), ranker.wasLastFullRecompute() ? ", fell back to full" : "",
+					fullMillis, error, ranker.estimatedError());
+		}
+
+		// a large re-crawl: a tenth of the pages get new links, too many to update locally
+		for (int k = 0; k < nodes / 10; k++)
+		{
+			int[] targets = new int[perNode];
+			for (int t = 0; t < targets.length; t++)
+			{
+				targets[t] = skewed(random, ranker.getNodeCount());
+			}
+			ranker.replaceOutLinks(random.nextInt(ranker.getNodeCount()), targets);
+		}
+		start = System.nanoTime();
+		ranker.update();
+		System.out.printf("large re-crawl: update %.1f ms (%s)%n", (System.nanoTime() - start) / 1e6,
+				ranker.wasLastFullRecompute() ? "fell back to full" : ranker.getLastUpdatedNodes() + " pages");
+
+		// links of one hub page: each add and each removal takes constant time
+		int hub = ranker.addNodes(1);
+		start = System.nanoTime();
+		for (int v = 0; v < 100_000; v++)
+		{
+			ranker.addEdge(hub, v);
+		}
+		for (int v = 0; v < 100_000; v += 2)
+		{
+			ranker.removeEdge(hub, v);
+		}
+		int[] targets = new int[100_000];
+		Arrays.setAll(targets, v -> v);
+		ranker.replaceOutLinks(hub, targets);
+		System.out.printf("hub page: 100k links added, 50k removed and 100k replaced in %.0f ms%n", (System.nanoTime() - start) / 1e6);
+	}
+
+	// A random page, skewed so that some pages become popular
+	private static int skewed(Random random, int nodes)
+	{
+		return (int) (nodes * Math.pow(random.nextDouble(), 3));
+	}
+}
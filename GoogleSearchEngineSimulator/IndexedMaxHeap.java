@@ -0,0 +1,368 @@
+package searchengine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * A max-heap priority queue that stores the elements themselves and remembers where each one is
+ * Every element's position in the heap array is kept in a map, so an element can be found,
+ * re-ranked or removed in O(log n) without scanning the heap or re-sorting it, and two
+ * elements with the same score never get mixed up. The map points to a small node per element
+ * that holds its position; sifting moves the nodes and updates their positions in place, so it
+ * makes no map lookups and boxes no positions.
+ * Elements are looked up with equals/hashCode, so an element must not change while it is stored;
+ * replace it with increaseKey/decreaseKey instead.
+ *
+ * @param <K> the element type
+ */
+public class IndexedMaxHeap<K>
+{
+	private static final int DEFAULT_CAPACITY = 16;
+	// some VMs reserve a few header words in arrays
+	private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+	private final Comparator<? super K> order;
+	private final Map<K, Node> positions;
+	private Node[] heap;
+	// number of elements; heap[size ..] are always null, there are no sentinel values
+	private int size;
+
+	/**
+	 * Constructs an empty heap
+	 * @param order the order of the elements; the greatest element is on top
+	 */
+	public IndexedMaxHeap(Comparator<? super K> order)
+	{
+		this(order, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructs an empty heap with room for a number of elements
+	 * The heap still grows past the capacity; sizing it up front only saves the copies.
+	 * @param order the order of the elements; the greatest element is on top
+	 * @param capacity the expected number of elements
+	 */
+	public IndexedMaxHeap(Comparator<? super K> order, int capacity)
+	{
+		if (capacity < 0 || capacity > MAX_CAPACITY)
+		{
+			throw new IllegalArgumentException("ERROR: Illegal capacity: " + capacity);
+		}
+		this.order = order;
+		this.heap = new Node[capacity];
+		this.positions = new HashMap<>(Math.max(16, (int) Math.min(1 << 30, capacity * 4L / 3 + 1)));
+	}
+
+	/**
+	 * Gets the number of elements
+	 * @return the size of the heap
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Checks if the heap has no elements
+	 * @return true if the heap is empty
+	 */
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	/**
+	 * Checks if an element is in the heap
+	 * @param key the element
+	 * @return true if an equal element is stored
+	 */
+	public boolean contains(K key)
+	{
+		return positions.containsKey(key);
+	}
+
+	/**
+	 * Inserts an element
+	 * @param key the new element
+	 */
+	public void insert(K key)
+	{
+		if (positions.containsKey(key))
+		{
+			throw new IllegalArgumentException("ERROR: Element is already in the heap.");
+		}
+		if (size == heap.length)
+		{
+			grow(size + 1);
+		}
+		Node node = new Node(key, size);
+		heap[size] = node;
+		positions.put(key, node);
+		size++;
+		siftUp(size - 1);
+	}
+
+	/**
+	 * Returns the element with the largest key
+	 * @return the top element
+	 */
+	public K peekMax()
+	{
+		if (size == 0)
+		{
+			throw new IllegalStateException("ERROR: Heap underflow.");
+		}
+		return elementAt(0);
+	}
+
+	/**
+	 * Removes and returns the element with the largest key
+	 * @return the top element
+	 */
+	public K extractMax()
+	{
+		K max = peekMax();
+		removeAt(0);
+		return max;
+	}
+
+	/**
+	 * Removes an element
+	 * @param key the element to remove
+	 * @return true if the element was in the heap
+	 */
+	public boolean remove(K key)
+	{
+		Node node = positions.get(key);
+		if (node == null)
+		{
+			return false;
+		}
+		removeAt(node.index);
+		return true;
+	}
+
+	/**
+	 * Replaces an element with a greater one, e.g. the same website with a higher score
+	 * @param oldKey the stored element
+	 * @param newKey the replacement, not smaller than oldKey
+	 */
+	public void increaseKey(K oldKey, K newKey)
+	{
+		int i = replace(oldKey, newKey, true);
+		siftUp(i);
+	}
+
+	/**
+	 * Replaces an element with a smaller one, e.g. the same website with a lower score
+	 * @param oldKey the stored element
+	 * @param newKey the replacement, not greater than oldKey
+	 */
+	public void decreaseKey(K oldKey, K newKey)
+	{
+		int i = replace(oldKey, newKey, false);
+		siftDown(i);
+	}
+
+	/**
+	 * Gets the number of elements the heap can hold before it has to grow
+	 * @return the length of the heap array
+	 */
+	public int capacity()
+	{
+		return heap.length;
+	}
+
+	/**
+	 * Makes room for at least a number of elements, e.g. before a bulk load
+	 * @param capacity the number of elements
+	 */
+	public void ensureCapacity(int capacity)
+	{
+		if (capacity > heap.length)
+		{
+			grow(capacity);
+		}
+	}
+
+	/**
+	 * Shrinks the heap array to the number of elements, e.g. after many extractMax calls
+	 */
+	public void trimToSize()
+	{
+		if (size < heap.length)
+		{
+			heap = Arrays.copyOf(heap, size);
+		}
+	}
+
+	/**
+	 * Copies the elements in descending order; the heap itself is not changed
+	 * @return the elements, largest first
+	 */
+	public List<K> toSortedList()
+	{
+		List<K> list = new ArrayList<>(size);
+		for (int i = 0; i < size; i++)
+		{
+			list.add(elementAt(i));
+		}
+		list.sort(order.reversed());
+		return list;
+	}
+
+	/**
+	 * Gets the k largest elements in descending order without changing the heap
+	 * Only the top of the heap is visited: a small candidate queue starts at the root and each
+	 * element taken from it adds its two children, so the cost is O(k log k) for any heap size.
+	 * @param k the number of elements
+	 * @return at most k elements, largest first
+	 */
+	public List<K> topK(int k)
+	{
+		List<K> top = new ArrayList<>(Math.max(0, Math.min(k, size)));
+		if (k <= 0 || size == 0)
+		{
+			return top;
+		}
+		PriorityQueue<Integer> candidates = new PriorityQueue<>((a, b) -> order.compare(elementAt(b), elementAt(a)));
+		candidates.add(0);
+		while (top.size() < k && !candidates.isEmpty())
+		{
+			int i = candidates.poll();
+			top.add(elementAt(i));
+			for (int child = 2 * i + 1; child <= 2 * i + 2 && child < size; child++)
+			{
+				candidates.add(child);
+			}
+		}
+		return top;
+	}
+
+	// Grows the heap array by half its length, or more if needed, so n inserts cost O(n) copies in total
+	private void grow(int minCapacity)
+	{
+		if (minCapacity > MAX_CAPACITY || minCapacity < 0)
+		{
+			throw new IllegalStateException("ERROR: Heap overflow.");
+		}
+		long capacity = Math.max(DEFAULT_CAPACITY, heap.length + ((long) heap.length >> 1));
+		heap = Arrays.copyOf(heap, (int) Math.min(MAX_CAPACITY, Math.max(capacity, minCapacity)));
+	}
+
+	private int replace(K oldKey, K newKey, boolean increase)
+	{
+		Node node = positions.get(oldKey);
+		if (node == null)
+		{
+			throw new IllegalArgumentException("ERROR: Element is not in the heap.");
+		}
+		int i = node.index;
+		int cmp = order.compare(newKey, elementAt(i));
+		if (increase ? cmp < 0 : cmp > 0)
+		{
+			throw new IllegalArgumentException(increase ? "ERROR: New key is smaller than current key."
+					: "ERROR: New key is greater than current key.");
+		}
+		if (!oldKey.equals(newKey) && positions.containsKey(newKey))
+		{
+			throw new IllegalArgumentException("ERROR: Element is already in the heap.");
+		}
+		positions.remove(oldKey);
+		node.key = newKey;
+		positions.put(newKey, node);
+		return i;
+	}
+
+	private void removeAt(int i)
+	{
+		positions.remove(elementAt(i));
+		size--;
+		if (i == size)
+		{
+			heap[size] = null;
+			return;
+		}
+		// move the last element into the hole and restore the heap property in either direction
+		place(heap[size], i);
+		heap[size] = null;
+		siftDown(i);
+		siftUp(i);
+	}
+
+	private void siftUp(int i)
+	{
+		Node node = heap[i];
+		K key = cast(node.key);
+		while (i > 0)
+		{
+			int parent = (i - 1) >>> 1;
+			if (order.compare(elementAt(parent), key) >= 0)
+			{
+				break;
+			}
+			place(heap[parent], i);
+			i = parent;
+		}
+		place(node, i);
+	}
+
+	private void siftDown(int i)
+	{
+		Node node = heap[i];
+		K key = cast(node.key);
+		int half = size >>> 1;
+		while (i < half)
+		{
+			int child = 2 * i + 1;
+			int right = child + 1;
+			if (right < size && order.compare(elementAt(right), elementAt(child)) > 0)
+			{
+				child = right;
+			}
+			if (order.compare(key, elementAt(child)) >= 0)
+			{
+				break;
+			}
+			place(heap[child], i);
+			i = child;
+		}
+		place(node, i);
+	}
+
+	// Puts a node into slot i and updates its position
+	private void place(Node node, int i)
+	{
+		heap[i] = node;
+		node.index = i;
+	}
+
+	private K elementAt(int i)
+	{
+		return cast(heap[i].key);
+	}
+
+	@SuppressWarnings("unchecked")
+	private K cast(Object key)
+	{
+		return (K) key;
+	}
+
+	// An element and its current slot in the heap array
+	private static final class Node
+	{
+		Object key;
+		int index;
+
+		Node(Object key, int index)
+		{
+			this.key = key;
+			this.index = index;
+		}
+	}
+}
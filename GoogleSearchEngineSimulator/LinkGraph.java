@@ -0,0 +1,200 @@
+package searchengine;
+
+import java.util.Arrays;
+
+/**
+ * The link graph found by the WebCrawler, stored in compressed sparse row form
+ * The out-links of node u are targets[offsets[u] .. offsets[u + 1]). The same graph is kept
+ * transposed as well, so PageRank can sum over in-links with sequential array reads.
+ * Duplicate links and links from a page to itself are dropped.
+ *
+ */
+public class LinkGraph
+{
+	private final int nodeCount;
+	private final int[] offsets;
+	private final int[] targets;
+	private final int[] inOffsets;
+	private final int[] inSources;
+
+	private LinkGraph(int nodeCount, int[] offsets, int[] targets)
+	{
+		this.nodeCount = nodeCount;
+		this.offsets = offsets;
+		this.targets = targets;
+
+		// transpose with a counting sort on the targets
+		inOffsets = new int[nodeCount + 1];
+		for (int t : targets)
+		{
+			inOffsets[t + 1]++;
+		}
+		for (int v = 0; v < nodeCount; v++)
+		{
+			inOffsets[v + 1] += inOffsets[v];
+		}
+		inSources = new int[targets.length];
+		int[] fill = Arrays.copyOf(inOffsets, nodeCount);
+		for (int u = 0; u < nodeCount; u++)
+		{
+			for (int e = offsets[u]; e < offsets[u + 1]; e++)
+			{
+				inSources[fill[targets[e]]++] = u;
+			}
+		}
+	}
+
+	/**
+	 * Collects edges in two growable int arrays and turns them into a LinkGraph
+	 */
+	public static final class Builder
+	{
+		private int[] sources = new int[64];
+		private int[] dests = new int[64];
+		private int edgeCount;
+		private int nodeCount;
+
+		/**
+		 * Makes sure the graph has at least the given number of nodes, even if some have no links
+		 * @param count the number of nodes
+		 */
+		public void ensureNodes(int count)
+		{
+			nodeCount = Math.max(nodeCount, count);
+		}
+
+		/**
+		 * Adds a link
+		 * @param from the node ID of the linking page
+		 * @param to the node ID of the linked page
+		 */
+		public void addEdge(int from, int to)
+		{
+			if (edgeCount == sources.length)
+			{
+				sources = Arrays.copyOf(sources, edgeCount * 2);
+				dests = Arrays.copyOf(dests, edgeCount * 2);
+			}
+			sources[edgeCount] = from;
+			dests[edgeCount] = to;
+			edgeCount++;
+			nodeCount = Math.max(nodeCount, Math.max(from, to) + 1);
+		}
+
+		/**
+		 * Gets the number of links added so far, duplicates included
+		 * @return the number of links
+		 */
+		public int getEdgeCount()
+		{
+			return edgeCount;
+		}
+
+		/**
+		 * Builds the graph
+		 * @return a new LinkGraph
+		 */
+		public LinkGraph build()
+		{
+			// counting sort of the edges by source node
+			int[] offsets = new int[nodeCount + 1];
+			for (int i = 0; i < edgeCount; i++)
+			{
+				offsets[sources[i] + 1]++;
+			}
+			for (int u = 0; u < nodeCount; u++)
+			{
+				offsets[u + 1] += offsets[u];
+			}
+			int[] targets = new int[edgeCount];
+			int[] fill = Arrays.copyOf(offsets, nodeCount);
+			for (int i = 0; i < edgeCount; i++)
+			{
+				targets[fill[sources[i]]++] = dests[i];
+			}
+
+			// sort every row, then squeeze out duplicates and self-links
+			int write = 0;
+			int rowStart = 0;
+			for (int u = 0; u < nodeCount; u++)
+			{
+				int rowEnd = offsets[u + 1];
+				Arrays.sort(targets, rowStart, rowEnd);
+				offsets[u] = write;
+				int last = -1;
+				for (int e = rowStart; e < rowEnd; e++)
+				{
+					int t = targets[e];
+					if (t != last && t != u)
+					{
+						targets[write++] = t;
+					}
+					last = t;
+				}
+				rowStart = rowEnd;
+			}
+			offsets[nodeCount] = write;
+			return new LinkGraph(nodeCount, offsets, Arrays.copyOf(targets, write));
+		}
+	}
+
+	/**
+	 * Gets the number of pages in the graph
+	 * @return the number of nodes
+	 */
+	public int getNodeCount()
+	{
+		return nodeCount;
+	}
+
+	/**
+	 * Gets the number of distinct links in the graph
+	 * @return the number of edges
+	 */
+	public int getEdgeCount()
+	{
+		return targets.length;
+	}
+
+	/**
+	 * Gets the number of pages a page links to
+	 * @param u the node ID
+	 * @return the out-degree of u
+	 */
+	public int getOutDegree(int u)
+	{
+		return offsets[u + 1] - offsets[u];
+	}
+
+	/**
+	 * Gets the number of pages linking to a page
+	 * @param v the node ID
+	 * @return the in-degree of v
+	 */
+	public int getInDegree(int v)
+	{
+		return inOffsets[v + 1] - inOffsets[v];
+	}
+
+	// Raw CSR arrays for the ranking loops; callers must not modify them
+
+	int[] outOffsets()
+	{
+		return offsets;
+	}
+
+	int[] outTargets()
+	{
+		return targets;
+	}
+
+	int[] inOffsets()
+	{
+		return inOffsets;
+	}
+
+	int[] inSources()
+	{
+		return inSources;
+	}
+}
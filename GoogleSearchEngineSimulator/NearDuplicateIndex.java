@@ -0,0 +1,233 @@
+package searchengine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Finds near-duplicate pages by the Hamming distance of their SimHash fingerprints
+ * For a maximum distance d, a fingerprint is cut into d + 1 bands of 64 / (d + 1) bits. Two
+ * fingerprints that differ in at most d bits agree on at least one whole band, so every stored
+ * fingerprint is listed under each of its band values, and a lookup only compares against the
+ * fingerprints listed under its own band values instead of against every page. No near-duplicate
+ * within the distance is missed. The lists are chained through int arrays, so a stored page
+ * costs no objects.
+ * At the default distance of 3 the bands are 16 bits wide and a lookup compares about
+ * 4n / 65536 fingerprints, a handful up to a few million pages. Every extra bit of distance
+ * narrows the bands and makes the lists longer.
+ *
+ * @param <V> the value kept with every fingerprint, e.g. the URL of the page
+ */
+public class NearDuplicateIndex<V>
+{
+	// default largest Hamming distance at which two pages count as near-duplicates
+	public static final int DEFAULT_MAX_DISTANCE = 3;
+
+	private final int maxDistance;
+	private final int bands;
+	private final int bandBits;
+
+	// per band and band value, the last fingerprint stored under it plus 1, or 0 if none
+	private final int[][] heads;
+
+	// per band and fingerprint, the previous fingerprint stored under the same band value plus 1
+	private int[][] next;
+
+	private long[] fingerprints = new long[16];
+	private Object[] values = new Object[16];
+	private int size;
+
+	/**
+	 * Constructs an empty index that finds pages within the default distance
+	 */
+	public NearDuplicateIndex()
+	{
+		this(DEFAULT_MAX_DISTANCE);
+	}
+
+	/**
+	 * Constructs an empty index
+	 * @param maxDistance the largest number of differing bits at which two pages are near-duplicates, 3 to 7
+	 */
+	public NearDuplicateIndex(int maxDistance)
+	{
+		// below 3 a band would be wider than 16 bits and its table too large
+		if (maxDistance < 3 || maxDistance > 7)
+		{
+			throw new IllegalArgumentException("ERROR: Maximum distance must be between 3 and 7.");
+		}
+		this.maxDistance = maxDistance;
+		this.bands = maxDistance + 1;
+		this.bandBits = 64 / bands;
+		this.heads = new int[bands][1 << bandBits];
+		this.next = new int[bands][16];
+	}
+
+	/**
+	 * Finds a stored near-duplicate of a fingerprint, or stores the fingerprint if there is none
+	 * Checking and storing happen under one lock, so of two near-duplicates that arrive at the
+	 * same time exactly one is stored.
+	 * @param fingerprint the SimHash of the page
+	 * @param value the value to keep with the fingerprint
+	 * @return the value of a near-duplicate, or null if the fingerprint was stored
+	 */
+	public synchronized V findOrAdd(long fingerprint, V value)
+	{
+		V found = find(fingerprint);
+		if (found != null)
+		{
+			return found;
+		}
+		if (size == fingerprints.length)
+		{
+			int capacity = size + (size >> 1);
+			fingerprints = Arrays.copyOf(fingerprints, capacity);
+			values = Arrays.copyOf(values, capacity);
+			for (int band = 0; band < bands; band++)
+			{
+				next[band] = Arrays.copyOf(next[band], capacity);
+			}
+		}
+		fingerprints[size] = fingerprint;
+		values[size] = value;
+		for (int band = 0; band < bands; band++)
+		{
+			int key = bandOf(fingerprint, band);
+			next[band][size] = heads[band][key];
+			heads[band][key] = size + 1;
+		}
+		size++;
+		return null;
+	}
+
+	/**
+	 * Finds a stored near-duplicate of a fingerprint
+	 * @param fingerprint the SimHash of a page
+	 * @return the value of the closest near-duplicate, or null if there is none
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized V find(long fingerprint)
+	{
+		int best = -1;
+		int bestDistance = maxDistance + 1;
+		for (int band = 0; band < bands && bestDistance > 0; band++)
+		{
+			for (int e = heads[band][bandOf(fingerprint, band)]; e != 0; e = next[band][e - 1])
+			{
+				int distance = SimHash.distance(fingerprint, fingerprints[e - 1]);
+				if (distance < bestDistance)
+				{
+					bestDistance = distance;
+					best = e - 1;
+				}
+			}
+		}
+		return best < 0 ? null : (V) values[best];
+	}
+
+	/**
+	 * Gets the largest distance at which pages are near-duplicates
+	 * @return the maximum number of differing bits
+	 */
+	public int getMaxDistance()
+	{
+		return maxDistance;
+	}
+
+	/**
+	 * Gets the number of stored fingerprints
+	 * @return the number of distinct pages
+	 */
+	public synchronized int size()
+	{
+		return size;
+	}
+
+	// The bits above the last whole band are left out; they cannot hide a match
+	private int bandOf(long fingerprint, int band)
+	{
+		return (int) (fingerprint >>> (band * bandBits)) & ((1 << bandBits) - 1);
+	}
+
+	// Fingerprints synthetic pages, a tenth of them edited copies, and checks which copies are caught: java NearDuplicateIndex [pages] [words]
+	public static void main(String[] args)
+	{
+		int pages = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+		int words = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+		Random random = new Random(3);
+		String[] vocabulary = new String[50_000];
+		for (int i = 0; i < vocabulary.length; i++)
+		{
+			vocabulary[i] = Long.toString(i * 2654435761L % 1_000_000_007L, 36);
+		}
+
+		List<String> texts = new ArrayList<>(pages);
+		int[] edits = new int[pages];
+		for (int p = 0; p < pages; p++)
+		{
+			String[] page = new String[words];
+			if (p > 0 && random.nextInt(10) == 0)
+			{
+				// a mirror with a changed date, counter or a few edited words
+				page = texts.get(random.nextInt(p)).split(" ");
+				edits[p] = 1 + random.nextInt(5);
+				for (int edit = 0; edit < edits[p]; edit++)
+				{
+					page[random.nextInt(words)] = vocabulary[random.nextInt(vocabulary.length)];
+				}
+			}
+			else
+			{
+				for (int w = 0; w < words; w++)
+				{
+					// Zipf-like word frequencies, as in real text
+					page[w] = vocabulary[(int) Math.min(vocabulary.length - 1, Math.exp(random.nextDouble() * Math.log(vocabulary.length)))];
+				}
+			}
+			texts.add(String.join(" ", page));
+		}
+		long chars = 0;
+		for (String text : texts)
+		{
+			chars += text.length();
+		}
+
+		long[] fingerprints = new long[pages];
+		for (int round = 0; round < 3; round++)
+		{
+			long start = System.nanoTime();
+			for (int p = 0; p < pages; p++)
+			{
+				fingerprints[p] = SimHash.fingerprint(texts.get(p));
+			}
+			double hashMillis = (System.nanoTime() - start) / 1e6;
+			System.out.printf("%d pages of %d words: fingerprints %.0f MB of text/s, %.1f us/page%n",
+					pages, words, chars * 2 / 1e6 / (hashMillis / 1e3), hashMillis * 1e3 / pages);
+		}
+
+		for (int distance = 3; distance <= 7; distance += 2)
+		{
+			NearDuplicateIndex<Integer> index = new NearDuplicateIndex<>(distance);
+			int[] caught = new int[6];
+			int[] copies = new int[6];
+			int wronglyDropped = 0;
+			long start = System.nanoTime();
+			for (int p = 0; p < pages; p++)
+			{
+				boolean duplicate = index.findOrAdd(fingerprints[p], p) != null;
+				copies[edits[p]]++;
+				caught[edits[p]] += duplicate ? 1 : 0;
+			}
+			double indexMillis = (System.nanoTime() - start) / 1e6;
+			wronglyDropped = caught[0];
+			StringBuilder recall = new StringBuilder();
+			for (int e = 1; e < copies.length; e++)
+			{
+				recall.append(String.format(" %d:%.0f%%", e, caught[e] * 100.0 / copies[e]));
+			}
+			System.out.printf("distance %d: lookup+insert %.2f us/page, copies caught by edited words%s, distinct pages dropped %d%n",
+					distance, indexMillis * 1e3 / pages, recall, wronglyDropped);
+		}
+	}
+}
@@ -8,12 +8,14 @@ package searchengine;
 public class PageRank {
 
 	// The frequency and location of keywords within the web page
+	// Measured with BM25 when the page was found in the index, see scaleRelevance
 	public int frequency;
 	
 	// How long the web page has existed
 	public int age;
 
 	// The number of other web pages that link to the page 
+	// Measured from the crawled link graph when one is available, see scaleLinkRank
 	public int otherWebLinks;
 	
 	// How much the webpage owner has paid to Google for advertisement purpose
@@ -50,6 +52,57 @@ public class PageRank {
 		getTotalScore();
 	}
 	
+	/**
+	 * A constructor that uses random number generator (1 to 100) for frequency, age and money,
+	 * and a measured link score for otherWebLinks
+	 * @param otherWebLinks the link score of the page (1 to 100)
+	 */
+	public PageRank(int otherWebLinks)
+	{
+		this();
+		this.otherWebLinks = otherWebLinks;
+		getTotalScore();
+	}
+	
+	/**
+	 * A constructor that uses random number generator (1 to 100) for age and money,
+	 * and measured scores for frequency and otherWebLinks
+	 * @param frequency the relevance score of the page for the keyword (1 to 100), see scaleRelevance
+	 * @param otherWebLinks the link score of the page (1 to 100)
+	 */
+	public PageRank(int frequency, int otherWebLinks)
+	{
+		this(otherWebLinks);
+		this.frequency = frequency;
+		getTotalScore();
+	}
+	
+	/**
+	 * Converts a BM25 relevance score to a score from 1 to 100
+	 * @param score the BM25 score of the page
+	 * @param maxScore the highest BM25 score among the results
+	 * @return 100 for the most relevant page, down to 1
+	 */
+	public static int scaleRelevance(double score, double maxScore)
+	{
+		return scaleLinkRank(score, maxScore);
+	}
+	
+	/**
+	 * Converts a link-graph PageRank value to a score from 1 to 100
+	 * @param rank the PageRank value of the page
+	 * @param maxRank the highest PageRank value in the graph
+	 * @return 100 for the best linked page, down to 1 for pages nobody links to
+	 */
+	public static int scaleLinkRank(double rank, double maxRank)
+	{
+		if (maxRank <= 0)
+		{
+			return 1;
+		}
+		return 1 + (int) Math.round(99 * Math.min(rank, maxRank) / maxRank);
+	}
+	
 	/**
 	 * Returns the total score of all four factors 
 	 * @return the total score of all four factors 
@@ -0,0 +1,316 @@
+package searchengine;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Computes PageRank over a LinkGraph with damped power iteration
+ * Each iteration pulls rank over the in-links of every page using only primitive arrays.
+ * The rank of pages without out-links is spread evenly over all pages.
+ *
+ * The nodes are cut into fixed chunks. Every chunk writes its own partial sums, and the
+ * partial sums are always added up in chunk order, so the parallel mode gives bit-for-bit
+ * the same ranks as the single-threaded mode whatever the number of threads.
+ *
+ */
+public class PageRankComputer
+{
+	// nodes per chunk; small enough to balance the load, large enough to amortize task overhead
+	private static final int CHUNK_SIZE = 1 << 12;
+
+	// smaller graphs run single-threaded, since a pool for a few chunks costs more than it saves
+	private static final int MIN_PARALLEL_NODES = 8 * CHUNK_SIZE;
+
+	private double damping = 0.85;
+	private double tolerance = 1e-9;
+	private int maxIterations = 100;
+	private int parallelism = 1;
+
+	// statistics of the last run
+	private int iterations;
+	private double residual;
+
+	/**
+	 * Sets the probability of following a link instead of jumping to a random page
+	 * @param damping the damping factor, usually 0.85
+	 */
+	public void setDamping(double damping)
+	{
+		if (damping <= 0 || damping >= 1)
+		{
+			throw new IllegalArgumentException("ERROR: Damping must be between 0 and 1.");
+		}
+		this.damping = damping;
+	}
+
+	/**
+	 * Sets the convergence threshold
+	 * @param tolerance iteration stops once the L1 change of the rank vector falls below it
+	 */
+	public void setTolerance(double tolerance)
+	{
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * Sets the maximum number of iterations
+	 * @param maxIterations the iteration limit
+	 */
+	public void setMaxIterations(int maxIterations)
+	{
+		this.maxIterations = maxIterations;
+	}
+
+	/**
+	 * Sets the number of threads used by each iteration
+	 * Graphs with fewer than MIN_PARALLEL_NODES nodes run single-threaded whatever the setting.
+	 * @param parallelism 1 for the single-threaded mode, more to run chunks on a ForkJoinPool
+	 */
+	public void setParallelism(int parallelism)
+	{
+		if (parallelism < 1)
+		{
+			throw new IllegalArgumentException("ERROR: Parallelism must be positive.");
+		}
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Gets the number of iterations of the last run
+	 * @return the number of iterations
+	 */
+	public int getIterations()
+	{
+		return iterations;
+	}
+
+	/**
+	 * Gets the L1 change of the last iteration of the last run
+	 * @return the final residual
+	 */
+	public double getResidual()
+	{
+		return residual;
+	}
+
+	/**
+	 * Runs power iteration until the rank vector converges
+	 * @param graph the link graph
+	 * @return the rank of every node; the ranks sum to 1
+	 */
+	public double[] compute(LinkGraph graph)
+	{
+		int n = graph.getNodeCount();
+		iterations = 0;
+		residual = 0;
+		if (n == 0)
+		{
+			return new double[0];
+		}
+
+		Iteration it = new Iteration(graph, damping);
+		ForkJoinPool pool = parallelism > 1 && n >= MIN_PARALLEL_NODES ? new ForkJoinPool(parallelism) : null;
+		try
+		{
+			residual = Double.MAX_VALUE;
+			while (iterations < maxIterations && residual > tolerance)
+			{
+				// share of every page passed along each of its links; dangling pages feed everyone
+				it.run(pool, false);
+				double dangling = it.sumPartials();
+				it.base = (1 - damping) / n + damping * dangling / n;
+
+				it.run(pool, true);
+				residual = it.sumPartials();
+				it.swap();
+				iterations++;
+			}
+		}
+		finally
+		{
+			if (pool != null)
+			{
+				pool.shutdown();
+			}
+		}
+		return it.rank;
+	}
+
+	// The vectors of one computation and the two per-chunk passes of an iteration
+	private static final class Iteration
+	{
+		final int n;
+		final int chunks;
+		final double damping;
+		final int[] outOffsets;
+		final int[] inOffsets;
+		final int[] inSources;
+
+		double[] rank;
+		double[] next;
+		final double[] contrib;
+		final double[] partials;
+		double base;
+
+		Iteration(LinkGraph graph, double damping)
+		{
+			this.n = graph.getNodeCount();
+			this.chunks = (n + CHUNK_SIZE - 1) / CHUNK_SIZE;
+			this.damping = damping;
+			this.outOffsets = graph.outOffsets();
+			this.inOffsets = graph.inOffsets();
+			this.inSources = graph.inSources();
+			this.rank = new double[n];
+			this.next = new double[n];
+			this.contrib = new double[n];
+			this.partials = new double[chunks];
+			Arrays.fill(rank, 1.0 / n);
+		}
+
+		// Runs one pass over every chunk, on the pool if there is one
+		void run(ForkJoinPool pool, boolean pull)
+		{
+			if (pool == null)
+			{
+				for (int c = 0; c < chunks; c++)
+				{
+					runChunk(c, pull);
+				}
+			}
+			else
+			{
+				pool.invoke(new ChunkTask(this, pull, 0, chunks));
+			}
+		}
+
+		void runChunk(int c, boolean pull)
+		{
+			int from = c * CHUNK_SIZE;
+			int to = Math.min(n, from + CHUNK_SIZE);
+			double partial = 0;
+			if (!pull)
+			{
+				for (int u = from; u < to; u++)
+				{
+					int degree = outOffsets[u + 1] - outOffsets[u];
+					if (degree == 0)
+					{
+						partial += rank[u];
+						contrib[u] = 0;
+					}
+					else
+					{
+						contrib[u] = rank[u] / degree;
+					}
+				}
+			}
+			else
+			{
+				for (int v = from; v < to; v++)
+				{
+					double sum = 0;
+					for (int e = inOffsets[v]; e < inOffsets[v + 1]; e++)
+					{
+						sum += contrib[inSources[e]];
+					}
+					double r = base + damping * sum;
+					partial += Math.abs(r - rank[v]);
+					next[v] = r;
+				}
+			}
+			partials[c] = partial;
+		}
+
+		// Adds the chunk results in a fixed order, so every thread count gives the same total
+		double sumPartials()
+		{
+			double total = 0;
+			for (double p : partials)
+			{
+				total += p;
+			}
+			return total;
+		}
+
+		void swap()
+		{
+			double[] t = rank;
+			rank = next;
+			next = t;
+		}
+	}
+
+	// Splits a range of chunks in halves until one chunk is left
+	private static final class ChunkTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final Iteration it;
+		private final boolean pull;
+		private final int lo;
+		private final int hi;
+
+		ChunkTask(Iteration it, boolean pull, int lo, int hi)
+		{
+			this.it = it;
+			this.pull = pull;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		protected void compute()
+		{
+			if (hi - lo == 1)
+			{
+				it.runChunk(lo, pull);
+				return;
+			}
+			int mid = (lo + hi) >>> 1;
+			invokeAll(new ChunkTask(it, pull, lo, mid), new ChunkTask(it, pull, mid, hi));
+		}
+	}
+
+	// Prints the scaling curve on a random graph: java PageRankComputer [nodes] [edgesPerNode]
+	public static void main(String[] args)
+	{
+		int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		int perNode = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		Random random = new Random(7);
+		LinkGraph.Builder builder = new LinkGraph.Builder();
+		builder.ensureNodes(nodes);
+		for (int u = 0; u < nodes; u++)
+		{
+			for (int k = 0; k < perNode; k++)
+			{
+				// skew the targets so that some pages become popular
+				int v = (int) (nodes * Math.pow(random.nextDouble(), 3));
+				builder.addEdge(u, v);
+			}
+		}
+		long start = System.nanoTime();
+		LinkGraph graph = builder.build();
+		System.out.printf("%d nodes, %d edges, built in %.0f ms%n", nodes, graph.getEdgeCount(), (System.nanoTime() - start) / 1e6);
+
+		PageRankComputer computer = new PageRankComputer();
+		double[] serial = null;
+		double serialMillis = 0;
+		int cores = Runtime.getRuntime().availableProcessors();
+		for (int threads = 1; threads <= cores; threads = threads < cores ? Math.min(threads * 2, cores) : cores + 1)
+		{
+			computer.setParallelism(threads);
+			computer.compute(graph); // warm-up
+			start = System.nanoTime();
+			double[] ranks = computer.compute(graph);
+			double millis = (System.nanoTime() - start) / 1e6;
+			if (serial == null)
+			{
+				serial = ranks;
+				serialMillis = millis;
+			}
+			System.out.printf("threads %2d: %d iterations in %6.0f ms, speedup %.2fx, identical to 1 thread: %b%n",
+					threads, computer.getIterations(), millis, serialMillis / millis, Arrays.equals(serial, ranks));
+		}
+	}
+}
@@ -0,0 +1,494 @@
+package searchengine;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.jsoup.Connection;
+import org.jsoup.Jsoup;
+
+/**
+ * A cache of parsed robots.txt rules, one entry per site, evicted after a time-to-live
+ * Rules are fetched the first time a site is visited and refreshed once they expire.
+ * Concurrent misses on the same site share one fetch, so a site's robots.txt is requested
+ * once per time-to-live however many crawler threads want it.
+ *
+ */
+public class RobotsCache
+{
+	/**
+	 * The Allow/Disallow rules and Crawl-delay that apply to this crawler on one site
+	 */
+	public static final class Rules
+	{
+		// a site without usable rules allows everything
+		static final Rules ALLOW_ALL = new Rules(new String[0], new boolean[0], -1);
+
+		// a site whose robots.txt could not be read is not crawled
+		static final Rules DISALLOW_ALL = new Rules(new String[] { "/" }, new boolean[] { false }, -1);
+
+		private final String[] patterns;
+		private final boolean[] allow;
+		private final long crawlDelayMillis;
+
+		Rules(String[] patterns, boolean[] allow, long crawlDelayMillis)
+		{
+			this.patterns = patterns;
+			this.allow = allow;
+			this.crawlDelayMillis = crawlDelayMillis;
+		}
+
+		/**
+		 * Checks a path against the rules; the longest matching rule wins and Allow wins ties
+		 * @param path the path and query of the URL
+		 * @return true if the path may be fetched
+		 */
+		public boolean isAllowed(String path)
+		{
+			int bestLength = -1;
+			boolean bestAllow = true;
+			for (int i = 0; i < patterns.length; i++)
+			{
+				String p = patterns[i];
+				if (p.length() >= bestLength && matches(p, path))
+				{
+					if (p.length() > bestLength || allow[i])
+					{
+						bestAllow = allow[i];
+					}
+					bestLength = p.length();
+				}
+			}
+			return bestAllow;
+		}
+
+		/**
+		 * Gets the Crawl-delay of the site
+		 * @return the delay in milliseconds, or -1 if the site did not set one
+		 */
+		public long getCrawlDelayMillis()
+		{
+			return crawlDelayMillis;
+		}
+
+		// Matches a robots.txt path pattern supporting '*' wildcards and a trailing '$' anchor
+		private static boolean matches(String pattern, String path)
+		{
+			int pEnd = pattern.length();
+			boolean anchored = pEnd > 0 && pattern.charAt(pEnd - 1) == '$';
+			if (anchored)
+			{
+				pEnd--;
+			}
+			// greedy wildcard matching with single backtracking point, linear in practice
+			int p = 0, s = 0, starP = -1, starS = 0;
+			while (true)
+			{
+				if (p == pEnd && (!anchored || s == path.length()))
+				{
+					return true;
+				}
+				if (p < pEnd && pattern.charAt(p) == '*')
+				{
+					starP = ++p;
+					starS = s;
+					continue;
+				}
+				if (p < pEnd && s < path.length() && pattern.charAt(p) == path.charAt(s))
+				{
+					p++;
+					s++;
+					continue;
+				}
+				if (starP >= 0 && starS < path.length())
+				{
+					p = starP;
+					s = ++starS;
+					continue;
+				}
+				return false;
+			}
+		}
+	}
+
+	// A cached rule set and the time it stops being valid
+	private static final class Entry
+	{
+		final Rules rules;
+		final long expiresNanos;
+
+		Entry(Rules rules, long expiresNanos)
+		{
+			this.rules = rules;
+			this.expiresNanos = expiresNanos;
+		}
+	}
+
+	// sweep expired entries after this many loads
+	private static final int SWEEP_INTERVAL = 64;
+
+	private final String userAgent;
+	private final String agentToken;
+	private final long ttlNanos;
+	private final int timeoutMillis;
+	private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+	// the fetch in progress of every site that is being loaded
+	private final Map<String, CompletableFuture<Rules>> loading = new ConcurrentHashMap<>();
+	private int loadsSinceSweep;
+
+	/**
+	 * Constructs an empty cache
+	 * @param userAgent the User-Agent header sent when fetching robots.txt
+	 * @param agentToken the product token matched against User-agent lines, e.g. "SearchEngineSimulator"
+	 * @param ttlMillis how long parsed rules stay valid
+	 * @param timeoutMillis the timeout for fetching robots.txt
+	 */
+	public RobotsCache(String userAgent, String agentToken, long ttlMillis, int timeoutMillis)
+	{
+		this.userAgent = userAgent;
+		this.agentToken = agentToken.toLowerCase();
+		this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * Checks if a URL may be fetched, loading the site's robots.txt if it is not cached
+	 * @param url an absolute http or https URL
+	 * @return true if the URL may be fetched
+	 */
+	public boolean isAllowed(String url)
+	{
+		return isAllowed(url, null);
+	}
+
+	/**
+	 * Checks if a URL may be fetched, loading the site's robots.txt in the host's turn if it is not cached
+	 * @param url an absolute http or https URL
+	 * @param scheduler the scheduler robots.txt requests wait in, or null to fetch at once
+	 * @return true if the URL may be fetched
+	 */
+	public boolean isAllowed(String url, HostScheduler scheduler)
+	{
+		try
+		{
+			URI uri = new URI(url);
+			String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+			if (uri.getRawQuery() != null)
+			{
+				path = path + "?" + uri.getRawQuery();
+			}
+			return getRules(uri, scheduler).isAllowed(path);
+		}
+		catch (URISyntaxException e)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * Gets the rules for the site of a URL, loading them if they are missing or expired
+	 * @param uri an absolute URI
+	 * @return the rules for the site
+	 */
+	public Rules getRules(URI uri)
+	{
+		return getRules(uri, null);
+	}
+
+	/**
+	 * Gets the rules for the site of a URL, loading them in the host's turn if they are missing or expired
+	 * robots.txt is a request to the host like any other, so it keeps the host's delay and connection limit.
+	 * @param uri an absolute URI
+	 * @param scheduler the scheduler robots.txt requests wait in, or null to fetch at once
+	 * @return the rules for the site
+	 */
+	public Rules getRules(URI uri, HostScheduler scheduler)
+	{
+		String site = siteOf(uri);
+		Rules rules = cached(site);
+		if (rules != null)
+		{
+			return rules;
+		}
+
+		// the first miss fetches robots.txt; later misses wait for its result
+		CompletableFuture<Rules> mine = new CompletableFuture<>();
+		CompletableFuture<Rules> pending = loading.computeIfAbsent(site, s -> mine);
+		if (pending != mine)
+		{
+			return pending.join();
+		}
+		try
+		{
+			// a fetch that finished between the cache check and computeIfAbsent has already cached its rules
+			rules = cached(site);
+			if (rules == null)
+			{
+				long now = System.nanoTime();
+				rules = scheduler == null ? load(site) : loadInTurn(site, scheduler);
+				cache.put(site, new Entry(rules, now + ttlNanos));
+				sweepIfDue(now);
+			}
+			mine.complete(rules);
+			return rules;
+		}
+		catch (RuntimeException e)
+		{
+			mine.completeExceptionally(e);
+			throw e;
+		}
+		finally
+		{
+			// removed only after the rules are cached, so a later miss finds them there
+			loading.remove(site, mine);
+		}
+	}
+
+	// Gets the rules of a site if they are cached and not expired, or null
+	private Rules cached(String site)
+	{
+		Entry entry = cache.get(site);
+		return entry != null && System.nanoTime() - entry.expiresNanos < 0 ? entry.rules : null;
+	}
+
+	// Fetches robots.txt once the scheduler lets a request to its host start
+	private Rules loadInTurn(String site, HostScheduler scheduler)
+	{
+		String host = UrlCanonicalizer.hostOf(site);
+		scheduler.acquire(host);
+		try
+		{
+			return load(site);
+		}
+		finally
+		{
+			scheduler.release(host);
+		}
+	}
+
+	/**
+	 * Gets the number of sites with cached rules
+	 * @return the number of cached sites
+	 */
+	public int size()
+	{
+		return cache.size();
+	}
+
+	/**
+	 * Removes every entry whose time-to-live has passed
+	 */
+	public void evictExpired()
+	{
+		long now = System.nanoTime();
+		for (Iterator<Entry> it = cache.values().iterator(); it.hasNext();)
+		{
+			if (now - it.next().expiresNanos >= 0)
+			{
+				it.remove();
+			}
+		}
+	}
+
+	private void sweepIfDue(long now)
+	{
+		boolean due;
+		synchronized (this)
+		{
+			due = ++loadsSinceSweep >= SWEEP_INTERVAL;
+			if (due)
+			{
+				loadsSinceSweep = 0;
+			}
+		}
+		if (due)
+		{
+			evictExpired();
+		}
+	}
+
+	private static String siteOf(URI uri)
+	{
+		String scheme = uri.getScheme() == null ? "http" : uri.getScheme().toLowerCase();
+		String host = uri.getHost() == null ? "" : uri.getHost().toLowerCase();
+		return uri.getPort() < 0 ? scheme + "://" + host : scheme + "://" + host + ":" + uri.getPort();
+	}
+
+	// Fetches robots.txt: 4xx means no rules, 5xx or an unreachable site means stay away
+	private Rules load(String site)
+	{
+		try
+		{
+			Connection.Response response = Jsoup.connect(site + "/robots.txt")
+					.userAgent(userAgent)
+					.timeout(timeoutMillis)
+					.ignoreContentType(true)
+					.ignoreHttpErrors(true)
+					.execute();
+			int status = response.statusCode();
+			if (status >= 200 && status < 300)
+			{
+				return parse(response.body(), agentToken);
+			}
+			if (status >= 400 && status < 500)
+			{
+				return Rules.ALLOW_ALL;
+			}
+			return Rules.DISALLOW_ALL;
+		}
+		catch (IOException ioe)
+		{
+			return Rules.DISALLOW_ALL;
+		}
+	}
+
+	/**
+	 * Parses a robots.txt file, keeping the group for agentToken or else the "*" group
+	 * @param text the contents of robots.txt
+	 * @param agentToken the lowercase product token of this crawler
+	 * @return the rules that apply to this crawler
+	 */
+	static Rules parse(String text, String agentToken)
+	{
+		List<String> ownPatterns = null, anyPatterns = null;
+		List<Boolean> ownAllow = null, anyAllow = null;
+		long ownDelay = -1, anyDelay = -1;
+
+		// state of the group being read
+		boolean inAgentLines = false;
+		boolean groupIsOwn = false, groupIsAny = false;
+
+		for (String rawLine : text.split("\r\n|\r|\n"))
+		{
+			int hash = rawLine.indexOf('#');
+			String line = (hash >= 0 ? rawLine.substring(0, hash) : rawLine).trim();
+			int colon = line.indexOf(':');
+			if (colon < 0)
+			{
+				continue;
+			}
+			String field = line.substring(0, colon).trim().toLowerCase();
+			String value = line.substring(colon + 1).trim();
+
+			if (field.equals("user-agent"))
+			{
+				if (!inAgentLines)
+				{
+					groupIsOwn = false;
+					groupIsAny = false;
+					inAgentLines = true;
+				}
+				String agent = value.toLowerCase();
+				if (agent.equals("*"))
+				{
+					groupIsAny = true;
+				}
+				else if (addressesAgent(agent, agentToken))
+				{
+					groupIsOwn = true;
+				}
+				continue;
+			}
+			inAgentLines = false;
+
+			if (field.equals("allow") || field.equals("disallow"))
+			{
+				// an empty Disallow allows everything and adds no rule
+				if (value.isEmpty())
+				{
+					if (groupIsOwn && ownPatterns == null)
+					{
+						ownPatterns = new ArrayList<>();
+						ownAllow = new ArrayList<>();
+					}
+					continue;
+				}
+				boolean allow = field.equals("allow");
+				if (groupIsOwn)
+				{
+					if (ownPatterns == null)
+					{
+						ownPatterns = new ArrayList<>();
+						ownAllow = new ArrayList<>();
+					}
+					ownPatterns.add(value);
+					ownAllow.add(allow);
+				}
+				else if (groupIsAny)
+				{
+					if (anyPatterns == null)
+					{
+						anyPatterns = new ArrayList<>();
+						anyAllow = new ArrayList<>();
+					}
+					anyPatterns.add(value);
+					anyAllow.add(allow);
+				}
+			}
+			else if (field.equals("crawl-delay"))
+			{
+				try
+				{
+					long delay = (long) (Double.parseDouble(value) * 1000);
+					if (groupIsOwn)
+					{
+						ownDelay = delay;
+					}
+					else if (groupIsAny)
+					{
+						anyDelay = delay;
+					}
+				}
+				catch (NumberFormatException e)
+				{
+					// ignore a malformed delay
+				}
+			}
+		}
+
+		if (ownPatterns != null || ownDelay >= 0)
+		{
+			return toRules(ownPatterns, ownAllow, ownDelay);
+		}
+		return toRules(anyPatterns, anyAllow, anyDelay);
+	}
+
+	// RFC 9309: a User-agent line names a crawler by its product token, matched case-insensitively;
+	// whatever follows the token, e.g. "/2.1", is ignored, and a shorter name is a different crawler
+	private static boolean addressesAgent(String agent, String agentToken)
+	{
+		int end = 0;
+		while (end < agent.length())
+		{
+			char c = agent.charAt(end);
+			if (!(c >= 'a' && c <= 'z' || c == '_' || c == '-'))
+			{
+				break;
+			}
+			end++;
+		}
+		return end > 0 && end == agentToken.length() && agent.startsWith(agentToken);
+	}
+
+	private static Rules toRules(List<String> patterns, List<Boolean> allow, long delay)
+	{
+		if (patterns == null || patterns.isEmpty())
+		{
+			return delay < 0 ? Rules.ALLOW_ALL : new Rules(new String[0], new boolean[0], delay);
+		}
+		String[] p = patterns.toArray(new String[0]);
+		boolean[] a = new boolean[p.length];
+		for (int i = 0; i < a.length; i++)
+		{
+			a[i] = allow.get(i);
+		}
+		return new Rules(p, a, delay);
+	}
+}
@@ -1,8 +1,23 @@
 package searchengine;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Scanner;
+import java.util.regex.Pattern;
+
+import searchengine.index.BlockMaxWand;
+import searchengine.index.Bm25Scorer;
+import searchengine.index.IndexReader;
+import searchengine.index.IndexSegment;
+import searchengine.index.QueryLog;
+import searchengine.index.SuggestionIndex;
+import searchengine.index.TopKCollector;
 
 /**
  * Builds a micro version  Google Search Engine Simulator
@@ -24,19 +39,40 @@ public class SearchEngine {
 	// A list of the first 30 URL links after WebCrawler search()
 	private ArrayList<String> webList30;
 	
-	// An array of PageRank scores of the first 30 URL links 
-	private int[] pRankArr;
-	
-	private HeapSort sorter = new HeapSort();
-	
 	// A list of the sorted URL links
 	private ArrayList<WebLink> sortedWebList;
 	
-	// An array represents a Heap
-	private int[] heap = new int[30];
+	// The Heap priority queue of websites, ordered by PageRank total score
+	private IndexedMaxHeap<WebLink> webHeap;
+	
+	// Link scores (1-100) of the URL links in webList30, in the same order, measured from the crawled link graph
+	private int[] linkScores = new int[0];
+	
+	// Relevance scores (1-100) of the URL links in webList30, in the same order, measured with BM25; 0 if not indexed
+	private int[] relevanceScores = new int[0];
+	
+	// Joins the words of a keyword of which any may occur, like "java OR python"
+	private static final Pattern OR_OPERATOR = Pattern.compile("\\s+OR\\s+");
+	
+	// The BM25 score the best linked page of an index gains over a page nobody links to
+	private static final double LINK_RANK_WEIGHT = 2.0;
+	
+	// The URLs and PageRank scores of every website that gets scored, one column per factor
+	private DocumentStore documents = new DocumentStore();
+	
+	// The index segments written after every crawl and reopened when the same keyword is searched again
+	private static final String SEGMENT_PREFIX = "searchengine-";
+	private static final String SEGMENT_SUFFIX = ".seg";
+	private static final int MAX_SEGMENT_NAME = 200;
+	
+	// The keywords users searched for, appended on every launch and counted to suggest completions
+	private QueryLog queryLog = new QueryLog(Paths.get("searchengine.queries"));
 	
-	// A list of websites stored in the Heap
-	private ArrayList<WebLink> webHeap;
+	// Completions of past keywords, weighted by how often they were searched
+	private SuggestionIndex querySuggestions = SuggestionIndex.build(Collections.emptyMap());
+	
+	// Completions of the indexed terms, weighted by the number of pages containing them
+	private SuggestionIndex termSuggestions = SuggestionIndex.build(Collections.emptyMap());
 	
 	/**
 	 * No-arg constructor that initialize its instance variables.
@@ -46,7 +82,7 @@ public class SearchEngine {
 		userAssignedWebList = new ArrayList<>();
 		randomAssignedWebList = new ArrayList<>();
 		sortedWebList = new ArrayList<>();
-		webHeap = new ArrayList<>();
+		webHeap = new IndexedMaxHeap<>((a, b) -> a.compareTo(b));
 	}
 	
 	/**
@@ -56,94 +92,220 @@ public class SearchEngine {
 	 * @param age The PageRank age score
 	 * @param numOfLinks The PageRank numOfLinks score
 	 * @param money The PageRank money score
-	 * @return a new WebLink with the website's URL and the PageRank scores
+	 * @return a WebLink view of the website, which is added to the document store
 	 */
 	public WebLink rankedWeb(String url, int frequency, int age, int numOfLinks, int money)
 	{
-		PageRank pr = new PageRank(frequency, age, numOfLinks, money);
-		return new WebLink(url, pr);		
+		return documents.view(documents.add(url, frequency, age, numOfLinks, money));
 	}
 	
 	/**
-	 * Reverses the order of the Array
-	 * @param arr the array needs to be inverted
+	 * Max Heap Priority Queue
+	 * Stores the first sorted 20 out of 30 web url links into Heap
 	 */
-	public void reverseArr(int[] arr)
+	public void createPriorityQueue()
 	{
-		for(int i = 0; i < arr.length / 2; i++) 
+		webHeap = new IndexedMaxHeap<>((a, b) -> a.compareTo(b), sortedWebList.size());
+		for(int i = 0; i < 20 && i < sortedWebList.size(); i++)
 		{
-			// Swap from the first element with the last element and go on
-			int temp = arr[i];
-			arr[i] = arr[arr.length - 1 - i];
-			arr[arr.length - 1 - i] = temp;
+			// a website listed twice with the same score is stored once
+			if(!webHeap.contains(sortedWebList.get(i)))
+			{
+				webHeap.insert(sortedWebList.get(i));
+			}
 		}
 	}
 	
 	/**
-	 * Max Heap Priority Queue
-	 * Stores the first sorted 20 out of 30 web url links into Heap
+	 * Prints the websites in the Heap from the highest to the lowest PageRank score
 	 */
-	public void createPriorityQueue()
+	public void printWebHeap()
 	{
-		for(int i = 0; i < 20; i++)
+		ArrayList<WebLink> sorted = new ArrayList<>(webHeap.toSortedList());
+		for(int i = 0; i < sorted.size(); i++)
 		{
-			sorter.MaxHeapInsert(heap, sortedWebList.get(i).getTotal());
-			webHeap.add(sortedWebList.get(i));
+			System.out.println(i+1 + "  " + sorted.get(i));
 		}
 	}
 	
 	/**
-	 * Updates the webHeap ArrayList
-	 * @return
+	 * Fills webList30 with the first 30 URL links for the keyword
+	 * The crawl starts from a search for the keyword, so its index segment is saved under the
+	 * keyword and tried first when the same keyword is searched again; the web is crawled only
+	 * if there is no segment for the keyword or it has no match. Deleting the segment file makes
+	 * the next search for the keyword crawl afresh.
+	 * Either way the results are the indexed pages that match the keyword best, so the same
+	 * keyword gives the same kind of results with or without a saved segment.
+	 * @param keyword the keyword the user entered
 	 */
-	public ArrayList<WebLink> updateWebHeap()
+	public void loadSearchResults(String keyword)
 	{
-		// Creates a new ArrayList<WebLink> that is a copy of the webHeap 
-		ArrayList<WebLink> tempList = new ArrayList<>(webHeap);
+		webList30 = new ArrayList<>();
+		Path segmentFile = segmentFile(keyword);
 		
-		// Creates a new array and
-		// Copies all the elements (EXCEPT 0) in the Heap Array to the new array 
-		int tempArrSize = 0;
-		// counts how many non-0 elements in the Heap
-		for(int i : heap)
+		if (Files.exists(segmentFile))
 		{
-			if(i != 0)
+			long start = System.nanoTime();
+			try (IndexSegment segment = IndexSegment.open(segmentFile))
 			{
-				tempArrSize++;
+				double[] ranks = new double[segment.getDocCount()];
+				for (int d = 0; d < ranks.length; d++)
+				{
+					ranks[d] = segment.getRank(d);
+				}
+				loadTopPages(segment, ranks, keyword);
+				termSuggestions = SuggestionIndex.ofTerms(segment);
+			}
+			catch (IOException e)
+			{
+				System.out.println("Could not read the saved index: " + e.getMessage());
+			}
+			if (!webList30.isEmpty())
+			{
+				System.out.println(String.format("Loaded %d URL links from the saved index in %.1f ms",
+						webList30.size(), (System.nanoTime() - start) / 1e6));
+				return;
 			}
 		}
-
-		int[] tempArr = new int[tempArrSize]; 
-		for (int i = 0; i < tempArrSize; i++)
-		{
-			tempArr[i] = heap[i]; // copy all the non-0 elements in the Heap to tempArr
-		}
-		
-		sorter.Heapsort(tempArr);
-		// reverse the array
-		reverseArr(tempArr);
-		sorter.BuildMaxHeap(heap);  // reset the heap size
 		
-		// Create another ArrayList that add all the elements in tempList but in the tempArr's order
-		ArrayList<WebLink> updatedHeap = new ArrayList<>();
+		// initializes wCrawler with the keyword
+		wCrawler = new WebCrawler(keyword);
+		wCrawler.search(); // start searching
+		termSuggestions = SuggestionIndex.ofTerms(wCrawler.getIndex());
+		loadTopPages(wCrawler.getIndex(), wCrawler.getDocRanks(), keyword);
 		
-		for(int i = 0 ; i < tempArr.length; i++)
+		// save the crawl so the next search for the keyword does not have to repeat it
+		try
+		{
+			IndexSegment.write(wCrawler.getIndex(), wCrawler.getDocRanks(), segmentFile);
+		}
+		catch (IOException e)
+		{
+			System.out.println("Could not save the index: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Gets the file of the index segment saved for a keyword
+	 * Surrounding blanks do not matter; lowercase letters and digits are kept as they are and every
+	 * other character is escaped as %XX of its UTF-8 bytes, so two keywords never share a file,
+	 * even on a file system that ignores case.
+	 * A name too long for the file system is cut short and ends with the hash of the whole keyword.
+	 * @param keyword the keyword the user entered
+	 * @return the path of its segment, which may not exist yet
+	 */
+	static Path segmentFile(String keyword)
+	{
+		StringBuilder name = new StringBuilder(SEGMENT_PREFIX);
+		for (byte b : keyword.trim().getBytes(StandardCharsets.UTF_8))
+		{
+			if ((b >= 'a' && b <= 'z') || (b >= '0' && b <= '9'))
+			{
+				name.append((char) b);
+			}
+			else
+			{
+				name.append(String.format("%%%02X", b & 0xFF));
+			}
+		}
+		if (name.length() > MAX_SEGMENT_NAME)
+		{
+			String hash = Integer.toHexString(keyword.trim().hashCode());
+			name.setLength(MAX_SEGMENT_NAME - hash.length() - 1);
+			name.append('-').append(hash);
+		}
+		return Paths.get(name.append(SEGMENT_SUFFIX).toString());
+	}
+	
+	/**
+	 * Fills webList30 with the 30 pages of an index with the best BM25 score plus link rank,
+	 * and stores their link and relevance scores
+	 * @param index the saved segment or the index of a new crawl
+	 * @param ranks the PageRank value of every page of the index, by document ID
+	 * @param keyword the keyword the user entered
+	 */
+	private void loadTopPages(IndexReader index, double[] ranks, String keyword)
+	{
+		webList30 = new ArrayList<>();
+		linkScores = new int[30];
+		relevanceScores = new int[30];
+		if (index.getDocCount() > 0)
+		{
+			double maxRank = 0;
+			for (double r : ranks)
+			{
+				maxRank = Math.max(maxRank, r);
+			}
+			Bm25Scorer scorer = new Bm25Scorer(index);
+			scorer.setLinkRanks(ranks, LINK_RANK_WEIGHT);
+			TopKCollector top = new TopKCollector(30);
+			search(index, keyword, scorer, top);
+			int[] topDocs = top.topDocs();
+			double[] topScores = top.topScores();
+			double maxRelevance = 0;
+			for (int i = 0; i < topDocs.length; i++)
+			{
+				topScores[i] -= scorer.staticScore(topDocs[i]);
+				maxRelevance = Math.max(maxRelevance, topScores[i]);
+			}
+			for (int i = 0; i < topDocs.length; i++)
+			{
+				linkScores[webList30.size()] = PageRank.scaleLinkRank(ranks[topDocs[i]], maxRank);
+				relevanceScores[webList30.size()] = PageRank.scaleRelevance(topScores[i], maxRelevance);
+				webList30.add(index.getUrl(topDocs[i]));
+			}
+		}
+	}
+	
+	/**
+	 * Ranks the pages that match the keyword
+	 * A keyword in double quotes is an exact phrase, and words joined by OR need not all occur;
+	 * otherwise every word must occur anywhere.
+	 * @param index the index to search
+	 * @param keyword the keyword the user entered
+	 * @param scorer scores each matching page
+	 * @param top receives the scored matches
+	 */
+	private static void search(IndexReader index, String keyword, Bm25Scorer scorer, TopKCollector top)
+	{
+		String k = keyword.trim();
+		if (k.length() > 1 && k.startsWith("\"") && k.endsWith("\""))
+		{
+			index.searchPhrase(k, scorer, top);
+		}
+		else if (OR_OPERATOR.matcher(k).find())
+		{
+			// pages with any of the words match, so block-max WAND skips the ones that cannot make the top
+			new BlockMaxWand(index, scorer).search(OR_OPERATOR.matcher(k).replaceAll(" "), top);
+		}
+		else
 		{
-			for(int j = 0 ; j < tempList.size(); j++)
+			index.search(k, scorer, top);
+		}
+	}
+	
+	/**
+	 * Prints the suggestions for a prefix as it would be typed, one line per keystroke
+	 * Past keywords come first, then indexed terms that are not among them.
+	 * @param typed the text the user typed
+	 */
+	public void printSuggestions(String typed)
+	{
+		for (int i = 1; i <= typed.length(); i++)
+		{
+			String prefix = typed.substring(0, i);
+			long start = System.nanoTime();
+			List<String> suggestions = querySuggestions.suggest(prefix, 5);
+			for (String term : termSuggestions.suggest(prefix, 5))
 			{
-				if(tempList.get(j).getTotal() == tempArr[i])
+				if (suggestions.size() < 5 && !suggestions.contains(term))
 				{
-					// check for duplicate
-					if(!updatedHeap.contains(tempList.get(j)))
-					{
-						updatedHeap.add(tempList.get(j));
-					}
+					suggestions.add(term);
 				}
 			}
+			System.out.println(String.format("%-20s %s  (%.1f us)", prefix, suggestions, (System.nanoTime() - start) / 1e3));
 		}
-
-		return updatedHeap;
-	}	
+	}
 	
 	/**
 	 * Starts the SearchEngine tasks
@@ -165,24 +327,20 @@ public class SearchEngine {
 		String keyword = in.nextLine();
 		System.out.println("keyword = "+ keyword);
 		
-		// initializes wCrawler with the keyword
-		wCrawler = new WebCrawler(keyword);
-		wCrawler.search(); // start searching
-
-		// A list of the first 30 URL links
-		webList30 = new ArrayList<>();
-		int count = 1;
-		
-		// Add the first 30 URL links to webList30
-		for(String s : wCrawler.getUrls())
+		// remember the keyword so it is suggested on the next launch
+		try
 		{
-			if(count > 30)  // only print the first 30 links
-			{
-				break;
-			}
-			webList30.add(s);
-			count++;
+			queryLog.load();
+			queryLog.record(keyword);
+		}
+		catch (IOException e)
+		{
+			System.out.println("Could not update the query log: " + e.getMessage());
 		}
+		querySuggestions = SuggestionIndex.build(queryLog.getCounts());
+		
+		// A list of the first 30 URL links
+		loadSearchResults(keyword);
 		
 		// lets user choose which tasks to perform
 		// stops when users choose "Quit"
@@ -200,6 +358,7 @@ public class SearchEngine {
 					+ "\n" + "Enter 'I' --- Insert a new web url link into Heap"
 					+ "\n" + "Enter 'F' --- View the first ranked web url link"
 					+ "\n" + "Enter 'C' --- Choose one of the web url links stored in the heap Priority Queue and increase its PageRank score"
+					+ "\n" + "Enter 'T' --- Type the beginning of a keyword and see the suggestions for every keystroke"
 					+ "\n" + "Enter 'Q' --- Quit"
 					+ "\n" + "Enter your option: "
 					);
@@ -281,10 +440,23 @@ public class SearchEngine {
 	             
 	            // Assign scores to 30 websites using a random number generator
 				case "R" :
-					for(String s : webList30)
+					for(int i = 0; i < webList30.size(); i++)
 					{
-						WebLink web = new WebLink(s,new PageRank());
-						randomAssignedWebList.add(web);
+						// otherWebLinks comes from the link graph and frequency from BM25; age and money stay random
+						PageRank pr;
+						if(i >= linkScores.length)
+						{
+							pr = new PageRank();
+						}
+						else if(relevanceScores[i] > 0)
+						{
+							pr = new PageRank(relevanceScores[i], linkScores[i]);
+						}
+						else
+						{
+							pr = new PageRank(linkScores[i]);
+						}
+						randomAssignedWebList.add(documents.view(documents.add(webList30.get(i), pr)));
 					}
 					for(int i = 0; i < randomAssignedWebList.size(); i++)
 					{
@@ -301,33 +473,20 @@ public class SearchEngine {
 					}
 					else
 					{
-						// An array of PageRank scores of the first 30 URL links 
-						pRankArr = new int[30];
-						for(int i = 0; i < 30; i++)
+						// Rank the websites with a bounded heap; equal scores keep the order of the list
+						TopKCollector top = new TopKCollector(randomAssignedWebList.size());
+						for(int i = 0; i < randomAssignedWebList.size(); i++)
 						{
-							pRankArr[i] = randomAssignedWebList.get(i).getTotal();
+							top.collect(i, randomAssignedWebList.get(i).getTotal());
 						}
-						sorter.Heapsort(pRankArr);
-
-						// reverse the array
-						reverseArr(pRankArr);
 
 						System.out.println("\nHere are the sorted 30 URL links: ");
 						
-						// Add WebLink to sortedWebList list in an order of pRankArr (descending sorted order)
-						for(int i = 0 ; i < pRankArr.length; i++)
+						// Add WebLink to sortedWebList list in descending order of the PageRank scores
+						sortedWebList.clear();
+						for(int i : top.topDocs())
 						{
-							for(int j = 0 ; j < randomAssignedWebList.size(); j++)
-							{
-								if(randomAssignedWebList.get(j).getTotal() == pRankArr[i])
-								{
-									// check for duplicate
-									if(!sortedWebList.contains(randomAssignedWebList.get(j)))
-									{
-										sortedWebList.add(randomAssignedWebList.get(j));
-									}
-								}
-							}
+							sortedWebList.add(randomAssignedWebList.get(i));
 						}
 						
 						// print the sorted list
@@ -370,10 +529,7 @@ public class SearchEngine {
 						createPriorityQueue();
 						System.out.println("\nDone! The Priority Queue is created!");
 						System.out.println("Here are the 20 websites in the Heap: ");
-						for(int i = 0; i < webHeap.size(); i++)
-						{
-							System.out.println(i+1 + "  "+ webHeap.get(i));
-						}
+						printWebHeap();
 					}
 					break;
 				
@@ -399,19 +555,16 @@ public class SearchEngine {
 						
 						in.nextLine(); // skip one line
 						
-						WebLink iW = rankedWeb(iURL,iFre, iAge, iNumOfLinks, iMoney);
-
-						sorter.MaxHeapInsert(heap, iW.getTotal());
-
-						webHeap.add(iW); // add iW to the end of webHeap
-
-						webHeap = updateWebHeap();
-						System.out.println("\nHere is the WebList after inserting ");
-
-						for(int i = 0 ; i < webHeap.size(); i++)
+						// check for duplicate before the website is added to the document store
+						if(webHeap.contains(new WebLink(iURL, new PageRank(iFre, iAge, iNumOfLinks, iMoney))))
 						{
-							System.out.println(i+1 + "  " + webHeap.get(i));
-						}				
+							System.out.println("This website is already in the Heap with the same PageRank score!");
+							break;
+						}
+						webHeap.insert(rankedWeb(iURL,iFre, iAge, iNumOfLinks, iMoney));
+						
+						System.out.println("\nHere is the WebList after inserting ");
+						printWebHeap();
 					}
 					break;
 				
@@ -423,25 +576,13 @@ public class SearchEngine {
 					}
 					else
 					{
-						int removeIndex = Integer.MIN_VALUE;
-						int extractMax = sorter.HeapExtractMax(heap);
-						for(int i = 0; i < webHeap.size(); i++)
-						{
-							if(webHeap.get(i).getTotal() == extractMax)
-							{
-								System.out.println("\nHere is the First ranked web url link:");
-								System.out.println(webHeap.get(i));
-								removeIndex = i;
-							}
-						}
-						//remove the first ranked web from the webHeap list
-						webHeap.remove(removeIndex);
+						//remove the first ranked web from the webHeap
+						WebLink first = webHeap.extractMax();
+						System.out.println("\nHere is the First ranked web url link:");
+						System.out.println(first);
 						
 						System.out.println("\nHere is the WebHeap List after removing the First ranked website");
-						for(int i = 0; i < webHeap.size(); i++)
-						{
-							System.out.println(webHeap.get(i));
-						}				
+						printWebHeap();
 					}
 					break;
 				
@@ -455,20 +596,13 @@ public class SearchEngine {
 					System.out.print("Enter its CURRENT total PageRank score:  ");
 					int currentTotal = in.nextInt();
 
-					//find the target index of the Heap
-					int targetIndex = Integer.MIN_VALUE;
-					boolean found = false;
-					for(int i = 0; i < heap.length; i++)
-					{
-						if(heap[i] == currentTotal)
-						{
-							targetIndex = i;
-							found = true;
-						}
-					}	
+					in.nextLine(); // skip 1 line
+
+					// WebLinks are equal when both URL and total score match, so this finds the exact website
+					WebLink target = new WebLink(cURL, new PageRank(currentTotal, 0, 0, 0));
 					
 					// If there is no such element in the Heap, break!
-					if(found == false)
+					if(!webHeap.contains(target))
 					{
 						System.out.println("There is no website with such URL or PageRank!");
 						break;
@@ -521,56 +655,38 @@ public class SearchEngine {
 					
 					System.out.println("\nThe new PageRank score of this website is:  " + newTotal);
 
-					
-					// increases key
-					sorter.HeapIncreaseKey(heap, targetIndex, newTotal);
-					sorter.Heapsort(heap);
-					// reverse the array
-					reverseArr(heap);
-					
-					//find the target index of webHeap
-					int webHeapIndex = Integer.MIN_VALUE;
-					for(int i = 0; i < webHeap.size(); i++)
+					// the checks of increaseKey are made first, so a rejected score adds nothing to the document store
+					if(newTotal < currentTotal)
 					{
-						if(webHeap.get(i).getUrl().equals(cURL) && webHeap.get(i).getTotal() == currentTotal)
-						{
-							webHeapIndex = i;
-						}
-					}		
-					
-					// set the target element to a new element with the same URL and the new PageRank scores
-					webHeap.set(webHeapIndex, new WebLink(webHeap.get(webHeapIndex).getUrl(), new PageRank(nFre, nAge, nNumOfLinks, nMoney)));
-					
-					// create a duplicated list copied of webHeap
-					ArrayList<WebLink> dupList = new ArrayList<>(webHeap);
-					// create an empty list
-					ArrayList<WebLink> tempList = new ArrayList<>();
-					
-					System.out.println("\nHere are the webHeap list after increasing the PageRank score: ");
-					
-					for(int i = 0 ; i < heap.length; i++)
+						System.out.println("ERROR: New key is smaller than current key.");
+						break;
+					}
+					if(newTotal != currentTotal && webHeap.contains(new WebLink(cURL, new PageRank(newTotal, 0, 0, 0))))
 					{
-						for(int j = 0 ; j < webHeap.size(); j++)
-						{
-							if(dupList.get(j).getTotal() == heap[i])
-							{
-								// check for duplicate
-								if(!tempList.contains(dupList.get(j)))
-								{
-									tempList.add(dupList.get(j));
-								}
-							}
-						}
+						System.out.println("This website is already in the Heap with the same PageRank score!");
+						break;
 					}
 					
-					webHeap = tempList;
-					
-					// print the webHeap
-					for(int i = 0; i < webHeap.size(); i++)
+					// increases key: the website is replaced by the same URL with the new PageRank scores
+					try
 					{
-						System.out.println(i+1 + "  "+webHeap.get(i));
+						webHeap.increaseKey(target, rankedWeb(cURL, nFre, nAge, nNumOfLinks, nMoney));
+					}
+					catch(IllegalArgumentException e)
+					{
+						System.out.println(e.getMessage());
+						break;
 					}
 					
+					System.out.println("\nHere are the webHeap list after increasing the PageRank score: ");
+					printWebHeap();
+					
+					break;
+				
+				// Suggest completions of past keywords and indexed terms
+				case "T" :
+					System.out.println("Enter the beginning of a keyword:   ");
+					printSuggestions(in.nextLine());
 					break;
 				
 				// Stop the engine
@@ -0,0 +1,112 @@
+package searchengine;
+
+import searchengine.index.Tokenizer;
+
+/**
+ * 64-bit SimHash fingerprints of page text
+ * Every run of three consecutive terms of the text, a shingle, is hashed to 64 bits, and bit i of
+ * the fingerprint is set when more shingles have bit i set than clear. Shingles keep the word
+ * order, and they are rarer than single words, so common words do not make all pages look alike.
+ * Pages that share most of their shingles get fingerprints that differ in only a few bits, so
+ * near-duplicates are found by Hamming distance.
+ * The terms come from the index Tokenizer, so they follow the same rules as the indexed pages.
+ *
+ */
+public final class SimHash
+{
+	// number of consecutive terms in one feature
+	private static final int SHINGLE = 3;
+
+	private SimHash()
+	{
+	}
+
+	/**
+	 * Computes the fingerprint of a text in one pass, without building the terms
+	 * @param text the text
+	 * @return the fingerprint, 0 if the text has no terms
+	 */
+	public static long fingerprint(String text)
+	{
+		Shingler shingler = new Shingler();
+		Tokenizer.DEFAULT.tokenize(text, shingler);
+		int[] votes = shingler.votes;
+		if (shingler.terms > 0 && shingler.terms < SHINGLE)
+		{
+			// too short for one whole shingle, so the few terms form the only feature
+			vote(votes, shingle(shingler.beforePrevious, shingler.previous, 0));
+		}
+		long fingerprint = 0;
+		for (int bit = 0; bit < 64; bit++)
+		{
+			if (votes[bit] > 0)
+			{
+				fingerprint |= 1L << bit;
+			}
+		}
+		return fingerprint;
+	}
+
+	/**
+	 * Counts the bits in which two fingerprints differ
+	 * @param a a fingerprint
+	 * @param b another fingerprint
+	 * @return the Hamming distance, from 0 to 64
+	 */
+	public static int distance(long a, long b)
+	{
+		return Long.bitCount(a ^ b);
+	}
+
+	// Adds one to the votes of the set bits of a term hash and subtracts one from the others
+	private static void vote(int[] votes, long termHash)
+	{
+		for (int bit = 0; bit < 64; bit++)
+		{
+			votes[bit] += (int) (termHash >>> bit & 1) * 2 - 1;
+		}
+	}
+
+	// Combines the hashes of three consecutive terms into the hash of the feature
+	private static long shingle(long first, long second, long third)
+	{
+		return mix(first * 0x9E3779B97F4A7C15L + second * 0xC2B2AE3D27D4EB4FL + third);
+	}
+
+	// Hashes every term as the Tokenizer hands it over and votes for each shingle it completes
+	private static final class Shingler implements Tokenizer.Handler
+	{
+		private final int[] votes = new int[64];
+
+		// hashes of the two terms before the current one, and the number of terms so far
+		private long previous;
+		private long beforePrevious;
+		private int terms;
+
+		public void token(char[] term, int length, int position, int start, int end)
+		{
+			long h = 0xCBF29CE484222325L;
+			for (int i = 0; i < length; i++)
+			{
+				h = (h ^ term[i]) * 0x100000001B3L;
+			}
+			terms++;
+			if (terms >= SHINGLE)
+			{
+				vote(votes, shingle(beforePrevious, previous, h));
+			}
+			beforePrevious = previous;
+			previous = h;
+		}
+	}
+
+	private static long mix(long x)
+	{
+		x ^= x >>> 33;
+		x *= 0xFF51AFD7ED558CCDL;
+		x ^= x >>> 33;
+		x *= 0xC4CEB9FE1A85EC53L;
+		x ^= x >>> 33;
+		return x;
+	}
+}
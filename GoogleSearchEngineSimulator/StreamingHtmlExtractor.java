@@ -0,0 +1,693 @@
+package searchengine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+/**
+ * Pulls the links and the visible text out of an HTML page in one pass, without building a DOM
+ * The page is fed through a small state machine a buffer at a time. Every href of an a or
+ * area element is passed to the handler as soon as its tag closes, and the visible text is
+ * passed in chunks, with entities decoded and whitespace collapsed like jsoup's Element.text().
+ * Text inside head, script, style, template and comments is skipped, and block-level tags
+ * separate words. Whatever the size of the page, the extractor holds only its fixed buffers:
+ * one tag of up to 2048 chars, one chunk of text and one entity.
+ *
+ * Unlike a full HTML parser it does not repair broken markup or detect a charset declared in a
+ * meta tag; the charset comes from the caller, e.g. from the Content-Type header.
+ * The extractor is not thread-safe; use one per page.
+ *
+ */
+public class StreamingHtmlExtractor
+{
+	/**
+	 * Receives what the extractor finds, in document order
+	 */
+	public interface Handler
+	{
+		/**
+		 * Receives the href of a link, entities decoded, not yet resolved against the page URL
+		 * @param href the href attribute
+		 */
+		void link(String href);
+
+		/**
+		 * Receives the next chunk of visible text; a chunk may end in the middle of a word
+		 * @param chars the buffer holding the chunk
+		 * @param start the index of the first char of the chunk
+		 * @param length the number of chars in the chunk
+		 */
+		void text(char[] chars, int start, int length);
+
+		/**
+		 * Receives the href of a base element, which changes how later links are resolved
+		 * @param href the href attribute
+		 */
+		default void base(String href)
+		{
+		}
+	}
+
+	private static final int TEXT = 0;
+	private static final int TAG = 1;
+	private static final int COMMENT = 2;
+	private static final int RAW = 3;
+	private static final int ENTITY = 4;
+
+	// longest tag kept; the rest of a longer tag is skipped and its href ignored
+	private static final int TAG_LIMIT = 2048;
+	private static final int TEXT_CHUNK = 4096;
+	private static final int READ_CHUNK = 8192;
+
+	// tags that end a word, like the blocks jsoup's text() puts spaces between
+	private static final String[] BLOCK_TAGS = {
+			"p", "br", "div", "li", "ul", "ol", "dl", "dt", "dd", "tr", "td", "th", "table", "thead", "tbody",
+			"h1", "h2", "h3", "h4", "h5", "h6", "hr", "pre", "form", "option", "section", "article", "header",
+			"footer", "nav", "aside", "main", "blockquote", "figure", "figcaption", "body", "html", "address" };
+
+	private final Handler handler;
+
+	private int state = TEXT;
+
+	// the tag being read, without its angle brackets
+	private final char[] tag = new char[TAG_LIMIT];
+	private int tagLength;
+	private boolean tagOverflow;
+	private char quote;
+	private boolean afterEquals;
+
+	// visible text not yet passed to the handler
+	private final char[] text = new char[TEXT_CHUNK];
+	private int textLength;
+	private boolean wordStarted;
+	private boolean spaceBefore;
+
+	// the entity being read, without the '&'
+	private final char[] entity = new char[12];
+	private int entityLength;
+
+	// nesting depth of head and template elements, whose text is not visible
+	private int hiddenDepth;
+
+	// inside script, style or title: the closing tag that ends the raw text, and how much of it matched
+	private String rawEnd;
+	private int rawMatched;
+
+	private int commentDashes;
+
+	/**
+	 * Constructs an extractor for one page
+	 * @param handler receives the links and the text
+	 */
+	public StreamingHtmlExtractor(Handler handler)
+	{
+		this.handler = handler;
+	}
+
+	/**
+	 * Extracts the links and the text of a whole page
+	 * @param in the bytes of the page
+	 * @param charset the charset of the page
+	 * @param handler receives the links and the text
+	 * @throws IOException if the page cannot be read
+	 */
+	public static void extract(InputStream in, Charset charset, Handler handler) throws IOException
+	{
+		StreamingHtmlExtractor extractor = new StreamingHtmlExtractor(handler);
+		extractor.parse(new InputStreamReader(in, charset));
+	}
+
+	/**
+	 * Reads a page to its end and feeds it through the extractor
+	 * @param reader the characters of the page
+	 * @throws IOException if the page cannot be read
+	 */
+	public void parse(Reader reader) throws IOException
+	{
+		char[] buffer = new char[READ_CHUNK];
+		int read;
+		while ((read = reader.read(buffer)) >= 0)
+		{
+			feed(buffer, 0, read);
+		}
+		finish();
+	}
+
+	/**
+	 * Feeds the next characters of the page
+	 * @param chars the buffer holding the characters
+	 * @param start the index of the first character
+	 * @param length the number of characters
+	 */
+	public void feed(char[] chars, int start, int length)
+	{
+		for (int i = start; i < start + length; i++)
+		{
+			accept(chars[i]);
+		}
+	}
+
+	/**
+	 * Ends the page and passes the last chunk of text to the handler
+	 */
+	public void finish()
+	{
+		if (state == ENTITY)
+		{
+			emitRawEntity();
+			state = TEXT;
+		}
+		flushText();
+	}
+
+	private void accept(char c)
+	{
+		switch (state)
+		{
+			case TEXT:
+				if (c == '<')
+				{
+					state = TAG;
+					tagLength = 0;
+					tagOverflow = false;
+					quote = 0;
+					afterEquals = false;
+				}
+				else if (c == '&')
+				{
+					state = ENTITY;
+					entityLength = 0;
+				}
+				else
+				{
+					emit(c);
+				}
+				break;
+			case TAG:
+				acceptTag(c);
+				break;
+			case COMMENT:
+				if (c == '>' && commentDashes >= 2)
+				{
+					state = TEXT;
+				}
+				commentDashes = c == '-' ? commentDashes + 1 : 0;
+				break;
+			case RAW:
+				acceptRaw(c);
+				break;
+			default:
+				acceptEntity(c);
+				break;
+		}
+	}
+
+	private void acceptTag(char c)
+	{
+		if (tagLength == 0 && !tagOverflow && !isLetter(c) && c != '/' && c != '!' && c != '?')
+		{
+			// a '<' that does not start a tag is text, e.g. "a < b"
+			state = TEXT;
+			emit('<');
+			accept(c);
+			return;
+		}
+		if (quote != 0)
+		{
+			if (c == quote)
+			{
+				quote = 0;
+			}
+		}
+		else if (c == '>')
+		{
+			state = TEXT;
+			handleTag();
+			return;
+		}
+		else if (afterEquals && (c == '"' || c == '\''))
+		{
+			quote = c;
+			afterEquals = false;
+		}
+		else if (c == '=')
+		{
+			afterEquals = true;
+		}
+		else if (c > ' ')
+		{
+			afterEquals = false;
+		}
+		if (tagLength < TAG_LIMIT)
+		{
+			tag[tagLength++] = c;
+			if (tagLength == 3 && tag[0] == '!' && tag[1] == '-' && tag[2] == '-')
+			{
+				state = COMMENT;
+				commentDashes = 0;
+			}
+		}
+		else
+		{
+			tagOverflow = true;
+		}
+	}
+
+	// Skips raw text until its closing tag, e.g. "</script", then reads that tag normally
+	private void acceptRaw(char c)
+	{
+		char expected = rawMatched < 2 ? "</".charAt(rawMatched) : rawEnd.charAt(rawMatched - 2);
+		if (Character.toLowerCase(c) == expected)
+		{
+			rawMatched++;
+			if (rawMatched == rawEnd.length() + 2)
+			{
+				state = TAG;
+				tag[0] = '/';
+				rawEnd.getChars(0, rawEnd.length(), tag, 1);
+				tagLength = rawEnd.length() + 1;
+				tagOverflow = false;
+				quote = 0;
+				afterEquals = false;
+			}
+		}
+		else
+		{
+			rawMatched = c == '<' ? 1 : 0;
+		}
+	}
+
+	private void acceptEntity(char c)
+	{
+		if (c == ';')
+		{
+			state = TEXT;
+			int codePoint = decodeEntity(entity, 0, entityLength);
+			if (codePoint < 0)
+			{
+				emitRawEntity();
+				emit(';');
+			}
+			else
+			{
+				emitCodePoint(codePoint);
+			}
+		}
+		else if ((isLetter(c) || (c >= '0' && c <= '9') || (c == '#' && entityLength == 0)) && entityLength < entity.length)
+		{
+			entity[entityLength++] = c;
+		}
+		else
+		{
+			// not an entity after all
+			state = TEXT;
+			emitRawEntity();
+			accept(c);
+		}
+	}
+
+	private void emitRawEntity()
+	{
+		emit('&');
+		for (int i = 0; i < entityLength; i++)
+		{
+			emit(entity[i]);
+		}
+	}
+
+	private void emitCodePoint(int codePoint)
+	{
+		if (Character.isBmpCodePoint(codePoint))
+		{
+			emit((char) codePoint);
+		}
+		else
+		{
+			emit(Character.highSurrogate(codePoint));
+			emit(Character.lowSurrogate(codePoint));
+		}
+	}
+
+	// Adds one char of visible text, collapsing runs of whitespace into one space
+	private void emit(char c)
+	{
+		if (hiddenDepth > 0)
+		{
+			return;
+		}
+		if (c <= ' ' || c == '\u00A0')
+		{
+			spaceBefore = true;
+			return;
+		}
+		if (spaceBefore && wordStarted)
+		{
+			append(' ');
+		}
+		spaceBefore = false;
+		wordStarted = true;
+		append(c);
+	}
+
+	private void append(char c)
+	{
+		if (textLength == text.length)
+		{
+			flushText();
+		}
+		text[textLength++] = c;
+	}
+
+	private void flushText()
+	{
+		if (textLength > 0)
+		{
+			handler.text(text, 0, textLength);
+			textLength = 0;
+		}
+	}
+
+	// Acts on a complete tag: links, hidden sections, raw text and word breaks
+	private void handleTag()
+	{
+		if (tag[0] == '!' || tag[0] == '?')
+		{
+			return; // doctype or processing instruction
+		}
+		boolean closing = tag[0] == '/';
+		int nameStart = closing ? 1 : 0;
+		int nameEnd = nameStart;
+		while (nameEnd < tagLength && (isLetter(tag[nameEnd]) || (tag[nameEnd] >= '0' && tag[nameEnd] <= '9')))
+		{
+			nameEnd++;
+		}
+		if (nameEnd == nameStart)
+		{
+			return;
+		}
+
+		if (isBlock(nameStart, nameEnd))
+		{
+			spaceBefore = true;
+		}
+		if (nameIs(nameStart, nameEnd, "head") || nameIs(nameStart, nameEnd, "template"))
+		{
+			hiddenDepth = closing ? Math.max(0, hiddenDepth - 1) : hiddenDepth + 1;
+		}
+		else if (nameIs(nameStart, nameEnd, "body") && !closing)
+		{
+			hiddenDepth = 0; // a page that never closed its head
+		}
+		if (closing)
+		{
+			return;
+		}
+
+		if (nameIs(nameStart, nameEnd, "script") || nameIs(nameStart, nameEnd, "style") || nameIs(nameStart, nameEnd, "title"))
+		{
+			if (tag[tagLength - 1] != '/')
+			{
+				state = RAW;
+				rawEnd = new String(tag, nameStart, nameEnd - nameStart).toLowerCase();
+				rawMatched = 0;
+			}
+		}
+		else if (nameIs(nameStart, nameEnd, "a") || nameIs(nameStart, nameEnd, "area"))
+		{
+			String href = tagOverflow ? null : attribute(nameEnd, "href");
+			if (href != null)
+			{
+				handler.link(href);
+			}
+		}
+		else if (nameIs(nameStart, nameEnd, "base"))
+		{
+			String href = tagOverflow ? null : attribute(nameEnd, "href");
+			if (href != null)
+			{
+				handler.base(href);
+			}
+		}
+	}
+
+	// Finds an attribute of the current tag and decodes the entities in its value
+	private String attribute(int from, String name)
+	{
+		int i = from;
+		while (i < tagLength)
+		{
+			while (i < tagLength && (tag[i] <= ' ' || tag[i] == '/'))
+			{
+				i++;
+			}
+			int keyStart = i;
+			while (i < tagLength && tag[i] > ' ' && tag[i] != '=' && tag[i] != '/')
+			{
+				i++;
+			}
+			int keyEnd = i;
+			while (i < tagLength && tag[i] <= ' ')
+			{
+				i++;
+			}
+			int valueStart = i;
+			int valueEnd = i;
+			if (i < tagLength && tag[i] == '=')
+			{
+				i++;
+				while (i < tagLength && tag[i] <= ' ')
+				{
+					i++;
+				}
+				if (i < tagLength && (tag[i] == '"' || tag[i] == '\''))
+				{
+					char q = tag[i++];
+					valueStart = i;
+					while (i < tagLength && tag[i] != q)
+					{
+						i++;
+					}
+					valueEnd = i++;
+				}
+				else
+				{
+					valueStart = i;
+					while (i < tagLength && tag[i] > ' ')
+					{
+						i++;
+					}
+					valueEnd = i;
+				}
+			}
+			if (keyEnd > keyStart && nameIs(keyStart, keyEnd, name))
+			{
+				return decodeValue(valueStart, valueEnd);
+			}
+			if (keyEnd == keyStart)
+			{
+				i++;
+			}
+		}
+		return null;
+	}
+
+	private String decodeValue(int from, int to)
+	{
+		StringBuilder value = new StringBuilder(to - from);
+		for (int i = from; i < to; i++)
+		{
+			char c = tag[i];
+			if (c == '&')
+			{
+				int end = i + 1;
+				while (end < to && end - i <= entity.length && tag[end] != ';' && tag[end] != '&')
+				{
+					end++;
+				}
+				int codePoint = end < to && tag[end] == ';' ? decodeEntity(tag, i + 1, end - i - 1) : -1;
+				if (codePoint >= 0)
+				{
+					value.appendCodePoint(codePoint);
+					i = end;
+					continue;
+				}
+			}
+			value.append(c);
+		}
+		return value.toString().trim();
+	}
+
+	// Decodes a numeric or common named entity, or returns -1 if it is not known
+	private static int decodeEntity(char[] chars, int start, int length)
+	{
+		if (length > 1 && chars[start] == '#')
+		{
+			boolean hex = chars[start + 1] == 'x' || chars[start + 1] == 'X';
+			int codePoint = 0;
+			for (int i = start + (hex ? 2 : 1); i < start + length; i++)
+			{
+				int digit = Character.digit(chars[i], hex ? 16 : 10);
+				if (digit < 0 || codePoint > 0x10FFFF)
+				{
+					return -1;
+				}
+				codePoint = codePoint * (hex ? 16 : 10) + digit;
+			}
+			return codePoint > 0 && codePoint <= 0x10FFFF && (codePoint < 0xD800 || codePoint > 0xDFFF) ? codePoint : -1;
+		}
+		String name = new String(chars, start, length);
+		switch (name)
+		{
+			case "amp":
+				return '&';
+			case "lt":
+				return '<';
+			case "gt":
+				return '>';
+			case "quot":
+				return '"';
+			case "apos":
+				return '\'';
+			case "nbsp":
+				return '\u00A0';
+			case "copy":
+				return '\u00A9';
+			case "reg":
+				return '\u00AE';
+			case "mdash":
+				return '\u2014';
+			case "ndash":
+				return '\u2013';
+			case "hellip":
+				return '\u2026';
+			default:
+				return -1;
+		}
+	}
+
+	private boolean isBlock(int start, int end)
+	{
+		for (String name : BLOCK_TAGS)
+		{
+			if (nameIs(start, end, name))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Compares part of the tag with a lowercase name, ignoring the case of ASCII letters
+	private boolean nameIs(int start, int end, String name)
+	{
+		if (end - start != name.length())
+		{
+			return false;
+		}
+		for (int i = 0; i < name.length(); i++)
+		{
+			if ((tag[start + i] | 0x20) != name.charAt(i))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isLetter(char c)
+	{
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	// Compares jsoup's DOM with the streaming extractor on a generated page: java StreamingHtmlExtractor [kilobytes]
+	public static void main(String[] args) throws IOException
+	{
+		int kilobytes = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+		StringBuilder page = new StringBuilder("<!DOCTYPE html><html><head><title>Sample</title>"
+				+ "<style>p { color: red; }</style><script>var a = '<a href=\"x\">';</script></head><body>\n");
+		for (int i = 0; page.length() < kilobytes * 1024; i++)
+		{
+			page.append("<div class=\"item\"><h2>Item ").append(i).append("</h2>\n<p>Search engines rank pages &amp; links, ")
+					.append("<b>fast</b> and <i>fair</i>. It&#39;s &lt;page ").append(i).append("&gt;</p>\n")
+					.append("<a href=\"/item?id=").append(i).append("&amp;ref=list\">more</a> <!-- tracking pixel -->")
+					.append("<a href='https://example.com/").append(i).append("'>out</a></div>\n");
+		}
+		page.append("</body></html>");
+		byte[] bytes = page.toString().getBytes(StandardCharsets.UTF_8);
+
+		// both sides must find the same links and the same text
+		int[] links = new int[1];
+		StringBuilder streamed = new StringBuilder();
+		extract(new java.io.ByteArrayInputStream(bytes), StandardCharsets.UTF_8, new Handler()
+		{
+			public void link(String href)
+			{
+				links[0]++;
+			}
+
+			public void text(char[] chars, int start, int length)
+			{
+				streamed.append(chars, start, length);
+			}
+		});
+		Document document = Jsoup.parse(new java.io.ByteArrayInputStream(bytes), "UTF-8", "https://example.com/");
+		int domLinks = document.select("a[href]").size();
+		String domText = document.body().text();
+		System.out.printf("%d KB page: links %d (jsoup %d), same text as jsoup: %b%n",
+				bytes.length / 1024, links[0], domLinks, domText.equals(streamed.toString()));
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		for (int round = 0; round < 5; round++)
+		{
+			int pages = Math.max(1, 64 * 1024 / kilobytes);
+			long allocated = threads.getThreadAllocatedBytes(thread);
+			long start = System.nanoTime();
+			long sum = 0;
+			for (int p = 0; p < pages; p++)
+			{
+				Document d = Jsoup.parse(new java.io.ByteArrayInputStream(bytes), "UTF-8", "https://example.com/");
+				for (Element link : d.select("a[href]"))
+				{
+					sum += link.absUrl("href").length();
+				}
+				sum += d.body().text().length();
+			}
+			double domMillis = (System.nanoTime() - start) / 1e6;
+			double domAllocated = (threads.getThreadAllocatedBytes(thread) - allocated) / (double) pages;
+
+			allocated = threads.getThreadAllocatedBytes(thread);
+			start = System.nanoTime();
+			for (int p = 0; p < pages; p++)
+			{
+				long[] count = new long[1];
+				extract(new java.io.ByteArrayInputStream(bytes), StandardCharsets.UTF_8, new Handler()
+				{
+					public void link(String href)
+					{
+						count[0] += UrlCanonicalizer.resolve("https://example.com/", href).length();
+					}
+
+					public void text(char[] chars, int start, int length)
+					{
+						count[0] += length;
+					}
+				});
+				sum += count[0];
+			}
+			double streamMillis = (System.nanoTime() - start) / 1e6;
+			double streamAllocated = (threads.getThreadAllocatedBytes(thread) - allocated) / (double) pages;
+			double megabytes = (double) bytes.length * pages / 1e6;
+			System.out.printf("jsoup DOM: %5.1f MB/s, %6.0f KB allocated/page | streaming: %5.1f MB/s, %6.0f KB allocated/page (%d)%n",
+					megabytes / (domMillis / 1e3), domAllocated / 1024, megabytes / (streamMillis / 1e3), streamAllocated / 1024, sum);
+		}
+	}
+}
@@ -0,0 +1,574 @@
+package searchengine;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Turns the links found on pages into canonical URLs, so that one page gets one key
+ * The URL is scanned once from left to right, without regular expressions or java.net.URI:
+ * the scheme and host are lowercased, default ports, user info and fragments are dropped,
+ * "." and ".." path segments are resolved, percent escapes get uppercase hex digits and
+ * unreserved characters are unescaped, tracking parameters are removed and the remaining
+ * query parameters are sorted by name. A URL without a query allocates only its builder and
+ * the result.
+ *
+ */
+public final class UrlCanonicalizer
+{
+	// query parameters that only record where a click came from; every "utm_" parameter is one too
+	private static final Set<String> TRACKING_PARAMETERS = Set.of(
+			"gclid", "gclsrc", "dclid", "fbclid", "msclkid", "yclid", "igshid", "mc_cid", "mc_eid", "_ga", "_gl");
+
+	// orders query parameters by name only, so repeated parameters keep their order
+	private static final Comparator<String> BY_NAME = (a, b) ->
+	{
+		int i = 0;
+		while (true)
+		{
+			char x = i < a.length() ? a.charAt(i) : '=';
+			char y = i < b.length() ? b.charAt(i) : '=';
+			if (x == '=' || y == '=')
+			{
+				return x == y ? 0 : x == '=' ? -1 : 1;
+			}
+			if (x != y)
+			{
+				return Character.compare(x, y);
+			}
+			i++;
+		}
+	};
+
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	private UrlCanonicalizer()
+	{
+	}
+
+	/**
+	 * Canonicalizes an absolute http or https URL
+	 * @param url the URL
+	 * @return the canonical URL, or null if it is not a valid http or https URL
+	 */
+	public static String canonicalize(String url)
+	{
+		if (url == null)
+		{
+			return null;
+		}
+		int start = 0;
+		int end = url.length();
+		while (start < end && url.charAt(start) <= ' ')
+		{
+			start++;
+		}
+		while (end > start && url.charAt(end - 1) <= ' ')
+		{
+			end--;
+		}
+		int fragment = indexOf(url, '#', start, end);
+		end = fragment;
+
+		// scheme
+		int schemeEnd = indexOf(url, ':', start, end);
+		boolean https;
+		if (schemeEnd - start == 5 && url.regionMatches(true, start, "https", 0, 5))
+		{
+			https = true;
+		}
+		else if (schemeEnd - start == 4 && url.regionMatches(true, start, "http", 0, 4))
+		{
+			https = false;
+		}
+		else
+		{
+			return null;
+		}
+		if (!url.startsWith("//", schemeEnd + 1))
+		{
+			return null;
+		}
+
+		// authority: user info, host and port
+		int authorityStart = schemeEnd + 3;
+		int authorityEnd = authorityStart;
+		while (authorityEnd < end && url.charAt(authorityEnd) != '/' && url.charAt(authorityEnd) != '?')
+		{
+			authorityEnd++;
+		}
+		int hostStart = authorityStart;
+		for (int i = authorityEnd - 1; i >= authorityStart; i--)
+		{
+			if (url.charAt(i) == '@')
+			{
+				hostStart = i + 1;
+				break;
+			}
+		}
+		int hostEnd = hostStart < authorityEnd && url.charAt(hostStart) == '['
+				? indexOf(url, ']', hostStart, authorityEnd) + 1
+				: indexOf(url, ':', hostStart, authorityEnd);
+		if (hostEnd > authorityEnd)
+		{
+			return null; // unclosed IPv6 literal
+		}
+		int port = -1;
+		if (hostEnd < authorityEnd)
+		{
+			if (url.charAt(hostEnd) != ':')
+			{
+				return null;
+			}
+			port = 0;
+			for (int i = hostEnd + 1; i < authorityEnd; i++)
+			{
+				char c = url.charAt(i);
+				if (c < '0' || c > '9' || port > 65535)
+				{
+					return null;
+				}
+				port = port * 10 + (c - '0');
+			}
+			if (port > 65535)
+			{
+				return null;
+			}
+			if (hostEnd + 1 == authorityEnd || port == (https ? 443 : 80))
+			{
+				port = -1;
+			}
+		}
+		int trimmedHostEnd = hostEnd;
+		while (trimmedHostEnd > hostStart && url.charAt(trimmedHostEnd - 1) == '.')
+		{
+			trimmedHostEnd--;
+		}
+		if (trimmedHostEnd == hostStart)
+		{
+			return null;
+		}
+
+		StringBuilder sb = new StringBuilder(end - start + 8);
+		sb.append(https ? "https://" : "http://");
+		for (int i = hostStart; i < trimmedHostEnd; i++)
+		{
+			char c = url.charAt(i);
+			if (c <= ' ' || c == '%' || c == '\\')
+			{
+				return null;
+			}
+			sb.append(c >= 'A' && c <= 'Z' ? (char) (c + 32) : c);
+		}
+		if (port >= 0)
+		{
+			sb.append(':').append(port);
+		}
+
+		int queryStart = indexOf(url, '?', authorityEnd, end);
+		appendPath(sb, url, authorityEnd, queryStart);
+		if (queryStart < end)
+		{
+			appendQuery(sb, url, queryStart + 1, end);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Extracts the destination of a Google "/url?q=" redirect link
+	 * @param href the href attribute of the link
+	 * @return the decoded destination, or null if the link is not a redirect to an http or https URL
+	 */
+	public static String redirectTarget(String href)
+	{
+		if (href == null || !href.startsWith("/url?"))
+		{
+			return null;
+		}
+		int i = 5;
+		while (i < href.length())
+		{
+			int next = indexOf(href, '&', i, href.length());
+			int valueStart = href.startsWith("q=", i) ? i + 2 : href.startsWith("url=", i) ? i + 4 : -1;
+			if (valueStart >= 0)
+			{
+				String target = percentDecode(href, valueStart, next);
+				return target.regionMatches(true, 0, "http", 0, 4) ? target : null;
+			}
+			i = next + 1;
+		}
+		return null;
+	}
+
+	/**
+	 * Resolves a link against the URL of the page it was found on
+	 * The result is not canonical yet; canonicalize() resolves its "." and ".." segments.
+	 * @param base the absolute URL of the page
+	 * @param href the link, absolute or relative
+	 * @return the absolute URL of the link, or null if the base URL is not absolute
+	 */
+	public static String resolve(String base, String href)
+	{
+		String link = href.trim();
+		for (int i = 0; i < link.length(); i++)
+		{
+			char c = link.charAt(i);
+			if (c == ':')
+			{
+				if (i > 0)
+				{
+					return link; // already absolute, e.g. "https:" or "mailto:"
+				}
+				break;
+			}
+			if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (i > 0 && ((c >= '0' && c <= '9') || c == '+' || c == '-' || c == '.'))))
+			{
+				break;
+			}
+		}
+		int schemeEnd = base.indexOf("://");
+		if (schemeEnd < 0)
+		{
+			return null;
+		}
+		if (link.startsWith("//"))
+		{
+			return base.substring(0, schemeEnd + 1) + link;
+		}
+		int authorityEnd = schemeEnd + 3;
+		while (authorityEnd < base.length() && "/?#".indexOf(base.charAt(authorityEnd)) < 0)
+		{
+			authorityEnd++;
+		}
+		int pathEnd = authorityEnd;
+		while (pathEnd < base.length() && base.charAt(pathEnd) != '?' && base.charAt(pathEnd) != '#')
+		{
+			pathEnd++;
+		}
+		if (link.isEmpty() || link.startsWith("#"))
+		{
+			return base.substring(0, indexOf(base, '#', 0, base.length())) + link;
+		}
+		if (link.startsWith("/"))
+		{
+			return base.substring(0, authorityEnd) + link;
+		}
+		if (link.startsWith("?"))
+		{
+			return base.substring(0, pathEnd) + link;
+		}
+		int lastSlash = base.lastIndexOf('/', pathEnd - 1);
+		return lastSlash < authorityEnd
+				? base.substring(0, authorityEnd) + "/" + link
+				: base.substring(0, lastSlash + 1) + link;
+	}
+
+	/**
+	 * Gets the lowercase host of an absolute URL
+	 * @param url the URL
+	 * @return the host without user info or port, or an empty string if the URL has none
+	 */
+	public static String hostOf(String url)
+	{
+		int schemeEnd = url.indexOf("://");
+		if (schemeEnd < 0)
+		{
+			return "";
+		}
+		int authorityStart = schemeEnd + 3;
+		int authorityEnd = authorityStart;
+		while (authorityEnd < url.length() && "/?#".indexOf(url.charAt(authorityEnd)) < 0)
+		{
+			authorityEnd++;
+		}
+		int hostStart = url.lastIndexOf('@', authorityEnd - 1) + 1;
+		if (hostStart < authorityStart)
+		{
+			hostStart = authorityStart;
+		}
+		int hostEnd = hostStart < authorityEnd && url.charAt(hostStart) == '['
+				? Math.min(authorityEnd, indexOf(url, ']', hostStart, authorityEnd) + 1)
+				: indexOf(url, ':', hostStart, authorityEnd);
+		return url.substring(hostStart, hostEnd).toLowerCase();
+	}
+
+	// Appends the path, resolving "." and ".." segments; an empty path becomes "/"
+	private static void appendPath(StringBuilder sb, String url, int from, int to)
+	{
+		int base = sb.length();
+		int i = from;
+		while (i < to)
+		{
+			// url.charAt(i) is the '/' in front of a segment
+			int segmentEnd = indexOf(url, '/', i + 1, to);
+			int length = segmentEnd - i - 1;
+			boolean dot = length == 1 && url.charAt(i + 1) == '.';
+			boolean dotDot = length == 2 && url.charAt(i + 1) == '.' && url.charAt(i + 2) == '.';
+			if (dotDot)
+			{
+				int last = sb.lastIndexOf("/");
+				if (last >= base)
+				{
+					sb.setLength(last);
+				}
+			}
+			if (dot || dotDot)
+			{
+				if (segmentEnd == to)
+				{
+					sb.append('/');
+				}
+			}
+			else
+			{
+				sb.append('/');
+				appendEscaped(sb, url, i + 1, segmentEnd);
+			}
+			i = segmentEnd;
+		}
+		if (sb.length() == base)
+		{
+			sb.append('/');
+		}
+	}
+
+	// Appends the query parameters that do not track clicks, sorted by name
+	private static void appendQuery(StringBuilder sb, String url, int from, int to)
+	{
+		int count = 0;
+		for (int i = from; i <= to; i++)
+		{
+			if (i == to || url.charAt(i) == '&')
+			{
+				count++;
+			}
+		}
+		String[] parameters = new String[count];
+		count = 0;
+		StringBuilder parameter = new StringBuilder();
+		int i = from;
+		while (i <= to)
+		{
+			int next = indexOf(url, '&', i, to);
+			if (next > i && !isTracking(url, i, indexOf(url, '=', i, next)))
+			{
+				parameter.setLength(0);
+				appendEscaped(parameter, url, i, next);
+				parameters[count++] = parameter.toString();
+			}
+			i = next + 1;
+		}
+		if (count == 0)
+		{
+			return;
+		}
+		Arrays.sort(parameters, 0, count, BY_NAME);
+		sb.append('?');
+		for (int p = 0; p < count; p++)
+		{
+			if (p > 0)
+			{
+				sb.append('&');
+			}
+			sb.append(parameters[p]);
+		}
+	}
+
+	private static boolean isTracking(String url, int from, int to)
+	{
+		if (to - from > 4 && url.regionMatches(true, from, "utm_", 0, 4))
+		{
+			return true;
+		}
+		return to - from <= 7 && TRACKING_PARAMETERS.contains(url.substring(from, to).toLowerCase());
+	}
+
+	// Appends part of a URL with normalized percent escapes: unreserved characters are
+	// unescaped, other escapes get uppercase hex digits, and spaces, stray '%' signs and
+	// non-ASCII characters are escaped as UTF-8
+	private static void appendEscaped(StringBuilder sb, String url, int from, int to)
+	{
+		for (int i = from; i < to; i++)
+		{
+			char c = url.charAt(i);
+			if (c == '%' && i + 2 < to && hexValue(url.charAt(i + 1)) >= 0 && hexValue(url.charAt(i + 2)) >= 0)
+			{
+				int value = hexValue(url.charAt(i + 1)) << 4 | hexValue(url.charAt(i + 2));
+				if (isUnreserved(value))
+				{
+					sb.append((char) value);
+				}
+				else
+				{
+					appendHex(sb, value);
+				}
+				i += 2;
+			}
+			else if (c == '%' || c <= ' ' || c == '"' || c == '<' || c == '>' || c == '\\' || c == '^' || c == '`'
+					|| c == '{' || c == '|' || c == '}' || c == 0x7F)
+			{
+				appendHex(sb, c);
+			}
+			else if (c < 0x80)
+			{
+				sb.append(c);
+			}
+			else
+			{
+				int codePoint = Character.codePointAt(url, i);
+				int length = Character.charCount(codePoint);
+				for (byte b : url.substring(i, i + length).getBytes(StandardCharsets.UTF_8))
+				{
+					appendHex(sb, b & 0xFF);
+				}
+				i += length - 1;
+			}
+		}
+	}
+
+	// Decodes percent escapes as UTF-8; a '+' stays a '+' and a broken escape stays as it is
+	private static String percentDecode(String s, int from, int to)
+	{
+		if (indexOf(s, '%', from, to) == to)
+		{
+			return s.substring(from, to);
+		}
+		byte[] bytes = new byte[(to - from) * 3];
+		int length = 0;
+		for (int i = from; i < to; i++)
+		{
+			char c = s.charAt(i);
+			if (c == '%' && i + 2 < to && hexValue(s.charAt(i + 1)) >= 0 && hexValue(s.charAt(i + 2)) >= 0)
+			{
+				bytes[length++] = (byte) (hexValue(s.charAt(i + 1)) << 4 | hexValue(s.charAt(i + 2)));
+				i += 2;
+			}
+			else if (c < 0x80)
+			{
+				bytes[length++] = (byte) c;
+			}
+			else
+			{
+				// a surrogate pair is encoded as one code point, not as two lone surrogates
+				int codePoint = Character.codePointAt(s, i);
+				int charCount = Character.charCount(codePoint);
+				for (byte b : s.substring(i, i + charCount).getBytes(StandardCharsets.UTF_8))
+				{
+					bytes[length++] = b;
+				}
+				i += charCount - 1;
+			}
+		}
+		return new String(bytes, 0, length, StandardCharsets.UTF_8);
+	}
+
+	private static boolean isUnreserved(int c)
+	{
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+				|| c == '-' || c == '.' || c == '_' || c == '~';
+	}
+
+	private static void appendHex(StringBuilder sb, int value)
+	{
+		sb.append('%').append(HEX[value >> 4]).append(HEX[value & 15]);
+	}
+
+	private static int hexValue(char c)
+	{
+		if (c >= '0' && c <= '9')
+		{
+			return c - '0';
+		}
+		if (c >= 'a' && c <= 'f')
+		{
+			return c - 'a' + 10;
+		}
+		if (c >= 'A' && c <= 'F')
+		{
+			return c - 'A' + 10;
+		}
+		return -1;
+	}
+
+	// Finds a character in [from, to), or returns to if it is not there
+	private static int indexOf(String s, char c, int from, int to)
+	{
+		for (int i = from; i < to; i++)
+		{
+			if (s.charAt(i) == c)
+			{
+				return i;
+			}
+		}
+		return to;
+	}
+
+	// Canonicalizes sample links and times it against java.net.URI: java UrlCanonicalizer [n]
+	public static void main(String[] args) throws Exception
+	{
+		String[][] samples = {
+				{ "HTTP://WWW.Example.COM:80/a/./b/../c/%7euser?utm_source=x&b=2&a=1#top", "http://www.example.com/a/c/~user?a=1&b=2" },
+				{ "https://example.com:443", "https://example.com/" },
+				{ "https://user:pw@example.com:8443/x?", "https://example.com:8443/x" },
+				{ "https://example.com/a%2fb/%c3%a9?q=hello%20world&fbclid=abc", "https://example.com/a%2Fb/%C3%A9?q=hello%20world" },
+				{ "https://example.com/\u00FCber uns", "https://example.com/%C3%BCber%20uns" },
+				{ "https://example.com./x/..", "https://example.com/" },
+				{ "https://[2001:DB8::1]:443/", "https://[2001:db8::1]/" },
+				{ "https://example.com/?z=1&a=2&z=0", "https://example.com/?a=2&z=1&z=0" },
+				{ "ftp://example.com/", null },
+				{ "https://", null },
+				{ "https://example.com:99999/", null },
+		};
+		boolean ok = true;
+		for (String[] sample : samples)
+		{
+			String result = canonicalize(sample[0]);
+			boolean same = sample[1] == null ? result == null : sample[1].equals(result);
+			ok &= same;
+			if (!same)
+			{
+				System.out.println("MISMATCH " + sample[0] + " -> " + result + ", expected " + sample[1]);
+			}
+		}
+		ok &= "https://example.com/a b".equals(redirectTarget("/url?q=https://example.com/a%20b&sa=U&ved=0"));
+		ok &= "https://example.com/\uD83D\uDE00 b".equals(redirectTarget("/url?q=https://example.com/\uD83D\uDE00%20b&sa=U"));
+		ok &= "https://short.io/".equals(canonicalize(redirectTarget("/url?q=https://short.io")));
+		ok &= redirectTarget("/url?sa=t") == null && redirectTarget("/search?q=x") == null;
+		ok &= "example.com".equals(hostOf("https://u@EXAMPLE.com:81/x"));
+		ok &= "https://a.com/d/x?y".equals(canonicalize(resolve("https://a.com/d/p?q#f", "./x?y")));
+		ok &= "https://a.com/x".equals(canonicalize(resolve("https://a.com/d/p", "../x")));
+		ok &= "https://a.com/d/p?z".equals(resolve("https://a.com/d/p?q", "?z"));
+		ok &= "http://b.com/".equals(canonicalize(resolve("http://a.com/", "//b.com")));
+		ok &= "mailto:x@a.com".equals(resolve("http://a.com/", "mailto:x@a.com"));
+		System.out.println("samples canonicalized as expected: " + ok);
+
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		Random random = new Random(9);
+		String[] links = new String[n];
+		for (int i = 0; i < n; i++)
+		{
+			links[i] = "https://WWW.Site" + random.nextInt(10_000) + ".com/dir/./page" + i
+					+ (i % 3 == 0 ? "?utm_source=feed&id=" + i + "&lang=en" : "") + (i % 5 == 0 ? "#section" : "");
+		}
+		for (int round = 0; round < 3; round++)
+		{
+			long start = System.nanoTime();
+			long sum = 0;
+			for (String link : links)
+			{
+				sum += canonicalize(link).length();
+			}
+			double ours = (System.nanoTime() - start) / 1e6;
+			start = System.nanoTime();
+			for (String link : links)
+			{
+				sum += new java.net.URI(link).normalize().toString().length();
+			}
+			double uri = (System.nanoTime() - start) / 1e6;
+			System.out.printf("canonicalize %.0f ns/URL, URI.normalize (less work: no query or case rules) %.0f ns/URL (%d)%n",
+					ours * 1e6 / n, uri * 1e6 / n, sum);
+		}
+	}
+}
@@ -1,8 +1,29 @@
 package searchengine;
 
 import java.io.IOException;
-import java.util.HashSet;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
 
 import org.jsoup.Connection;
 import org.jsoup.Jsoup;
@@ -10,12 +31,14 @@ import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import searchengine.index.InvertedIndex;
+import searchengine.index.UrlIdTable;
 
 /**
  * A Web Crawler using Google Search String, Google BOT with Java jsoup Library
  * Searches for the keyword on the internet and generates a list of web URL links.
+ * Pages are fetched concurrently from a bounded frontier, up to a depth and page budget,
+ * by a fixed pool of maxInFlight platform threads.
  * @author Mark Mathew
  *
  */
@@ -23,59 +46,261 @@ public class WebCrawler {
 
 	private String url;
 	private String keyword;
-	private Set<String> urls = new HashSet<String>();
+	private Set<String> urls = ConcurrentHashMap.newKeySet();
 
-	private static final String USER_AGENT = "Mozilla/5.0 (compatible; Googlebot/2.1; +http://www.google.com/bot.html)";
-	private Document htmlDocument;
-	private static Pattern patternDomainName;
-	private Matcher matcher;
-	private static final String DOMAIN_NAME_PATTERN = "([a-zA-Z0-9]([a-zA-Z0-9\\-]{0,61}[a-zA-Z0-9])?\\.)+[a-zA-Z]{2,6}";
+	// every page fetched during the crawl, tokenized once when it arrives
+	private InvertedIndex index = new InvertedIndex();
 
-	static {
-		patternDomainName = Pattern.compile(DOMAIN_NAME_PATTERN);
+	// SimHash fingerprints of the indexed pages; a near-duplicate of one of them is left out of the index
+	private NearDuplicateIndex<String> fingerprints = new NearDuplicateIndex<>();
+
+	// the indexed page that every near-duplicate page was clustered with, by node ID
+	private Map<Integer, String> duplicateOf = new ConcurrentHashMap<>();
+
+	// every URL seen in the crawl gets a node ID in the link graph; most of the URLs are kept off the heap
+	private UrlIdTable nodeIds = new UrlIdTable();
+	private LinkGraph.Builder links = new LinkGraph.Builder();
+
+	// PageRank of every node, computed once the crawl is done and updated after later fetches
+	private IncrementalPageRank linkRanker;
+	private double[] linkRanks = new double[0];
+	private double maxLinkRank;
+
+	// out-links of the pages fetched since the ranker was built, by node ID; a page fetched again replaces its links
+	private Map<Integer, int[]> changedOutLinks = new HashMap<>();
+
+	// queues requests per host and spaces them out; rebuilt for every crawl
+	private HostScheduler scheduler;
+
+	// parsed robots.txt rules, shared by every crawl of this crawler
+	private RobotsCache robots;
+
+	// pages fetched by this and earlier runs, saved to seenFile after every crawl if one is set
+	private BloomFilter visited;
+	private Path seenFile;
+	private long expectedUrls = CrawlFrontier.DEFAULT_EXPECTED_URLS;
+	private double falsePositiveRate = CrawlFrontier.DEFAULT_FALSE_POSITIVE_RATE;
+
+	private int maxDepth = 1;
+	private int maxPages = 50;
+	private int maxConnectionsPerHost = 2;
+	private long minHostDelayMillis = 250;
+	private long robotsTtlMillis = 60 * 60 * 1000;
+	private boolean respectRobots = true;
+	private int maxInFlight = 32;
+	private int frontierCapacity = 10000;
+	private int rankParallelism = Runtime.getRuntime().availableProcessors();
+	private boolean streaming = false;
+
+	private static final String AGENT_TOKEN = "SearchEngineSimulator";
+	private static final String DEFAULT_USER_AGENT = "Mozilla/5.0 (compatible; " + AGENT_TOKEN + "/1.0)";
+	private String userAgent = DEFAULT_USER_AGENT;
+	private static final int TIMEOUT_MILLIS = 5000;
+
+	// most chars of visible text kept per page in streaming mode
+	private static final int MAX_STREAMED_TEXT = 1 << 20;
+
+	// A page that left the frontier, with the time it was queued with the HostScheduler
+	private static final class QueuedPage {
+		final CrawlFrontier.Entry entry;
+		final long queuedNanos;
+
+		QueuedPage(CrawlFrontier.Entry entry, long queuedNanos) {
+			this.entry = entry;
+			this.queuedNanos = queuedNanos;
+		}
 	}
 
+	// returned by fetch() for a page that robots.txt disallows; it was never requested, so it does not count against maxPages
+	private static final List<CrawlFrontier.Entry> DISALLOWED = new ArrayList<>(0);
+
 	// Constructor for the WebCrawler object
 	// It saved the keyword that user entered and put it into a google search link
 	WebCrawler(String aKeyword) {
+		this(aKeyword, "https://google.com/search?q=" + aKeyword + "&num=80");
+	}
+
+	// Constructor that starts crawling from any seed page, e.g. a local fixture server
+	WebCrawler(String aKeyword, String seedUrl) {
 		keyword = aKeyword;
-		url = "https://google.com/search?q=" + aKeyword + "&num=80";
+		url = seedUrl;
 	}
 
 	// This method start the search
+	// Crawls outward from the seed page and reports every page that contains the keyword
 	public void search() {
-		String currentUrl = url;
-		crawl(currentUrl);
-		boolean success = searchForWord(keyword);
-		if (success) {
-			System.out.println(String.format("**Success** Word %s found at %s", keyword, currentUrl));
+		crawlFrom(url);
+		index.compact();
+		rankLinks();
+		int[] matches = index.search(keyword);
+		for (int docId : matches) {
+			System.out.println(String.format("**Success** Word %s found at %s", keyword, index.getUrl(docId)));
 		}
-		System.out.println(String.format("**Done** Visited %s web page(s)", urls.size()));
+		if (matches.length == 0) {
+			System.out.println(String.format("**Failure** Word %s not found", keyword));
+		}
+		System.out.println(String.format("**Done** Visited %s web page(s), %s near-duplicate(s) left out", index.getDocCount() + duplicateOf.size(), duplicateOf.size()));
 
 	}
 
-	// The method will use pattern and matcher to extract the domain
-	public String getDomainName(String url) {
-		matcher = patternDomainName.matcher(url);
-		
-		// ** IF WANT FULL URLs WITHOUT GARBAGE
-		// modify the url string for a better format
-		/*		
-		if (url.startsWith("/url?q=https://")) 
-		{
-			return url.substring(15, url.indexOf("&sa="));
+	// Runs the crawl: one coordinator thread owns the frontier, fetches run on worker threads
+	// The number of fetches in flight is bounded by maxInFlight; the HostScheduler keeps each host polite
+	private void crawlFrom(String seedUrl) {
+		scheduler = new HostScheduler(minHostDelayMillis, maxConnectionsPerHost);
+		if (robots == null) {
+			robots = new RobotsCache(userAgent, AGENT_TOKEN, robotsTtlMillis, TIMEOUT_MILLIS);
 		}
-		else
-		{
-			return url.substring(14, 42);
+		if (seenFile != null && visited == null) {
+			visited = loadVisited();
+		}
+		// a full filter would mistake more and more new pages for visited ones, so it starts over
+		if (visited != null && visited.isFull()) {
+			System.out.println("**Reset** Forgot " + visited.getCount() + " visited pages, the filter was full");
+			visited = new BloomFilter(expectedUrls, falsePositiveRate, true);
+		}
+		// the seen filter lives off the heap, so a long crawl does not grow the heap with every URL it discovers
+		CrawlFrontier frontier = new CrawlFrontier(frontierCapacity, new BloomFilter(expectedUrls, falsePositiveRate, true), visited);
+		frontier.push(seedUrl, 0);
+
+		ExecutorService pool = Executors.newFixedThreadPool(maxInFlight);
+		CompletionService<List<CrawlFrontier.Entry>> completed = new ExecutorCompletionService<>(pool);
+		Map<Future<List<CrawlFrontier.Entry>>, String> running = new HashMap<>();
+		// pages whose host could not take a request when they left the frontier, in frontier order per host
+		// every page is queued with the scheduler when it leaves the frontier, so its stats count the time held back here
+		Map<String, ArrayDeque<QueuedPage>> deferred = new HashMap<>();
+		Map<String, Integer> hostInFlight = new HashMap<>();
+		int deferredCount = 0;
+		int inFlight = 0;
+		int fetched = 0;
+		try {
+			while (fetched < maxPages) {
+				// keep the pipeline full with pages whose host can take a request now, so one slow or
+				// crawl-delayed host cannot fill every fetch slot with threads waiting for their turn
+				long wakeNanos = Long.MAX_VALUE;
+				while (inFlight < maxInFlight && fetched + inFlight < maxPages) {
+					QueuedPage next = null;
+					Iterator<Map.Entry<String, ArrayDeque<QueuedPage>>> lines = deferred.entrySet().iterator();
+					while (next == null && lines.hasNext()) {
+						Map.Entry<String, ArrayDeque<QueuedPage>> line = lines.next();
+						long wait = nanosUntilReady(line.getKey(), hostInFlight);
+						if (wait == 0) {
+							next = line.getValue().poll();
+							deferredCount--;
+							if (line.getValue().isEmpty()) {
+								lines.remove();
+							}
+						} else {
+							wakeNanos = Math.min(wakeNanos, wait);
+						}
+					}
+					CrawlFrontier.Entry polled;
+					while (next == null && deferredCount < frontierCapacity && (polled = frontier.poll()) != null) {
+						String host = hostOf(polled.url);
+						next = new QueuedPage(polled, scheduler.enqueue(host));
+						long wait = nanosUntilReady(host, hostInFlight);
+						if (wait > 0) {
+							deferred.computeIfAbsent(host, h -> new ArrayDeque<>()).add(next);
+							deferredCount++;
+							wakeNanos = Math.min(wakeNanos, wait);
+							next = null;
+						}
+					}
+					if (next == null) {
+						break;
+					}
+					final CrawlFrontier.Entry entry = next.entry;
+					final long queuedNanos = next.queuedNanos;
+					// the seed page is the user's own request, so only discovered links are checked against robots.txt
+					final boolean checkRobots = respectRobots && entry.depth > 0;
+					running.put(completed.submit(() -> fetch(entry.url, entry.depth, checkRobots, queuedNanos)), entry.url);
+					hostInFlight.merge(hostOf(entry.url), 1, Integer::sum);
+					inFlight++;
+				}
+				if (inFlight == 0) {
+					if (deferredCount == 0) {
+						break; // nothing queued and nothing running
+					}
+					// every queued page waits for the delay of its host
+					TimeUnit.NANOSECONDS.sleep(Math.min(wakeNanos, TimeUnit.SECONDS.toNanos(1)));
+					continue;
+				}
+
+				Future<List<CrawlFrontier.Entry>> done = wakeNanos == Long.MAX_VALUE ? completed.take()
+						: completed.poll(wakeNanos, TimeUnit.NANOSECONDS);
+				if (done == null) {
+					continue; // a waiting host is ready
+				}
+				String doneUrl = running.remove(done);
+				hostInFlight.merge(hostOf(doneUrl), -1, Integer::sum);
+				List<CrawlFrontier.Entry> links;
+				try {
+					links = done.get();
+				} catch (ExecutionException ee) {
+					System.out.println("**Failure** " + ee.getCause());
+					links = null;
+				}
+				inFlight--;
+				if (links == DISALLOWED) {
+					continue;
+				}
+				fetched++;
+				if (links == null) {
+					continue;
+				}
+				// only a page that was fetched and used counts as visited, so a restarted crawl tries a failed one again
+				if (visited != null) {
+					visited.add(doneUrl);
+				}
+				for (CrawlFrontier.Entry link : links) {
+					frontier.offer(link.url, link.depth);
+				}
+			}
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		} finally {
+			pool.shutdownNow();
+			// the pages still held back will not be fetched, so they leave their hosts' queues
+			for (Map.Entry<String, ArrayDeque<QueuedPage>> line : deferred.entrySet()) {
+				for (int i = line.getValue().size(); i > 0; i--) {
+					scheduler.cancel(line.getKey());
+				}
+			}
+		}
+		System.out.println(String.format("**Frontier** %d URLs dropped when full, %d skipped as visited before, %d seen-filter false positives caught",
+				frontier.getDropped(), frontier.getSkippedVisited(), frontier.getFalsePositives()));
+		if (seenFile != null) {
+			try {
+				visited.write(seenFile);
+			} catch (IOException e) {
+				System.out.println("**Failure** Could not save the visited pages: " + e);
+			}
 		}
-		*/
-		
-		// original format
-		if (url.startsWith("/url?q=https://")) {
-			return url.substring(15, 42);
+	}
+
+	// Gets how long a page of a host would wait for its turn, counting the fetches already handed to workers
+	private long nanosUntilReady(String host, Map<String, Integer> hostInFlight) {
+		if (hostInFlight.getOrDefault(host, 0) >= maxConnectionsPerHost) {
+			return Long.MAX_VALUE;
+		}
+		return scheduler.nanosUntilReady(host);
+	}
+
+	// Reads the pages visited by earlier runs, or starts an empty filter if there are none
+	private BloomFilter loadVisited() {
+		if (Files.exists(seenFile)) {
+			try {
+				return BloomFilter.read(seenFile, true);
+			} catch (IOException e) {
+				System.out.println("**Failure** Could not read the visited pages: " + e);
+			}
 		}
-		return url.substring(14, 42);
+		return new BloomFilter(expectedUrls, falsePositiveRate, true);
+	}
+
+	// Gets the domain name of a link, following a Google "/url?q=" redirect to its destination
+	public String getDomainName(String url) {
+		String target = UrlCanonicalizer.redirectTarget(url);
+		return UrlCanonicalizer.hostOf(target != null ? target : url);
 	}
 
 	// get the set of urls result
@@ -83,47 +308,332 @@ public class WebCrawler {
 		return this.urls;
 	}
 
+	// get the indexed page that a crawled URL is a near-duplicate of, or null if it is not one
+	public String getDuplicateOf(String pageUrl) {
+		int id = nodeIds.find(pageUrl);
+		return id < 0 ? null : duplicateOf.get(id);
+	}
+
+	// get the number of fetched pages left out of the index as near-duplicates
+	public int getDuplicateCount() {
+		return duplicateOf.size();
+	}
+
+	// get the inverted index of every page visited
+	public InvertedIndex getIndex() {
+		return this.index;
+	}
+
+	// set how many links away from the seed page the crawler may go
+	public void setMaxDepth(int maxDepth) {
+		this.maxDepth = maxDepth;
+	}
+
+	// set the maximum number of pages fetched by one search
+	public void setMaxPages(int maxPages) {
+		this.maxPages = maxPages;
+	}
+
+	// set the maximum number of simultaneous requests to one host
+	public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+		this.maxConnectionsPerHost = maxConnectionsPerHost;
+	}
+
+	// set the minimum time between two requests to the same host
+	public void setMinHostDelayMillis(long minHostDelayMillis) {
+		this.minHostDelayMillis = minHostDelayMillis;
+	}
+
+	// set whether discovered links are checked against robots.txt
+	public void setRespectRobots(boolean respectRobots) {
+		this.respectRobots = respectRobots;
+	}
+
+	// set how long parsed robots.txt rules are kept before they are fetched again
+	public void setRobotsTtlMillis(long robotsTtlMillis) {
+		this.robotsTtlMillis = robotsTtlMillis;
+		this.robots = null;
+	}
+
+	// set the User-Agent header sent with every request
+	public void setUserAgent(String userAgent) {
+		this.userAgent = userAgent;
+		this.robots = null;
+	}
+
+	// get the per-host queue depth and wait statistics of the last crawl
+	public HostScheduler getHostScheduler() {
+		return this.scheduler;
+	}
+
+	// set the maximum number of simultaneous requests overall
+	public void setMaxInFlight(int maxInFlight) {
+		this.maxInFlight = maxInFlight;
+	}
+
+	// set the number of threads a full PageRank recompute may use; small link graphs use one whatever the setting
+	public void setRankParallelism(int rankParallelism) {
+		this.rankParallelism = rankParallelism;
+	}
+
+	// set the maximum number of URLs waiting in the frontier
+	public void setFrontierCapacity(int frontierCapacity) {
+		this.frontierCapacity = frontierCapacity;
+	}
+
+	// set the file that remembers visited pages, so a restarted crawl skips them; null to forget them
+	public void setSeenFile(Path seenFile) {
+		this.seenFile = seenFile;
+		this.visited = null;
+	}
+
+	// set the number of URLs one crawl is expected to discover, which sizes its seen filter
+	public void setExpectedUrls(long expectedUrls) {
+		this.expectedUrls = expectedUrls;
+	}
+
+	// set whether pages are read in one streaming pass instead of being parsed into a DOM
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+
+	// set the fraction of new URLs the seen filter may mistake for seen ones
+	public void setFalsePositiveRate(double falsePositiveRate) {
+		this.falsePositiveRate = falsePositiveRate;
+	}
+
 	// This method will crawl the links and put them in to a set to keep
 	// Give it a URL and it makes an HTTP request for a web page
 	public boolean crawl(String url) {
+		if (scheduler == null) {
+			scheduler = new HostScheduler(minHostDelayMillis, maxConnectionsPerHost);
+		}
+		boolean fetched = fetch(url, maxDepth, false, scheduler.enqueue(hostOf(url))) != null;
+		if (fetched) {
+			rankLinks();
+		}
+		return fetched;
+	}
+
+	// Fetches one page once the HostScheduler lets a request to its host start
+	// The page must have been queued with scheduler.enqueue(host), which returned queuedNanos
+	// Returns the links worth following one level deeper, DISALLOWED if robots.txt forbids the page, or null if the page could not be used
+	private List<CrawlFrontier.Entry> fetch(String pageUrl, int depth, boolean checkRobots, long queuedNanos) {
+		String host = hostOf(pageUrl);
+		// robots.txt is checked before the page's turn is taken, so a disallowed page costs no politeness delay;
+		// fetching robots.txt itself waits for a turn of its own
+		if (checkRobots) {
+			if (!robots.isAllowed(pageUrl, scheduler)) {
+				System.out.println("**Skipped** Disallowed by robots.txt: " + pageUrl);
+				scheduler.cancel(host);
+				return DISALLOWED;
+			}
+			try {
+				long crawlDelay = robots.getRules(new URI(pageUrl), scheduler).getCrawlDelayMillis();
+				if (crawlDelay > 0) {
+					scheduler.setHostDelay(host, crawlDelay);
+				}
+			} catch (URISyntaxException e) {
+				scheduler.cancel(host);
+				return null;
+			}
+		}
+		scheduler.acquire(host, queuedNanos);
 		try {
+			List<CrawlFrontier.Entry> next = new ArrayList<>();
+			if (streaming) {
+				return fetchStreaming(pageUrl, depth, next) ? next : null;
+			}
 
-			Connection connection = Jsoup.connect(url).userAgent(USER_AGENT);
-			final Document htmlDocument = connection.timeout(5000).get();
-			this.htmlDocument = htmlDocument;
+			Connection connection = Jsoup.connect(pageUrl).userAgent(userAgent);
+			final Document htmlDocument = connection.timeout(TIMEOUT_MILLIS).get();
 
 			if (connection.response().statusCode() == 200) {
-				System.out.println("\n**Visiting** Received web page at " + url);
+				System.out.println("\n**Visiting** Received web page at " + pageUrl);
 			}
 			if (!connection.response().contentType().contains("text/html")) {
 				System.out.println("**Failure** Retrieved something other than HTML");
-				return false;
+				return null;
+			}
+			int from = nodeId(pageUrl);
+			if (htmlDocument.body() != null) {
+				indexPage(pageUrl, from, htmlDocument.body().text());
 			}
 
 			Elements linksOnPage = htmlDocument.select("a[href]");
 			System.out.println("Found (" + linksOnPage.size() + ") links");
 
+			IntStream.Builder targets = IntStream.builder();
 			for (Element link : linksOnPage) {
-				String temp = link.attr("href");
-				if (temp.startsWith("/url?q=http")) {
-					this.urls.add(getDomainName(temp));
-				}
+				addPageLink(link.attr("href"), link.absUrl("href"), depth, next, targets);
 			}
-			return true;
-		} catch (IOException ioe) {
+			setOutLinks(from, targets.build().toArray());
+			return next;
+		} catch (IOException e) {
+			return null;
+		} finally {
+			scheduler.release(host);
+		}
+	}
+
+	// Fetches one page in streaming mode: links and text are pulled from the response as it is read, no DOM is built
+	// Returns false if the page could not be used
+	private boolean fetchStreaming(String pageUrl, int depth, List<CrawlFrontier.Entry> next) throws IOException {
+		Connection.Response response = Jsoup.connect(pageUrl).userAgent(userAgent).timeout(TIMEOUT_MILLIS).execute();
+		if (response.statusCode() == 200) {
+			System.out.println("\n**Visiting** Received web page at " + pageUrl);
+		}
+		if (response.contentType() == null || !response.contentType().contains("text/html")) {
+			System.out.println("**Failure** Retrieved something other than HTML");
 			return false;
 		}
+		Charset charset;
+		try {
+			charset = response.charset() == null ? StandardCharsets.UTF_8 : Charset.forName(response.charset());
+		} catch (IllegalArgumentException e) {
+			charset = StandardCharsets.UTF_8;
+		}
+
+		int from = nodeId(pageUrl);
+		StringBuilder text = new StringBuilder();
+		int[] links = new int[1];
+		IntStream.Builder targets = IntStream.builder();
+		String[] base = { pageUrl };
+		try (InputStream body = response.bodyStream()) {
+			StreamingHtmlExtractor.extract(body, charset, new StreamingHtmlExtractor.Handler() {
+				public void link(String href) {
+					links[0]++;
+					addPageLink(href, UrlCanonicalizer.resolve(base[0], href), depth, next, targets);
+				}
+
+				public void text(char[] chars, int start, int length) {
+					// the text kept for the index is capped, so a huge page cannot exhaust memory
+					text.append(chars, start, Math.min(length, MAX_STREAMED_TEXT - text.length()));
+				}
+
+				public void base(String href) {
+					String resolved = UrlCanonicalizer.resolve(pageUrl, href);
+					if (resolved != null) {
+						base[0] = resolved;
+					}
+				}
+			});
+		}
+		indexPage(pageUrl, from, text.toString());
+		setOutLinks(from, targets.build().toArray());
+		System.out.println("Found (" + links[0] + ") links");
+		return true;
+	}
+
+	// Indexes the text of a fetched page, unless it is a near-duplicate of a page already indexed
+	private void indexPage(String pageUrl, int from, String text) {
+		long fingerprint = SimHash.fingerprint(text);
+		// mirrors and boilerplate variants would only crowd the results, so they are not indexed
+		String original = fingerprint == 0 ? null : fingerprints.findOrAdd(fingerprint, pageUrl);
+		if (original == null) {
+			index.addDocument(pageUrl, text);
+		} else {
+			duplicateOf.put(from, original);
+			System.out.println("**Duplicate** " + pageUrl + " is a near-duplicate of " + original);
+		}
+	}
+
+	// Adds the node of one link of a page to the page's targets, and to the next frontier entries if the crawl goes deeper
+	private void addPageLink(String href, String absUrl, int depth, List<CrawlFrontier.Entry> next, IntStream.Builder targets) {
+		// every link is canonicalized, so one page gets one node, one frontier entry and one result
+		String redirect = UrlCanonicalizer.redirectTarget(href);
+		String target = UrlCanonicalizer.canonicalize(redirect != null ? redirect : absUrl);
+		if (target == null) {
+			return;
+		}
+		if (redirect != null) {
+			this.urls.add(target);
+		}
+		targets.add(nodeId(target));
+		if (depth < maxDepth) {
+			next.add(new CrawlFrontier.Entry(target, depth + 1));
+		}
+	}
+
+	// Gets the link graph node of a URL, creating it on first sight
+	private int nodeId(String pageUrl) {
+		return nodeIds.idOf(pageUrl);
 	}
 
-	// This method will check if the website contains keyword
+	// Records the out-links of a fetched page: straight into the link graph until it is first ranked, after that
+	// as a change for the ranker, so a page fetched again drops the links it no longer has
+	private void setOutLinks(int from, int[] targets) {
+		synchronized (links) {
+			if (linkRanker == null) {
+				for (int to : targets) {
+					links.addEdge(from, to);
+				}
+			} else {
+				changedOutLinks.put(from, targets);
+			}
+		}
+	}
+
+	// Runs PageRank over the links found by the crawl
+	// The first call ranks the whole graph; later calls replace the out-links of the pages fetched since
+	private void rankLinks() {
+		synchronized (links) {
+			if (linkRanker == null) {
+				links.ensureNodes(nodeIds.size());
+				linkRanker = new IncrementalPageRank(links.build(), 0.85, rankParallelism);
+				linkRanks = linkRanker.getRanks();
+			} else {
+				int nodes = nodeIds.size();
+				if (nodes > linkRanker.getNodeCount()) {
+					linkRanker.addNodes(nodes - linkRanker.getNodeCount());
+				}
+				for (Map.Entry<Integer, int[]> page : changedOutLinks.entrySet()) {
+					linkRanker.replaceOutLinks(page.getKey(), page.getValue());
+				}
+				changedOutLinks.clear();
+				linkRanks = linkRanker.update();
+			}
+		}
+		maxLinkRank = 0;
+		for (double r : linkRanks) {
+			maxLinkRank = Math.max(maxLinkRank, r);
+		}
+	}
+
+	// get the PageRank value of a crawled URL, or 0 if the crawl never saw it
+	public double getLinkRank(String pageUrl) {
+		int id = nodeIds.find(pageUrl);
+		return id < 0 || id >= linkRanks.length ? 0 : linkRanks[id];
+	}
+
+	// get the link score (1 to 100) of a crawled URL for PageRank.otherWebLinks
+	public int getLinkScore(String pageUrl) {
+		return PageRank.scaleLinkRank(getLinkRank(pageUrl), maxLinkRank);
+	}
+
+	// get the PageRank value of every indexed document, by document ID
+	public double[] getDocRanks() {
+		double[] ranks = new double[index.getDocCount()];
+		for (int d = 0; d < ranks.length; d++) {
+			ranks[d] = getLinkRank(index.getUrl(d));
+		}
+		return ranks;
+	}
+
+	// Returns the host part of a URL, or an empty string if it has none
+	private static String hostOf(String pageUrl) {
+		return UrlCanonicalizer.hostOf(pageUrl);
+	}
+
+	// This method will check if any visited website contains keyword
+	// The answer comes from the posting lists of the index, not from rescanning page text
 	public boolean searchForWord(String searchWord) {
-		if (this.htmlDocument == null) {
+		if (this.index.getDocCount() == 0) {
 			System.out.println("Error!");
 			return false;
 		}
 		System.out.println("Searching for the word " + searchWord + "...");
-		String bodyText = this.htmlDocument.body().text();
-		return bodyText.toLowerCase().contains(searchWord.toLowerCase());
+		return this.index.search(searchWord).length > 0;
 	}
 
 	public static void main(String[] args)
@@ -135,5 +645,9 @@ public class WebCrawler {
 		{
 			System.out.println(s);
 		}
+		for(HostScheduler.HostStats stats : wc.getHostScheduler().getStats())
+		{
+			System.out.println(stats);
+		}
 	}
 }//end
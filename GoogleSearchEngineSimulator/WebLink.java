@@ -9,6 +9,14 @@ public class WebLink implements Comparable {
 	private String url;
 	private PageRank pRank;
 	
+	// set when this WebLink is a view of a website in a DocumentStore
+	private DocumentStore store;
+	private int docId;
+	
+	// the hash code of the URL of a view, computed from the store's bytes on first use
+	private int urlHash;
+	private boolean urlHashed;
+	
 	/**
 	 * Constructs a WebLink item with url and rank
 	 * @param url the URL of the website
@@ -20,21 +28,45 @@ public class WebLink implements Comparable {
 		this.pRank = pRank;
 	}
 	
+	/**
+	 * Constructs a WebLink item that reads the url and rank from a DocumentStore
+	 * @param store the store holding the website
+	 * @param docId the document ID of the website
+	 */
+	WebLink(DocumentStore store, int docId)
+	{
+		this.store = store;
+		this.docId = docId;
+	}
+	
 	/**
 	 * Gets the url of the website
 	 * @return the url
 	 */
 	public String getUrl()
 	{
-		return url;
+		return store != null ? store.getUrl(docId) : url;
 	}
 	
 	/**
 	 * Gets the rank of the website
+	 * A view returns the same PageRank every time, refreshed from the store on each call.
 	 * @return the rank
 	 */
 	public PageRank getRank()
 	{
+		if (store != null)
+		{
+			if (pRank == null)
+			{
+				pRank = new PageRank(0, 0, 0, 0);
+			}
+			pRank.frequency = getFrequency();
+			pRank.age = getAge();
+			pRank.otherWebLinks = getOtherWebLinks();
+			pRank.money = getMoney();
+			pRank.getTotalScore();
+		}
 		return pRank;
 	}
 	
@@ -44,7 +76,7 @@ public class WebLink implements Comparable {
 	 */
 	public int getFrequency()
 	{
-		return pRank.frequency;
+		return store != null ? store.getFrequency(docId) : pRank.frequency;
 	}
 	
 	/**
@@ -53,7 +85,7 @@ public class WebLink implements Comparable {
 	 */
 	public int getAge()
 	{
-		return pRank.age;
+		return store != null ? store.getAge(docId) : pRank.age;
 	}
 	
 	/**
@@ -62,7 +94,7 @@ public class WebLink implements Comparable {
 	 */
 	public int getOtherWebLinks()
 	{
-		return pRank.otherWebLinks;
+		return store != null ? store.getOtherWebLinks(docId) : pRank.otherWebLinks;
 	}
 	
 	/**
@@ -71,7 +103,7 @@ public class WebLink implements Comparable {
 	 */
 	public int getMoney()
 	{
-		return pRank.money;
+		return store != null ? store.getMoney(docId) : pRank.money;
 	}
 	
 	/**
@@ -80,7 +112,7 @@ public class WebLink implements Comparable {
 	 */
 	public int getTotal()
 	{
-		return pRank.getTotalScore();
+		return store != null ? store.getTotal(docId) : pRank.getTotalScore();
 	}
 	
 	/**
@@ -96,6 +128,7 @@ public class WebLink implements Comparable {
 	/**
 	 * @Override
 	 * Checks if 2 WebLink items have the same total PageRank score and URL
+	 * Views and plain WebLinks compare alike, so a plain WebLink finds an equal view in a heap.
 	 * @return true if 2 items have the same total PageRank score and URL, false otherwise
 	 */
 	public boolean equals(Object otherObject)
@@ -110,7 +143,7 @@ public class WebLink implements Comparable {
 		}
 		
 		WebLink other = (WebLink)otherObject;
-		return (this.getTotal() == other.getTotal() && this.url.equals(other.url));
+		return (this.getTotal() == other.getTotal() && this.compareUrl(other) == 0);
 	}
 	
 	/**
@@ -124,7 +157,7 @@ public class WebLink implements Comparable {
 		WebLink other = (WebLink) otherObject;
 		if(this.getTotal() == other.getTotal())
     	{
-    	          return this.url.compareTo(other.url);//compare String
+    	          return this.compareUrl(other);//compare URL
     	}
     	else
     	{
@@ -135,10 +168,50 @@ public class WebLink implements Comparable {
 	/**
 	 * @Override
 	 * Generates the hash code for a WebLink items
+	 * Views hash their URL from the store's bytes once, so a heap of views decodes no URL.
 	 * @return the hash code 
 	 */
 	public int hashCode() 
 	{
-		return url.length() + pRank.getTotalScore();
+		if (store == null)
+		{
+			return 31 * url.hashCode() + getTotal();
+		}
+		if (!urlHashed)
+		{
+			urlHash = store.getUrlHashCode(docId);
+			urlHashed = true;
+		}
+		return 31 * urlHash + getTotal();
+	}
+	
+	/**
+	 * Compares the URLs of two WebLink items by code point, the order of their UTF-8 bytes
+	 * Views of the same store compare the bytes in place, without decoding the URLs.
+	 * @param other the other item
+	 * @return a negative number, zero or a positive number as this URL sorts before, with or after the other
+	 */
+	private int compareUrl(WebLink other)
+	{
+		if (store != null && store == other.store)
+		{
+			return docId == other.docId ? 0 : store.compareUrls(docId, other.docId);
+		}
+		String a = this.getUrl();
+		String b = other.getUrl();
+		int i = 0;
+		int j = 0;
+		while (i < a.length() && j < b.length())
+		{
+			int ca = a.codePointAt(i);
+			int cb = b.codePointAt(j);
+			if (ca != cb)
+			{
+				return Integer.compare(ca, cb);
+			}
+			i += Character.charCount(ca);
+			j += Character.charCount(cb);
+		}
+		return (a.length() - i) - (b.length() - j);
 	}
 }
@@ -0,0 +1,548 @@
+package searchengine.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Ranks the documents that contain any term of a query, skipping those that cannot make the top k
+ * This is block-max WAND. Every block of a compressed posting list gets an upper bound of the
+ * score its term can add to any of its documents, and every term the highest of its block
+ * bounds. The cursors are kept sorted by document ID; the pivot is the first document whose
+ * summed term bounds, plus the highest static score, beat the lowest score in the collector.
+ * Documents before the pivot are jumped over with advance(). If the bounds of the blocks
+ * holding the pivot cannot beat it either, the following windows of blocks are checked against
+ * the skip tables alone, and the cursors only decode the first block that may hold a winner.
+ *
+ * The block bounds are the highest tf / (tf + norm) of each block. compact() records them in
+ * the skip table, so a search reads them without decoding anything. If the scorer's norms
+ * differ from the ones they were recorded with, e.g. for other BM25 parameters, they are
+ * computed by decoding a list the first time its term is searched and kept for later queries
+ * of the same evaluator, as long as the list does not change. The skip table's highest term
+ * frequency, taken with the shortest document, would need no decoding but is too loose to skip
+ * much: the best documents of common terms are short ones. Lists that are not compressed have
+ * no blocks; their bound is the term weight itself.
+ *
+ * Choosing a pivot costs more per document than scoring every match, so it only pays when the
+ * bounds tell the documents apart. A query whose rarest term is in a third of the documents
+ * is searched window by window instead: a window of blocks whose bound cannot beat the
+ * threshold is skipped whole, and every match in any other window is scored. Otherwise the
+ * pruning is checked every few steps once a share of the documents has been searched, and if
+ * it passed fewer postings than an exhaustive search would have read in the same time, the
+ * rest of the lists is searched window by window.
+ *
+ * Only documents that may still enter the top k are scored, and they are scored exactly like
+ * searchExhaustive() scores them, so both return the same documents with the same scores.
+ * The scorer's BM25 parameters must not change while the evaluator is used, and an evaluator
+ * is not thread-safe.
+ *
+ */
+public class BlockMaxWand
+{
+	// steps between two checks of how much the pruning skips, once the collector is full
+	private static final int CHECK_INTERVAL = 1024;
+
+	// the postings an exhaustive search reads in the time of one pruning step
+	private static final double STEP_COST = 3;
+
+	// the share of the documents searched before the pruning is judged; until the top k fill
+	// up with good documents the threshold is low and nothing is skipped, whatever the bounds
+	private static final int WARM_UP_SHARE = 32;
+
+	private final IndexReader reader;
+	private final Bm25Scorer scorer;
+
+	// the block bounds of every term searched so far, and the document frequency they were computed for
+	private final Map<String, float[]> blockImpacts = new HashMap<>();
+	private final Map<String, Integer> impactDocFreqs = new HashMap<>();
+
+	// the state of the current search: the term cursors, their weights and score bounds,
+	// their block bounds and the block each block score was computed for
+	private PostingIterator[] its;
+	private CompressedPostingList.Cursor[] cursors;
+	private float[][] impacts;
+	private double[] weights;
+	private double[] maxScores;
+	private int[] boundBlocks;
+	private double[] blockScores;
+	private double staticBound;
+	private int windowEnd;
+
+	// number of documents scored by the last search
+	private long scoredCount;
+
+	/**
+	 * Constructs an evaluator over an index
+	 * @param reader the index
+	 * @param scorer the scorer built for the same index
+	 */
+	public BlockMaxWand(IndexReader reader, Bm25Scorer scorer)
+	{
+		this.reader = reader;
+		this.scorer = scorer;
+	}
+
+	/**
+	 * Ranks the documents that contain any term of a query
+	 * @param query the query text, tokenized like the pages
+	 * @param collector receives the documents that may be in the top k
+	 */
+	public void search(String query, TopKCollector collector)
+	{
+		scoredCount = 0;
+		List<String> terms = distinctTerms(query);
+		its = openTerms(terms);
+		int n = its.length;
+		weights = new double[n];
+		maxScores = new double[n];
+		cursors = new CompressedPostingList.Cursor[n];
+		impacts = new float[n][];
+		boundBlocks = new int[n];
+		blockScores = new double[n];
+		int[] order = new int[n];
+		for (int i = 0; i < n; i++)
+		{
+			weights[i] = scorer.termWeight(its[i].cost());
+			maxScores[i] = scorer.maxTermScore(weights[i], 1);
+			if (its[i] instanceof CompressedPostingList.Cursor)
+			{
+				cursors[i] = (CompressedPostingList.Cursor) its[i];
+				impacts[i] = scorer.hasDefaultNorms(cursors[i].impactAverageLength())
+						? recordedImpacts(cursors[i]) : blockImpacts(terms.get(i), its[i].cost());
+				float max = 0;
+				for (float impact : impacts[i])
+				{
+					max = Math.max(max, impact);
+				}
+				maxScores[i] = scorer.maxTermScore(weights[i], max);
+			}
+			boundBlocks[i] = -1;
+			its[i].nextDoc();
+			order[i] = i;
+		}
+		staticBound = scorer.maxStaticScore();
+
+		long postings = 0;
+		int rarest = Integer.MAX_VALUE;
+		for (PostingIterator it : its)
+		{
+			postings += it.cost();
+			rarest = Math.min(rarest, it.cost());
+		}
+		if ((double) rarest * STEP_COST >= reader.getDocCount())
+		{
+			// every term is in a large share of the documents, so the weights are about the same
+			// everywhere and only whole windows of weak blocks are worth skipping
+			scoreWindows(collector);
+			return;
+		}
+		double postingsPerDoc = (double) postings / Math.max(1, reader.getDocCount());
+		int warmUp = reader.getDocCount() / WARM_UP_SHARE;
+		int checkedDoc = -1;
+		long steps = 0;
+		// every document before it was scored or skipped
+		int liveFrom = 0;
+		while (true)
+		{
+			sortByDoc(its, order);
+			double threshold = collector.minCompetitiveScore();
+
+			if (threshold > Double.NEGATIVE_INFINITY && ++steps % CHECK_INTERVAL == 0)
+			{
+				// flat bounds skip little: if the last steps passed fewer postings than scoring them all
+				// would have read in the same time, the rest is scored exhaustively
+				int doc = its[order[0]].docId();
+				if (checkedDoc >= warmUp && (doc - checkedDoc) * postingsPerDoc < STEP_COST * CHECK_INTERVAL)
+				{
+					// no cursor may stay on a decided document, or it would be scored a second time
+					// with only the terms still on it
+					for (PostingIterator it : its)
+					{
+						if (it.docId() < liveFrom)
+						{
+							it.advance(liveFrom);
+						}
+					}
+					scoreWindows(collector);
+					return;
+				}
+				checkedDoc = doc;
+			}
+
+			// the pivot is the first document whose bound beats the threshold; a later document
+			// always loses a tie, so an equal bound is not enough
+			double bound = staticBound;
+			int p = -1;
+			for (int i = 0; i < n && its[order[i]].docId() != PostingIterator.NO_MORE_DOCS; i++)
+			{
+				bound += maxScores[order[i]];
+				if (bound > threshold)
+				{
+					p = i;
+					break;
+				}
+			}
+			if (p < 0)
+			{
+				return;
+			}
+			int pivot = its[order[p]].docId();
+
+			if (windowBound(pivot) <= threshold)
+			{
+				// skip windows of blocks until one may beat the threshold, decoding none of them
+				int target = windowEnd;
+				while (target != PostingIterator.NO_MORE_DOCS && windowBound(target) <= threshold)
+				{
+					target = windowEnd;
+				}
+				for (PostingIterator it : its)
+				{
+					if (it.docId() < target)
+					{
+						it.advance(target);
+					}
+				}
+				liveFrom = target;
+			}
+			else if (its[order[0]].docId() == pivot)
+			{
+				collector.collect(pivot, score(its, weights, pivot));
+				for (int i = 0; i < n && its[order[i]].docId() == pivot; i++)
+				{
+					its[order[i]].nextDoc();
+				}
+				liveFrom = pivot + 1;
+			}
+			else
+			{
+				// no document before the pivot can beat the threshold
+				for (int i = 0; i < p && its[order[i]].docId() < pivot; i++)
+				{
+					its[order[i]].advance(pivot);
+				}
+				liveFrom = pivot;
+			}
+		}
+	}
+
+	// Bounds the score of every document from target to windowEnd (excluded) from the skip tables;
+	// the window ends before the next block boundary or the next document of a term not yet in it
+	private double windowBound(int target)
+	{
+		double bound = staticBound;
+		int end = PostingIterator.NO_MORE_DOCS;
+		for (int t = 0; t < its.length; t++)
+		{
+			int doc = its[t].docId();
+			if (doc > target)
+			{
+				end = Math.min(end, doc);
+			}
+			else if (cursors[t] == null)
+			{
+				bound += maxScores[t];
+			}
+			else
+			{
+				int b = cursors[t].blockOf(target);
+				if (b >= 0)
+				{
+					bound += blockScore(t, b);
+					end = Math.min(end, cursors[t].lastDocOf(b) + 1);
+				}
+			}
+		}
+		windowEnd = end;
+		return bound;
+	}
+
+	// Bounds the score of every document from target to windowEnd (excluded), counting every term;
+	// the window ends before the next block boundary of any term, so it is longer than in windowBound()
+	private double blockWindowBound(int target)
+	{
+		double bound = staticBound;
+		int end = PostingIterator.NO_MORE_DOCS;
+		for (int t = 0; t < its.length; t++)
+		{
+			if (its[t].docId() == PostingIterator.NO_MORE_DOCS)
+			{
+				continue;
+			}
+			if (cursors[t] == null)
+			{
+				bound += maxScores[t];
+				continue;
+			}
+			// the documents of the term from the target on start in this block, which may be the current one
+			int b = cursors[t].blockOf(target);
+			bound += blockScore(t, b);
+			end = Math.min(end, cursors[t].lastDocOf(b) + 1);
+		}
+		windowEnd = end;
+		return bound;
+	}
+
+	// Gets the most term t adds to a document of block b
+	private double blockScore(int t, int b)
+	{
+		if (b != boundBlocks[t])
+		{
+			boundBlocks[t] = b;
+			blockScores[t] = scorer.maxTermScore(weights[t], impacts[t][b]);
+		}
+		return blockScores[t];
+	}
+
+	// Scores every document from the current cursor positions on, except in the windows of blocks
+	// that cannot beat the threshold; a window that may is scored like scoreAll() scores it, so
+	// the only cost over an exhaustive search is one bound per window
+	private void scoreWindows(TopKCollector collector)
+	{
+		while (true)
+		{
+			int doc = PostingIterator.NO_MORE_DOCS;
+			for (PostingIterator it : its)
+			{
+				doc = Math.min(doc, it.docId());
+			}
+			if (doc == PostingIterator.NO_MORE_DOCS)
+			{
+				return;
+			}
+			double threshold = collector.minCompetitiveScore();
+			int end = doc + 1;
+			if (threshold > Double.NEGATIVE_INFINITY)
+			{
+				if (blockWindowBound(doc) <= threshold)
+				{
+					for (PostingIterator it : its)
+					{
+						if (it.docId() < windowEnd)
+						{
+							it.advance(windowEnd);
+						}
+					}
+					continue;
+				}
+				end = windowEnd;
+			}
+			while (doc < end)
+			{
+				collector.collect(doc, score(its, weights, doc));
+				int next = PostingIterator.NO_MORE_DOCS;
+				for (PostingIterator it : its)
+				{
+					if (it.docId() == doc)
+					{
+						it.nextDoc();
+					}
+					next = Math.min(next, it.docId());
+				}
+				doc = next;
+			}
+		}
+	}
+
+	/**
+	 * Ranks the documents that contain any term of a query by scoring every one of them
+	 * It is much slower than search() on common terms and is kept to check it.
+	 * @param query the query text, tokenized like the pages
+	 * @param collector receives every matching document
+	 */
+	public void searchExhaustive(String query, TopKCollector collector)
+	{
+		scoredCount = 0;
+		PostingIterator[] its = openTerms(distinctTerms(query));
+		double[] weights = new double[its.length];
+		for (int i = 0; i < its.length; i++)
+		{
+			weights[i] = scorer.termWeight(its[i].cost());
+			its[i].nextDoc();
+		}
+		scoreAll(its, weights, collector);
+	}
+
+	// Scores every document from the current cursor positions on
+	private void scoreAll(PostingIterator[] its, double[] weights, TopKCollector collector)
+	{
+		while (true)
+		{
+			int doc = PostingIterator.NO_MORE_DOCS;
+			for (PostingIterator it : its)
+			{
+				doc = Math.min(doc, it.docId());
+			}
+			if (doc == PostingIterator.NO_MORE_DOCS)
+			{
+				return;
+			}
+			collector.collect(doc, score(its, weights, doc));
+			for (PostingIterator it : its)
+			{
+				if (it.docId() == doc)
+				{
+					it.nextDoc();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of documents scored by the last search
+	 * @return the number of scored documents
+	 */
+	public long getScoredCount()
+	{
+		return scoredCount;
+	}
+
+	// Gets the highest impact of every block of a list from its skip table
+	private static float[] recordedImpacts(CompressedPostingList.Cursor cursor)
+	{
+		float[] impacts = new float[cursor.blockCount()];
+		for (int b = 0; b < impacts.length; b++)
+		{
+			impacts[b] = cursor.impactOf(b);
+		}
+		return impacts;
+	}
+
+	// Gets the highest impact of every block of a term's list, decoding the list if it changed
+	private float[] blockImpacts(String term, int docFreq)
+	{
+		float[] impacts = blockImpacts.get(term);
+		if (impacts != null && impactDocFreqs.get(term) == docFreq)
+		{
+			return impacts;
+		}
+		impacts = new float[(docFreq + CompressedPostingList.BLOCK_SIZE - 1) / CompressedPostingList.BLOCK_SIZE];
+		PostingIterator it = reader.postings(term);
+		for (int i = 0, d = it.nextDoc(); d != PostingIterator.NO_MORE_DOCS; i++, d = it.nextDoc())
+		{
+			// round up so the float is never below the exact impact
+			float impact = Math.nextUp((float) scorer.termImpact(it.freq(), d));
+			int b = i / CompressedPostingList.BLOCK_SIZE;
+			impacts[b] = Math.max(impacts[b], impact);
+		}
+		blockImpacts.put(term, impacts);
+		impactDocFreqs.put(term, docFreq);
+		return impacts;
+	}
+
+	// Gets the distinct terms of a query, in query order
+	private static List<String> distinctTerms(String query)
+	{
+		Set<String> terms = new LinkedHashSet<>(Tokenizer.tokenize(query));
+		return new ArrayList<>(terms);
+	}
+
+	private PostingIterator[] openTerms(List<String> terms)
+	{
+		PostingIterator[] its = new PostingIterator[terms.size()];
+		for (int i = 0; i < its.length; i++)
+		{
+			its[i] = reader.postings(terms.get(i));
+		}
+		return its;
+	}
+
+	// Sums the terms on the document in query order, so both searches round the same way
+	private double score(PostingIterator[] its, double[] weights, int doc)
+	{
+		scoredCount++;
+		double score = 0;
+		for (int i = 0; i < its.length; i++)
+		{
+			if (its[i].docId() == doc)
+			{
+				score += scorer.termScore(weights[i], its[i].freq(), doc);
+			}
+		}
+		return score + scorer.staticScore(doc);
+	}
+
+	// Insertion sort by current document; the order barely changes between steps
+	private static void sortByDoc(PostingIterator[] its, int[] order)
+	{
+		for (int i = 1; i < order.length; i++)
+		{
+			int t = order[i];
+			int doc = its[t].docId();
+			int j = i - 1;
+			while (j >= 0 && its[order[j]].docId() > doc)
+			{
+				order[j + 1] = order[j];
+				j--;
+			}
+			order[j + 1] = t;
+		}
+	}
+
+	// Compares block-max WAND with scoring every match of OR queries: java BlockMaxWand [docs] [k]
+	public static void main(String[] args)
+	{
+		int docs = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+		int k = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		Random random = new Random(11);
+		InvertedIndex index = new InvertedIndex();
+		StringBuilder page = new StringBuilder();
+		double[] ranks = new double[docs];
+		for (int d = 0; d < docs; d++)
+		{
+			page.setLength(0);
+			int length = 20 + random.nextInt(200);
+			for (int w = 0; w < length; w++)
+			{
+				// term i occurs in about 1 / (i + 1) of the positions, so "t0" and "t1" are in most documents
+				page.append('t').append((int) Math.min(9999, Math.exp(random.nextDouble() * Math.log(10_000)) - 1)).append(' ');
+			}
+			index.addDocument("https://site" + d + ".com/", page.toString());
+			ranks[d] = random.nextDouble();
+		}
+		index.compact();
+
+		Bm25Scorer scorer = new Bm25Scorer(index);
+		BlockMaxWand wand = new BlockMaxWand(index, scorer);
+		TopKCollector exhaustive = new TopKCollector(k);
+		TopKCollector pruned = new TopKCollector(k);
+		// without link rank the term bounds decide alone; with it every document gets up to 2 more
+		for (double linkWeight : new double[] { 0, 2 })
+		{
+			scorer.setLinkRanks(ranks, linkWeight);
+			System.out.println("link rank weight " + linkWeight + ":");
+			for (String query : new String[] { "t0 t1", "t0 t1 t2", "t3 t40 t500", "t0 t7 t80 t900", "t9000 t9001 t2", "t12 t15 t20", "t30 t40" })
+			{
+				double exhaustiveMillis = Double.MAX_VALUE;
+				double prunedMillis = Double.MAX_VALUE;
+				long all = 0, scored = 0;
+				for (int round = 0; round < 10; round++)
+				{
+					exhaustive.clear();
+					long start = System.nanoTime();
+					wand.searchExhaustive(query, exhaustive);
+					exhaustiveMillis = Math.min(exhaustiveMillis, (System.nanoTime() - start) / 1e6);
+					all = wand.getScoredCount();
+
+					// a new evaluator per query, as SearchEngine makes one; the block bounds come from the skip tables
+					BlockMaxWand fresh = new BlockMaxWand(index, scorer);
+					pruned.clear();
+					start = System.nanoTime();
+					fresh.search(query, pruned);
+					prunedMillis = Math.min(prunedMillis, (System.nanoTime() - start) / 1e6);
+					scored = fresh.getScoredCount();
+				}
+				boolean same = Arrays.equals(exhaustive.topDocs(), pruned.topDocs())
+						&& Arrays.equals(exhaustive.topScores(), pruned.topScores());
+				System.out.printf("  \"%s\": exhaustive %d docs in %.1f ms, block-max WAND %d docs in %.2f ms (%.1fx), %s%n",
+						query, all, exhaustiveMillis, scored, prunedMillis, exhaustiveMillis / prunedMillis,
+						same ? "same top " + k : "DIFFERENT RESULTS");
+			}
+		}
+	}
+}
@@ -0,0 +1,381 @@
+package searchengine.index;
+
+import java.util.Random;
+
+/**
+ * Scores matches with BM25 and adds a static score for link rank, age and ads
+ * The BM25 part of a document is the sum, over the query terms, of
+ *   idf * tf * (k1 + 1) / (tf + k1 * (1 - b + b * length / averageLength))
+ * where idf = ln(1 + (N - df + 0.5) / (df + 0.5)). The length part of the denominator depends
+ * only on the document, so it is computed once for every document when the scorer is built,
+ * and the idf of every query term is computed once per query. The static part is a weighted
+ * sum of the link rank, scaled to 0..1 by the highest rank, and of the age and ad scores,
+ * scaled from 1..100 to 0..1, and is also kept in one array. Scoring a document then reads two
+ * array slots and the term frequencies, and allocates nothing.
+ *
+ * A scorer is built for one index and is not thread-safe; it may be reused for many queries.
+ *
+ */
+public class Bm25Scorer implements Scorer
+{
+	public static final double DEFAULT_K1 = 1.2;
+	public static final double DEFAULT_B = 0.75;
+
+	private final int docCount;
+	private final int[] docLengths;
+	private final double averageDocLength;
+
+	private double k1 = DEFAULT_K1;
+	private double b = DEFAULT_B;
+
+	// k1 * (1 - b + b * length / averageLength) of every document
+	private final float[] lengthNorms;
+	private double minLengthNorm;
+
+	// the static score of every document, or null if no weight is set
+	private double[] staticScores;
+	private double maxStaticScore;
+
+	private double[] linkRanks;
+	private double linkWeight;
+	private int[] ages;
+	private double ageWeight;
+	private int[] ads;
+	private double adWeight;
+
+	// the query the idf values below belong to
+	private PostingIterator[] queryIterators;
+	private double[] idf = new double[8];
+
+	/**
+	 * Constructs a scorer over the documents of an index
+	 * @param reader the index
+	 */
+	public Bm25Scorer(IndexReader reader)
+	{
+		this.docCount = reader.getDocCount();
+		this.docLengths = new int[docCount];
+		for (int d = 0; d < docCount; d++)
+		{
+			docLengths[d] = reader.getDocLength(d);
+		}
+		this.averageDocLength = reader.getAverageDocLength();
+		this.lengthNorms = new float[docCount];
+		computeLengthNorms();
+	}
+
+	/**
+	 * Sets the BM25 parameters
+	 * @param k1 how quickly repeated terms stop adding to the score, e.g. 1.2
+	 * @param b how much long documents are penalized, from 0 to 1
+	 */
+	public void setParameters(double k1, double b)
+	{
+		if (k1 < 0 || b < 0 || b > 1)
+		{
+			throw new IllegalArgumentException("ERROR: k1 must not be negative and b must be between 0 and 1.");
+		}
+		this.k1 = k1;
+		this.b = b;
+		computeLengthNorms();
+		queryIterators = null;
+	}
+
+	/**
+	 * Blends the link rank of every document into its score
+	 * @param ranks the link rank of every document, by document ID
+	 * @param weight the score added to the best linked document
+	 */
+	public void setLinkRanks(double[] ranks, double weight)
+	{
+		this.linkRanks = checkLength(ranks);
+		this.linkWeight = weight;
+		computeStaticScores();
+	}
+
+	/**
+	 * Blends the age score of every document into its score
+	 * @param ages the age score (1 to 100) of every document, by document ID
+	 * @param weight the score added to a document with an age score of 100
+	 */
+	public void setAgeBoost(int[] ages, double weight)
+	{
+		this.ages = checkLength(ages);
+		this.ageWeight = weight;
+		computeStaticScores();
+	}
+
+	/**
+	 * Blends the ad score of every document into its score
+	 * @param ads the money score (1 to 100) of every document, by document ID
+	 * @param weight the score added to a document with a money score of 100
+	 */
+	public void setAdBoost(int[] ads, double weight)
+	{
+		this.ads = checkLength(ads);
+		this.adWeight = weight;
+		computeStaticScores();
+	}
+
+	public double score(int docId, PostingIterator[] its)
+	{
+		if (its != queryIterators)
+		{
+			prepare(its);
+		}
+		double norm = lengthNorms[docId];
+		double score = 0;
+		for (int i = 0; i < its.length; i++)
+		{
+			int tf = its[i].freq();
+			score += idf[i] * tf / (tf + norm);
+		}
+		return staticScores == null ? score : score + staticScores[docId];
+	}
+
+	/**
+	 * Gets the static part of the score of a document
+	 * @param docId the document ID
+	 * @return the weighted link rank, age and ad scores of the document
+	 */
+	public double staticScore(int docId)
+	{
+		return staticScores == null ? 0 : staticScores[docId];
+	}
+
+	/**
+	 * Gets the largest static score of any document
+	 * @return the largest static score, 0 if no weight is set
+	 */
+	public double maxStaticScore()
+	{
+		return maxStaticScore;
+	}
+
+	/**
+	 * Gets the weight of a query term: its idf with the (k1 + 1) factor folded in
+	 * @param docFreq the number of documents containing the term
+	 * @return the weight to pass to termScore()
+	 */
+	public double termWeight(int docFreq)
+	{
+		return idf(docFreq) * (k1 + 1);
+	}
+
+	/**
+	 * Scores one query term in one document, computed exactly as score() does
+	 * @param weight the weight of the term, from termWeight()
+	 * @param tf the frequency of the term in the document
+	 * @param docId the document ID
+	 * @return the BM25 part the term adds to the score of the document
+	 */
+	public double termScore(double weight, int tf, int docId)
+	{
+		double norm = lengthNorms[docId];
+		return weight * tf / (tf + norm);
+	}
+
+	/**
+	 * Gets the part of termScore() that depends on the document, tf / (tf + norm)
+	 * @param tf the frequency of the term in the document
+	 * @param docId the document ID
+	 * @return the impact of the term on the document, below 1
+	 */
+	public double termImpact(int tf, int docId)
+	{
+		double norm = lengthNorms[docId];
+		return tf / (tf + norm);
+	}
+
+	/**
+	 * Tells whether the scorer uses the length norms of defaultLengthNorms()
+	 * @param averageLength the average document length the norms were computed with
+	 * @return true if k1 and b are the defaults and the index has this average length
+	 */
+	public boolean hasDefaultNorms(double averageLength)
+	{
+		return k1 == DEFAULT_K1 && b == DEFAULT_B && averageDocLength == averageLength;
+	}
+
+	/**
+	 * Computes the length norm of every document with the default k1 and b
+	 * They equal the norms of a scorer built for the same documents, e.g. to bound its scores
+	 * from an index that is compacted before any scorer exists.
+	 * @param docLengths the number of terms of every document
+	 * @param docCount the number of documents
+	 * @param averageLength the average document length
+	 * @return k1 * (1 - b + b * length / averageLength) of every document
+	 */
+	public static float[] defaultLengthNorms(int[] docLengths, int docCount, double averageLength)
+	{
+		float[] norms = new float[docCount];
+		computeLengthNorms(DEFAULT_K1, DEFAULT_B, docLengths, averageLength, norms);
+		return norms;
+	}
+
+	/**
+	 * Gets the highest impact a term can have on any document, taken for the shortest document
+	 * @param maxFreq the highest frequency of the term
+	 * @return an upper bound of termImpact()
+	 */
+	public double maxTermImpact(int maxFreq)
+	{
+		return maxFreq / (maxFreq + minLengthNorm);
+	}
+
+	/**
+	 * Gets the most a query term can add to the score of a document
+	 * The bound is rounded up a little, so it is never below a value returned by termScore().
+	 * @param weight the weight of the term, from termWeight()
+	 * @param maxImpact an upper bound of termImpact() for the document
+	 * @return an upper bound of termScore()
+	 */
+	public double maxTermScore(double weight, double maxImpact)
+	{
+		return weight * maxImpact * (1 + 1e-9);
+	}
+
+	/**
+	 * Computes the inverse document frequency of a term
+	 * @param docFreq the number of documents containing the term
+	 * @return the idf, always positive
+	 */
+	public double idf(int docFreq)
+	{
+		return Math.log(1 + (docCount - docFreq + 0.5) / (docFreq + 0.5));
+	}
+
+	// Computes the idf of every query term, with the (k1 + 1) factor folded in
+	private void prepare(PostingIterator[] its)
+	{
+		if (idf.length < its.length)
+		{
+			idf = new double[its.length];
+		}
+		for (int i = 0; i < its.length; i++)
+		{
+			idf[i] = termWeight(its[i].cost());
+		}
+		queryIterators = its;
+	}
+
+	private void computeLengthNorms()
+	{
+		computeLengthNorms(k1, b, docLengths, averageDocLength, lengthNorms);
+		minLengthNorm = Double.MAX_VALUE;
+		for (float norm : lengthNorms)
+		{
+			minLengthNorm = Math.min(minLengthNorm, norm);
+		}
+	}
+
+	private static void computeLengthNorms(double k1, double b, int[] docLengths, double averageLength, float[] norms)
+	{
+		double average = averageLength > 0 ? averageLength : 1;
+		for (int d = 0; d < norms.length; d++)
+		{
+			norms[d] = (float) (k1 * (1 - b + b * docLengths[d] / average));
+		}
+	}
+
+	private void computeStaticScores()
+	{
+		double maxRank = 0;
+		if (linkRanks != null)
+		{
+			for (double r : linkRanks)
+			{
+				maxRank = Math.max(maxRank, r);
+			}
+		}
+		double[] scores = new double[docCount];
+		boolean any = false;
+		maxStaticScore = 0;
+		for (int d = 0; d < docCount; d++)
+		{
+			double s = 0;
+			if (linkRanks != null && maxRank > 0)
+			{
+				s += linkWeight * linkRanks[d] / maxRank;
+			}
+			if (ages != null)
+			{
+				s += ageWeight * ages[d] / 100.0;
+			}
+			if (ads != null)
+			{
+				s += adWeight * ads[d] / 100.0;
+			}
+			scores[d] = s;
+			any |= s != 0;
+			maxStaticScore = Math.max(maxStaticScore, s);
+		}
+		staticScores = any ? scores : null;
+	}
+
+	private double[] checkLength(double[] values)
+	{
+		if (values.length < docCount)
+		{
+			throw new IllegalArgumentException("ERROR: Expected a value for each of the " + docCount + " documents.");
+		}
+		return values;
+	}
+
+	private int[] checkLength(int[] values)
+	{
+		if (values.length < docCount)
+		{
+			throw new IllegalArgumentException("ERROR: Expected a value for each of the " + docCount + " documents.");
+		}
+		return values;
+	}
+
+	// Times BM25 ranking of queries with hundreds of thousands of candidates: java Bm25Scorer [docs]
+	public static void main(String[] args)
+	{
+		int docs = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+		Random random = new Random(11);
+		InvertedIndex index = new InvertedIndex();
+		StringBuilder page = new StringBuilder();
+		double[] ranks = new double[docs];
+		int[] ages = new int[docs];
+		int[] ads = new int[docs];
+		for (int d = 0; d < docs; d++)
+		{
+			page.setLength(0);
+			int length = 20 + random.nextInt(200);
+			for (int w = 0; w < length; w++)
+			{
+				// term i occurs in about 1 / (i + 1) of the positions, so "t0" and "t1" are in most documents
+				page.append('t').append((int) Math.min(9999, Math.exp(random.nextDouble() * Math.log(10_000)) - 1)).append(' ');
+			}
+			index.addDocument("https://site" + d + ".com/", page.toString());
+			ranks[d] = random.nextDouble();
+			ages[d] = 1 + random.nextInt(100);
+			ads[d] = 1 + random.nextInt(100);
+		}
+		index.compact();
+
+		Bm25Scorer scorer = new Bm25Scorer(index);
+		scorer.setLinkRanks(ranks, 2);
+		scorer.setAgeBoost(ages, 0.5);
+		scorer.setAdBoost(ads, 0.25);
+		for (String query : new String[] { "t0", "t0 t1", "t0 t1 t2", "t5 t9" })
+		{
+			double best = Double.MAX_VALUE;
+			int candidates = 0;
+			TopKCollector top = new TopKCollector(20);
+			for (int round = 0; round < 10; round++)
+			{
+				top.clear();
+				long start = System.nanoTime();
+				index.search(query, scorer, top);
+				best = Math.min(best, (System.nanoTime() - start) / 1e6);
+			}
+			candidates = index.search(query).length;
+			System.out.printf("\"%s\": %d candidates scored in %.1f ms, best score %.3f%n",
+					query, candidates, best, top.topScores()[0]);
+		}
+	}
+}
@@ -0,0 +1,514 @@
+package searchengine.index;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * An immutable, compressed posting list
+ * Document IDs are split into blocks of BLOCK_SIZE. Inside a block they are delta-encoded and
+ * written as variable-byte integers, each followed by its term frequency. A skip table records
+ * the last document ID, byte offset and highest term frequency of every block, so advance()
+ * jumps over whole blocks without decoding them.
+ *
+ * A list compressed with the length norms of its index also records the highest BM25 impact,
+ * tf / (tf + norm), of every block, for block-max WAND to bound scores without decoding the
+ * list. The norms depend on the average document length, so the header records the one they
+ * were computed with; a list compressed without norms records NaN and impacts of 0.
+ *
+ * The encoded layout, little-endian:
+ *   int docCount, int blockCount, double impactAverageLength,
+ *   blockCount x (int lastDocId, int blockOffset, int maxFreq, float maxImpact),
+ *   block bytes (offsets are relative to the start of the block bytes)
+ *
+ */
+public class CompressedPostingList
+{
+	// number of postings per block
+	public static final int BLOCK_SIZE = 128;
+
+	// bytes of the header and of one skip entry
+	static final int HEADER_BYTES = 16;
+	static final int SKIP_ENTRY_BYTES = 16;
+
+	private final byte[] data;
+
+	private CompressedPostingList(byte[] data)
+	{
+		this.data = data;
+	}
+
+	/**
+	 * Compresses a posting list without block impacts
+	 * @param list the postings to compress
+	 * @return the compressed list
+	 */
+	public static CompressedPostingList of(PostingList list)
+	{
+		return of(list, null, Double.NaN);
+	}
+
+	/**
+	 * Compresses a posting list and records the highest impact of every block
+	 * @param list the postings to compress
+	 * @param lengthNorms the BM25 length norm of every document, see Bm25Scorer.defaultLengthNorms()
+	 * @param averageLength the average document length the norms were computed with
+	 * @return the compressed list
+	 */
+	public static CompressedPostingList of(PostingList list, float[] lengthNorms, double averageLength)
+	{
+		int n = list.size();
+		int blocks = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		int skipBytes = HEADER_BYTES + blocks * SKIP_ENTRY_BYTES;
+
+		// worst case: 5 bytes for each document gap and each frequency
+		byte[] out = new byte[skipBytes + n * 10];
+		ByteBuffer skip = ByteBuffer.wrap(out).order(ByteOrder.LITTLE_ENDIAN);
+		skip.putInt(n).putInt(blocks).putDouble(lengthNorms == null ? Double.NaN : averageLength);
+
+		int pos = skipBytes;
+		int prev = -1;
+		for (int b = 0; b < blocks; b++)
+		{
+			int start = b * BLOCK_SIZE;
+			int end = Math.min(n, start + BLOCK_SIZE);
+			int blockOffset = pos - skipBytes;
+			int maxFreq = 0;
+			float maxImpact = 0;
+			for (int i = start; i < end; i++)
+			{
+				int doc = list.docIdAt(i);
+				int freq = list.freqAt(i);
+				// the first gap of a block is taken from the last document of the previous block
+				pos = writeVInt(out, pos, doc - prev - 1);
+				pos = writeVInt(out, pos, freq);
+				prev = doc;
+				maxFreq = Math.max(maxFreq, freq);
+				if (lengthNorms != null)
+				{
+					// as Bm25Scorer.termImpact() computes it, rounded up so the float is never below it
+					maxImpact = Math.max(maxImpact, Math.nextUp((float) (freq / (freq + (double) lengthNorms[doc]))));
+				}
+			}
+			skip.putInt(prev).putInt(blockOffset).putInt(maxFreq).putFloat(maxImpact);
+		}
+		return new CompressedPostingList(Arrays.copyOf(out, pos));
+	}
+
+	/**
+	 * Wraps bytes produced by getBytes()
+	 * @param data the encoded list
+	 * @return the compressed list
+	 */
+	public static CompressedPostingList wrap(byte[] data)
+	{
+		return new CompressedPostingList(data);
+	}
+
+	/**
+	 * Gets the encoded bytes, e.g. to write them to an index segment
+	 * @return the encoded list; must not be modified
+	 */
+	public byte[] getBytes()
+	{
+		return data;
+	}
+
+	/**
+	 * Gets the number of documents in the list
+	 * @return the document frequency of the term
+	 */
+	public int size()
+	{
+		return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).getInt(0);
+	}
+
+	/**
+	 * Gets the number of bytes used by the list
+	 * @return the encoded size in bytes
+	 */
+	public int sizeInBytes()
+	{
+		return data.length;
+	}
+
+	/**
+	 * Creates a cursor over the list
+	 * @return a new iterator positioned before the first document
+	 */
+	public Cursor iterator()
+	{
+		return new Cursor(ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN));
+	}
+
+	/**
+	 * Creates a cursor over a list encoded in any buffer, e.g. a memory-mapped index segment
+	 * @param encoded a little-endian buffer whose position 0 is the start of the list
+	 * @return a new iterator positioned before the first document
+	 */
+	public static Cursor iterator(ByteBuffer encoded)
+	{
+		return new Cursor(encoded);
+	}
+
+	/**
+	 * Decompresses the list, e.g. to append more postings to it
+	 * @return a growable copy of the postings
+	 */
+	public PostingList inflate()
+	{
+		PostingList list = new PostingList();
+		Cursor c = iterator();
+		for (int d = c.nextDoc(); d != PostingIterator.NO_MORE_DOCS; d = c.nextDoc())
+		{
+			list.add(d, c.freq());
+		}
+		return list;
+	}
+
+	private static int writeVInt(byte[] out, int pos, int value)
+	{
+		while ((value & ~0x7F) != 0)
+		{
+			out[pos++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out[pos++] = (byte) value;
+		return pos;
+	}
+
+	/**
+	 * A cursor that decodes one block at a time into reusable int arrays
+	 * Apart from the two block buffers created with it, the cursor never allocates.
+	 */
+	public static final class Cursor implements PostingIterator
+	{
+		private final ByteBuffer buf;
+		private final int docCount;
+		private final int blockCount;
+		private final int blocksStart;
+
+		private final int[] docs = new int[BLOCK_SIZE];
+		private final int[] freqs = new int[BLOCK_SIZE];
+
+		// index of the decoded block, its length and the position inside it
+		private int block = -1;
+		private int blockLength;
+		private int pos;
+		private int doc = -1;
+
+		// the block found by the last call to blockOf(), and the last document of the block before it
+		private int shallowBlock;
+		private int shallowPrevLast = -1;
+
+		Cursor(ByteBuffer buf)
+		{
+			this.buf = buf;
+			this.docCount = buf.getInt(0);
+			this.blockCount = buf.getInt(4);
+			this.blocksStart = HEADER_BYTES + blockCount * SKIP_ENTRY_BYTES;
+		}
+
+		public int docId()
+		{
+			return doc;
+		}
+
+		public int nextDoc()
+		{
+			if (doc == NO_MORE_DOCS)
+			{
+				return doc;
+			}
+			if (++pos >= blockLength)
+			{
+				if (block + 1 >= blockCount)
+				{
+					return doc = NO_MORE_DOCS;
+				}
+				decodeBlock(block + 1);
+				pos = 0;
+			}
+			return doc = docs[pos];
+		}
+
+		public int advance(int target)
+		{
+			if (doc == NO_MORE_DOCS)
+			{
+				return doc;
+			}
+			// skip whole blocks whose last document is still before the target
+			int b = Math.max(block, 0);
+			if (block < 0 || lastDocOf(b) < target)
+			{
+				b = findBlock(b, target);
+				if (b == blockCount)
+				{
+					return doc = NO_MORE_DOCS;
+				}
+				if (b != block)
+				{
+					decodeBlock(b);
+					pos = -1;
+				}
+			}
+			// the target is inside the current block
+			while (++pos < blockLength)
+			{
+				if (docs[pos] >= target)
+				{
+					return doc = docs[pos];
+				}
+			}
+			return doc = NO_MORE_DOCS;
+		}
+
+		public int freq()
+		{
+			return freqs[pos];
+		}
+
+		public int cost()
+		{
+			return docCount;
+		}
+
+		public int ordinal()
+		{
+			return block * BLOCK_SIZE + pos;
+		}
+
+		/**
+		 * Gets the highest term frequency of the block holding the current document
+		 * @return the block's maximum term frequency
+		 */
+		public int blockMaxFreq()
+		{
+			return maxFreqOf(Math.max(block, 0));
+		}
+
+		/**
+		 * Gets the last document ID of the block holding the current document
+		 * @return the last document ID of the current block
+		 */
+		public int blockLastDoc()
+		{
+			return lastDocOf(Math.max(block, 0));
+		}
+
+		/**
+		 * Finds the block that would hold a document, without decoding it or moving the cursor
+		 * Block-max query evaluation uses it to bound the score of documents it has not reached.
+		 * @param target a document ID at or after the current document
+		 * @return the index of the first block whose last document is at or after the target, or -1 if there is none
+		 */
+		public int blockOf(int target)
+		{
+			int b = Math.max(block, 0);
+			if (shallowBlock > b && shallowPrevLast < target)
+			{
+				b = shallowBlock;
+			}
+			b = findBlock(b, target);
+			if (b == blockCount)
+			{
+				return -1;
+			}
+			if (b != shallowBlock)
+			{
+				shallowBlock = b;
+				shallowPrevLast = b == 0 ? -1 : lastDocOf(b - 1);
+			}
+			return b;
+		}
+
+		// Finds the first block from a start block whose last document is at or after the target,
+		// or blockCount: gallops ahead in the skip table, then binary-searches the last stride
+		private int findBlock(int from, int target)
+		{
+			int lo = from;
+			int step = 1;
+			int hi = from;
+			while (hi < blockCount && lastDocOf(hi) < target)
+			{
+				lo = hi + 1;
+				hi = from + step;
+				step <<= 1;
+			}
+			hi = Math.min(hi, blockCount);
+			while (lo < hi)
+			{
+				int mid = (lo + hi) >>> 1;
+				if (lastDocOf(mid) < target)
+				{
+					lo = mid + 1;
+				}
+				else
+				{
+					hi = mid;
+				}
+			}
+			return lo;
+		}
+
+		/**
+		 * Gets the highest term frequency of a block
+		 * @param b the block index, e.g. from blockOf()
+		 * @return the block's maximum term frequency
+		 */
+		public int maxFreqOf(int b)
+		{
+			return buf.getInt(HEADER_BYTES + b * SKIP_ENTRY_BYTES + 8);
+		}
+
+		/**
+		 * Gets the highest impact of a block, recorded when the list was compressed
+		 * @param b the block index, e.g. from blockOf()
+		 * @return the block's maximum tf / (tf + norm), or 0 if the list was compressed without norms
+		 */
+		public float impactOf(int b)
+		{
+			return buf.getFloat(HEADER_BYTES + b * SKIP_ENTRY_BYTES + 12);
+		}
+
+		/**
+		 * Gets the average document length the block impacts were computed with
+		 * @return the average length, or NaN if the list was compressed without norms
+		 */
+		public double impactAverageLength()
+		{
+			return buf.getDouble(8);
+		}
+
+		/**
+		 * Gets the number of blocks of the list
+		 * @return the number of skip table entries
+		 */
+		public int blockCount()
+		{
+			return blockCount;
+		}
+
+		/**
+		 * Gets the last document ID of a block
+		 * @param b the block index, e.g. from blockOf()
+		 * @return the last document ID of the block
+		 */
+		public int lastDocOf(int b)
+		{
+			return buf.getInt(HEADER_BYTES + b * SKIP_ENTRY_BYTES);
+		}
+
+		private void decodeBlock(int b)
+		{
+			int p = blocksStart + buf.getInt(HEADER_BYTES + b * SKIP_ENTRY_BYTES + 4);
+			// the gaps start from the last document of the previous block, already decoded when reading on
+			int prev = b == 0 ? -1 : b == block + 1 ? docs[blockLength - 1] : lastDocOf(b - 1);
+			int length = Math.min(BLOCK_SIZE, docCount - b * BLOCK_SIZE);
+			for (int i = 0; i < length; i++)
+			{
+				// inline variable-byte decoding of the gap and the frequency
+				int v = 0, shift = 0, x;
+				do
+				{
+					x = buf.get(p++);
+					v |= (x & 0x7F) << shift;
+					shift += 7;
+				}
+				while ((x & 0x80) != 0);
+				prev += v + 1;
+				docs[i] = prev;
+
+				v = 0;
+				shift = 0;
+				do
+				{
+					x = buf.get(p++);
+					v |= (x & 0x7F) << shift;
+					shift += 7;
+				}
+				while ((x & 0x80) != 0);
+				freqs[i] = v;
+			}
+			block = b;
+			blockLength = length;
+		}
+	}
+
+	// Prints the memory used per posting by boxed lists, plain int arrays and this format
+	public static void main(String[] args)
+	{
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		java.util.Random random = new java.util.Random(42);
+		PostingList list = new PostingList();
+		int doc = -1;
+		for (int i = 0; i < n; i++)
+		{
+			doc += 1 + random.nextInt(16);
+			list.add(doc, 1 + (random.nextInt(8) == 0 ? random.nextInt(20) : 0));
+		}
+		CompressedPostingList compressed = of(list);
+
+		// an ArrayList<Integer> holds a 4-byte reference and a 16-byte Integer per value
+		double boxed = 2 * (4 + 16);
+		double plain = 2 * 4;
+		double packed = (double) compressed.sizeInBytes() / n;
+		System.out.printf("boxed lists: %.2f bytes/posting%n", boxed);
+		System.out.printf("int arrays:  %.2f bytes/posting%n", plain);
+		System.out.printf("compressed:  %.2f bytes/posting (%.1fx smaller than boxed)%n", packed, boxed / packed);
+
+		// intersect the compressed list with its uncompressed copy to time nextDoc() and advance()
+		long start = System.nanoTime();
+		long hits = 0;
+		for (int round = 0; round < 10; round++)
+		{
+			PostingIterator[] its = { compressed.iterator(), list.iterator() };
+			for (int d = IndexReader.intersectNext(its, 0); d != PostingIterator.NO_MORE_DOCS; d = IndexReader.intersectNext(its, d + 1))
+			{
+				hits++;
+			}
+		}
+		System.out.printf("intersection: %.1f ns/posting (%d hits)%n", (System.nanoTime() - start) / 10.0 / n, hits / 10);
+
+		// a rare term leads the intersection, so every advance() jumps over hundreds of blocks
+		PostingList rare = new PostingList();
+		for (int i = 0; i < n; i += 50_000)
+		{
+			rare.add(list.docIdAt(i) + 1, 1);
+		}
+		for (int round = 0; round < 5; round++)
+		{
+			start = System.nanoTime();
+			long steps = 0;
+			for (int r = 0; r < 1000; r++)
+			{
+				PostingIterator[] its = { rare.iterator(), compressed.iterator() };
+				for (int d = IndexReader.intersectNext(its, 0); d != PostingIterator.NO_MORE_DOCS; d = IndexReader.intersectNext(its, d + 1))
+				{
+					hits++;
+				}
+				steps += rare.size();
+			}
+			System.out.printf("long jumps: %.0f ns per advance over %d blocks%n", (System.nanoTime() - start) / (double) steps,
+					(n / BLOCK_SIZE) / rare.size());
+		}
+
+		// the same jumps through the skip table alone, as block-max WAND makes them, without decoding a block
+		for (int round = 0; round < 5; round++)
+		{
+			start = System.nanoTime();
+			long found = 0;
+			for (int r = 0; r < 1000; r++)
+			{
+				Cursor cursor = compressed.iterator();
+				for (int i = 0; i < rare.size(); i++)
+				{
+					found += cursor.blockOf(rare.docIdAt(i));
+				}
+			}
+			System.out.printf("skip search: %.0f ns per blockOf over %d blocks (%d)%n",
+					(System.nanoTime() - start) / (1000.0 * rare.size()), (n / BLOCK_SIZE) / rare.size(), found / 1000);
+		}
+	}
+}
@@ -0,0 +1,197 @@
+package searchengine.index;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Read access to an index, whether it is being built in memory or was opened from disk
+ *
+ */
+public interface IndexReader
+{
+	/**
+	 * Gets a cursor over the posting list of a term
+	 * @param term a lowercase term
+	 * @return an iterator over the documents containing the term, empty if there are none
+	 */
+	PostingIterator postings(String term);
+
+	/**
+	 * Gets a reader over the positions of a term
+	 * @param term a lowercase term
+	 * @return a reader of the term's positions in every document of its posting list
+	 */
+	PositionList.Reader positions(String term);
+
+	/**
+	 * Gets the number of documents containing a term
+	 * @param term a lowercase term
+	 * @return the document frequency of the term
+	 */
+	int docFreq(String term);
+
+	/**
+	 * Gets every term in the index
+	 * @return the terms in sorted order
+	 */
+	List<String> terms();
+
+	/**
+	 * Gets the URL of a document
+	 * @param docId the document ID
+	 * @return the URL of the document
+	 */
+	String getUrl(int docId);
+
+	/**
+	 * Gets the number of terms in a document
+	 * @param docId the document ID
+	 * @return the length of the document
+	 */
+	int getDocLength(int docId);
+
+	/**
+	 * Gets the number of indexed documents
+	 * @return the number of documents
+	 */
+	int getDocCount();
+
+	/**
+	 * Gets the average number of terms per document
+	 * @return the average document length
+	 */
+	double getAverageDocLength();
+
+	/**
+	 * Finds the documents that contain every term of a query
+	 * @param query the query text, tokenized like the pages
+	 * @return the matching document IDs in increasing order
+	 */
+	default int[] search(String query)
+	{
+		PostingIterator[] its = queryIterators(query);
+		if (its.length == 0)
+		{
+			return new int[0];
+		}
+		int[] result = new int[16];
+		int count = 0;
+		for (int doc = intersectNext(its, 0); doc != PostingIterator.NO_MORE_DOCS; doc = intersectNext(its, doc + 1))
+		{
+			if (count == result.length)
+			{
+				result = Arrays.copyOf(result, count * 2);
+			}
+			result[count++] = doc;
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	/**
+	 * Ranks the documents that contain every term of a query
+	 * Each match is scored as soon as it is found and offered to the collector, so only the
+	 * collector's top k are ever held in memory.
+	 * @param query the query text, tokenized like the pages
+	 * @param scorer scores each matching document
+	 * @param collector receives the scored matches
+	 */
+	default void search(String query, Scorer scorer, TopKCollector collector)
+	{
+		PostingIterator[] its = queryIterators(query);
+		if (its.length == 0)
+		{
+			return;
+		}
+		for (int doc = intersectNext(its, 0); doc != PostingIterator.NO_MORE_DOCS; doc = intersectNext(its, doc + 1))
+		{
+			collector.collect(doc, scorer.score(doc, its));
+		}
+	}
+
+	/**
+	 * Finds the documents that contain the terms of a query next to each other, in query order
+	 * @param phrase the phrase, tokenized like the pages
+	 * @return the matching document IDs in increasing order
+	 */
+	default int[] searchPhrase(String phrase)
+	{
+		return PhraseMatcher.phrase(this, phrase).matchAll();
+	}
+
+	/**
+	 * Ranks the documents that contain the terms of a query next to each other, in query order
+	 * @param phrase the phrase, tokenized like the pages
+	 * @param scorer scores each matching document
+	 * @param collector receives the scored matches
+	 */
+	default void searchPhrase(String phrase, Scorer scorer, TopKCollector collector)
+	{
+		PhraseMatcher matcher = PhraseMatcher.phrase(this, phrase);
+		for (int doc = matcher.nextDoc(); doc != PostingIterator.NO_MORE_DOCS; doc = matcher.nextDoc())
+		{
+			collector.collect(doc, scorer.score(doc, matcher.iterators()));
+		}
+	}
+
+	/**
+	 * Finds the documents that contain every term of a query close to each other, in any order
+	 * @param query the query text, tokenized like the pages
+	 * @param maxDistance the most positions between the first and the last of the terms
+	 * @return the matching document IDs in increasing order
+	 */
+	default int[] searchNear(String query, int maxDistance)
+	{
+		return PhraseMatcher.near(this, query, maxDistance).matchAll();
+	}
+
+	/**
+	 * Opens a cursor for every term of a query
+	 * @param query the query text
+	 * @return the iterators, rarest term first so that it leads the intersection
+	 */
+	default PostingIterator[] queryIterators(String query)
+	{
+		List<String> terms = Tokenizer.tokenize(query);
+		PostingIterator[] its = new PostingIterator[terms.size()];
+		for (int i = 0; i < its.length; i++)
+		{
+			its[i] = postings(terms.get(i));
+		}
+		Arrays.sort(its, (a, b) -> Integer.compare(a.cost(), b.cost()));
+		return its;
+	}
+
+	/**
+	 * Moves every iterator to the first document, at or after target, that they all contain
+	 * The iterators are leap-frogged against each other, so the shortest list drives the search.
+	 * @param its the iterators to intersect, rarest first
+	 * @param target the smallest document ID to consider
+	 * @return the common document ID, or NO_MORE_DOCS
+	 */
+	static int intersectNext(PostingIterator[] its, int target)
+	{
+		int doc = target;
+		int agreed = 0;
+		int i = 0;
+		while (agreed < its.length)
+		{
+			PostingIterator it = its[i];
+			int d = it.docId() >= doc ? it.docId() : it.advance(doc);
+			if (d == PostingIterator.NO_MORE_DOCS)
+			{
+				return d;
+			}
+			if (d == doc)
+			{
+				agreed++;
+			}
+			else
+			{
+				doc = d;
+				agreed = 1;
+			}
+			i = (i + 1) % its.length;
+		}
+		return doc;
+	}
+}
@@ -0,0 +1,435 @@
+package searchengine.index;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An immutable index segment stored in one file and read through a memory mapping
+ * The term dictionary, the compressed posting lists and the per-document data stay in the
+ * page cache, outside the Java heap, so opening a segment costs a few milliseconds no matter
+ * how large it is and nothing has to be crawled again after a restart.
+ *
+ * The file layout, little-endian:
+ *   header: int magic, int version, int docCount, int termCount, double averageDocLength,
+ *           10 x int section offsets (see the *_SECTION constants)
+ *   urlOffsets:     (docCount + 1) ints into urlBytes
+ *   urlBytes:       UTF-8 URLs
+ *   docLengths:     docCount ints
+ *   ranks:          docCount doubles, the static rank of every document
+ *   termOffsets:    (termCount + 1) ints into termBytes
+ *   termBytes:      UTF-8 terms in increasing byte order
+ *   postingOffsets: (termCount + 1) ints into postingBytes
+ *   postingBytes:   CompressedPostingList encodings, one per term
+ *   positionOffsets: (termCount + 1) ints into positionBytes
+ *   positionBytes:  PositionList encodings, one per term, after the postings so that queries
+ *                   without phrases never touch their pages
+ *
+ */
+public class IndexSegment implements IndexReader, Closeable
+{
+	private static final int MAGIC = 0x53454731; // "SEG1"
+	private static final int VERSION = 3;
+
+	private static final int URL_OFFSETS_SECTION = 0;
+	private static final int URL_BYTES_SECTION = 1;
+	private static final int DOC_LENGTHS_SECTION = 2;
+	private static final int RANKS_SECTION = 3;
+	private static final int TERM_OFFSETS_SECTION = 4;
+	private static final int TERM_BYTES_SECTION = 5;
+	private static final int POSTING_OFFSETS_SECTION = 6;
+	private static final int POSTING_BYTES_SECTION = 7;
+	private static final int POSITION_OFFSETS_SECTION = 8;
+	private static final int POSITION_BYTES_SECTION = 9;
+	private static final int SECTIONS = 10;
+	private static final int HEADER_BYTES = 24 + SECTIONS * 4;
+
+	private static final PostingList EMPTY = new PostingList();
+	private static final PositionList EMPTY_POSITIONS = new PositionList();
+
+	private final FileChannel channel;
+	private final ByteBuffer buf;
+	private final int docCount;
+	private final int termCount;
+	private final double averageDocLength;
+	private final int[] sections = new int[SECTIONS];
+
+	private IndexSegment(FileChannel channel, ByteBuffer buf) throws IOException
+	{
+		this.channel = channel;
+		this.buf = buf;
+		if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION)
+		{
+			throw new IOException("ERROR: Not an index segment.");
+		}
+		this.docCount = buf.getInt(8);
+		this.termCount = buf.getInt(12);
+		this.averageDocLength = buf.getDouble(16);
+		for (int i = 0; i < SECTIONS; i++)
+		{
+			sections[i] = buf.getInt(24 + i * 4);
+		}
+	}
+
+	/**
+	 * Maps a segment file into memory
+	 * @param path the segment file
+	 * @return the opened segment
+	 * @throws IOException if the file cannot be read or is not a segment
+	 */
+	public static IndexSegment open(Path path) throws IOException
+	{
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try
+		{
+			if (channel.size() > Integer.MAX_VALUE)
+			{
+				throw new IOException("ERROR: Segment is larger than 2 GB.");
+			}
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return new IndexSegment(channel, mapped.order(ByteOrder.LITTLE_ENDIAN));
+		}
+		catch (IOException | RuntimeException e)
+		{
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Writes an index to a new segment file
+	 * The index is compacted first. The file is written next to the target and then moved
+	 * over it, so readers never see a half-written segment.
+	 * @param index the index to write
+	 * @param ranks the static rank of every document, or null if there is none yet
+	 * @param path the segment file
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void write(InvertedIndex index, double[] ranks, Path path) throws IOException
+	{
+		index.compact();
+		int docCount = index.getDocCount();
+		List<String> terms = index.terms();
+
+		// terms are searched by comparing UTF-8 bytes, so they must be sorted the same way
+		byte[][] termBytes = new byte[terms.size()][];
+		for (int i = 0; i < termBytes.length; i++)
+		{
+			termBytes[i] = terms.get(i).getBytes(StandardCharsets.UTF_8);
+		}
+		Arrays.sort(termBytes, IndexSegment::compareBytes);
+
+		byte[][] urlBytes = new byte[docCount][];
+		int urlTotal = 0;
+		for (int d = 0; d < docCount; d++)
+		{
+			urlBytes[d] = index.getUrl(d).getBytes(StandardCharsets.UTF_8);
+			urlTotal += urlBytes[d].length;
+		}
+		int termTotal = 0;
+		long postingTotal = 0;
+		long positionTotal = 0;
+		byte[][] postingBytes = new byte[termBytes.length][];
+		byte[][] positionBytes = new byte[termBytes.length][];
+		for (int t = 0; t < termBytes.length; t++)
+		{
+			termTotal += termBytes[t].length;
+			String term = new String(termBytes[t], StandardCharsets.UTF_8);
+			postingBytes[t] = index.getCompressed(term).getBytes();
+			postingTotal += postingBytes[t].length;
+			positionBytes[t] = index.getPositions(term).getBytes();
+			positionTotal += positionBytes[t].length;
+		}
+
+		int[] sections = new int[SECTIONS];
+		long size = HEADER_BYTES;
+		sections[URL_OFFSETS_SECTION] = (int) size;
+		size += 4L * (docCount + 1);
+		sections[URL_BYTES_SECTION] = (int) size;
+		size += urlTotal;
+		sections[DOC_LENGTHS_SECTION] = (int) size;
+		size += 4L * docCount;
+		sections[RANKS_SECTION] = (int) size;
+		size += 8L * docCount;
+		sections[TERM_OFFSETS_SECTION] = (int) size;
+		size += 4L * (termBytes.length + 1);
+		sections[TERM_BYTES_SECTION] = (int) size;
+		size += termTotal;
+		sections[POSTING_OFFSETS_SECTION] = (int) size;
+		size += 4L * (termBytes.length + 1);
+		sections[POSTING_BYTES_SECTION] = (int) size;
+		size += postingTotal;
+		sections[POSITION_OFFSETS_SECTION] = (int) size;
+		size += 4L * (termBytes.length + 1);
+		sections[POSITION_BYTES_SECTION] = (int) size;
+		size += positionTotal;
+		if (size > Integer.MAX_VALUE)
+		{
+			throw new IOException("ERROR: Segment would be larger than 2 GB.");
+		}
+
+		ByteBuffer out = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+		out.putInt(MAGIC).putInt(VERSION).putInt(docCount).putInt(termBytes.length).putDouble(index.getAverageDocLength());
+		for (int offset : sections)
+		{
+			out.putInt(offset);
+		}
+
+		int offset = 0;
+		for (int d = 0; d < docCount; d++)
+		{
+			out.putInt(offset);
+			offset += urlBytes[d].length;
+		}
+		out.putInt(offset);
+		for (byte[] u : urlBytes)
+		{
+			out.put(u);
+		}
+		for (int d = 0; d < docCount; d++)
+		{
+			out.putInt(index.getDocLength(d));
+		}
+		for (int d = 0; d < docCount; d++)
+		{
+			out.putDouble(ranks == null || d >= ranks.length ? 0 : ranks[d]);
+		}
+
+		offset = 0;
+		for (byte[] t : termBytes)
+		{
+			out.putInt(offset);
+			offset += t.length;
+		}
+		out.putInt(offset);
+		for (byte[] t : termBytes)
+		{
+			out.put(t);
+		}
+		offset = 0;
+		for (byte[] p : postingBytes)
+		{
+			out.putInt(offset);
+			offset += p.length;
+		}
+		out.putInt(offset);
+		for (byte[] p : postingBytes)
+		{
+			out.put(p);
+		}
+		offset = 0;
+		for (byte[] p : positionBytes)
+		{
+			out.putInt(offset);
+			offset += p.length;
+		}
+		out.putInt(offset);
+		for (byte[] p : positionBytes)
+		{
+			out.put(p);
+		}
+		out.flip();
+
+		Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			while (out.hasRemaining())
+			{
+				channel.write(out);
+			}
+			channel.force(true);
+		}
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Gets a cursor that decodes the posting list straight from the mapped file
+	 * @param term a lowercase term
+	 * @return an iterator over the documents containing the term, empty if there are none
+	 */
+	public PostingIterator postings(String term)
+	{
+		int t = findTerm(term);
+		if (t < 0)
+		{
+			return EMPTY.iterator();
+		}
+		return CompressedPostingList.iterator(slice(POSTING_OFFSETS_SECTION, POSTING_BYTES_SECTION, t));
+	}
+
+	/**
+	 * Gets a reader that decodes the positions of a term straight from the mapped file
+	 * @param term a lowercase term
+	 * @return a reader of the term's positions in every document of its posting list
+	 */
+	public PositionList.Reader positions(String term)
+	{
+		int t = findTerm(term);
+		if (t < 0)
+		{
+			return EMPTY_POSITIONS.reader();
+		}
+		return PositionList.reader(slice(POSITION_OFFSETS_SECTION, POSITION_BYTES_SECTION, t));
+	}
+
+	public int docFreq(String term)
+	{
+		int t = findTerm(term);
+		return t < 0 ? 0 : buf.getInt(sections[POSTING_BYTES_SECTION] + postingOffset(t));
+	}
+
+	public List<String> terms()
+	{
+		List<String> terms = new ArrayList<>(termCount);
+		int offsets = sections[TERM_OFFSETS_SECTION];
+		ByteBuffer view = buf.duplicate();
+		for (int t = 0; t < termCount; t++)
+		{
+			int start = buf.getInt(offsets + t * 4);
+			byte[] bytes = new byte[buf.getInt(offsets + t * 4 + 4) - start];
+			view.position(sections[TERM_BYTES_SECTION] + start);
+			view.get(bytes);
+			terms.add(new String(bytes, StandardCharsets.UTF_8));
+		}
+		return terms;
+	}
+
+	public String getUrl(int docId)
+	{
+		int base = sections[URL_OFFSETS_SECTION] + docId * 4;
+		int start = buf.getInt(base);
+		int end = buf.getInt(base + 4);
+		byte[] bytes = new byte[end - start];
+		ByteBuffer view = buf.duplicate();
+		view.position(sections[URL_BYTES_SECTION] + start);
+		view.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	public int getDocLength(int docId)
+	{
+		return buf.getInt(sections[DOC_LENGTHS_SECTION] + docId * 4);
+	}
+
+	/**
+	 * Gets the static rank of a document
+	 * @param docId the document ID
+	 * @return the rank stored when the segment was written
+	 */
+	public double getRank(int docId)
+	{
+		return buf.getDouble(sections[RANKS_SECTION] + docId * 8);
+	}
+
+	public int getDocCount()
+	{
+		return docCount;
+	}
+
+	/**
+	 * Gets the number of distinct terms
+	 * @return the number of terms
+	 */
+	public int getTermCount()
+	{
+		return termCount;
+	}
+
+	public double getAverageDocLength()
+	{
+		return averageDocLength;
+	}
+
+	/**
+	 * Closes the file; the mapping itself is released by the garbage collector
+	 */
+	public void close() throws IOException
+	{
+		channel.close();
+	}
+
+	private int postingOffset(int t)
+	{
+		return buf.getInt(sections[POSTING_OFFSETS_SECTION] + t * 4);
+	}
+
+	// Gets the bytes of a term in a section of per-term encodings, e.g. its posting list
+	private ByteBuffer slice(int offsetsSection, int bytesSection, int t)
+	{
+		int offsets = sections[offsetsSection] + t * 4;
+		int start = sections[bytesSection] + buf.getInt(offsets);
+		int end = sections[bytesSection] + buf.getInt(offsets + 4);
+		ByteBuffer view = buf.duplicate();
+		view.position(start).limit(end);
+		return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	// Binary search of the term dictionary, comparing UTF-8 bytes in place
+	private int findTerm(String term)
+	{
+		byte[] key = term.getBytes(StandardCharsets.UTF_8);
+		int offsets = sections[TERM_OFFSETS_SECTION];
+		int bytes = sections[TERM_BYTES_SECTION];
+		int lo = 0, hi = termCount - 1;
+		while (lo <= hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			int start = bytes + buf.getInt(offsets + mid * 4);
+			int end = bytes + buf.getInt(offsets + mid * 4 + 4);
+			int cmp = compareMapped(start, end, key);
+			if (cmp < 0)
+			{
+				lo = mid + 1;
+			}
+			else if (cmp > 0)
+			{
+				hi = mid - 1;
+			}
+			else
+			{
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	private int compareMapped(int start, int end, byte[] key)
+	{
+		int n = Math.min(end - start, key.length);
+		for (int i = 0; i < n; i++)
+		{
+			int c = (buf.get(start + i) & 0xFF) - (key[i] & 0xFF);
+			if (c != 0)
+			{
+				return c;
+			}
+		}
+		return (end - start) - key.length;
+	}
+
+	private static int compareBytes(byte[] a, byte[] b)
+	{
+		int n = Math.min(a.length, b.length);
+		for (int i = 0; i < n; i++)
+		{
+			int c = (a[i] & 0xFF) - (b[i] & 0xFF);
+			if (c != 0)
+			{
+				return c;
+			}
+		}
+		return a.length - b.length;
+	}
+}
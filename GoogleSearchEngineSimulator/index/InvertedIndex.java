@@ -0,0 +1,358 @@
+package searchengine.index;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An inverted index over crawled pages: every term maps to the posting list of documents containing it
+ * Pages are tokenized once when they are added, so a query only touches the posting lists of its terms.
+ * Documents may be added from several crawler threads at once. Once the crawl is done,
+ * compact() compresses every posting list; see CompressedPostingList. The positions of every
+ * term are kept in a separate PositionList, read only by phrase and proximity queries.
+ *
+ */
+public class InvertedIndex implements IndexReader
+{
+	private static final PostingList EMPTY = new PostingList();
+	private static final PositionList EMPTY_POSITIONS = new PositionList();
+
+	// posting lists still being appended to
+	private final Map<String, PostingList> postings = new HashMap<>();
+
+	// posting lists compressed by compact()
+	private final Map<String, CompressedPostingList> compressed = new HashMap<>();
+
+	// positions of every term, in the order of its posting list
+	private final Map<String, PositionList> positions = new HashMap<>();
+
+	// URL of every document, indexed by document ID
+	private final List<String> urls = new ArrayList<>();
+
+	// number of terms in every document, indexed by document ID
+	private int[] docLengths = new int[16];
+
+	private long totalLength;
+
+	/**
+	 * Tokenizes a page and adds it to the index
+	 * @param url the URL of the page
+	 * @param text the visible text of the page
+	 * @return the document ID given to the page
+	 */
+	public int addDocument(String url, String text)
+	{
+		// collect the positions of every term before taking the lock; one String per distinct term
+		DocumentTerms terms = new DocumentTerms();
+		Tokenizer.DEFAULT.tokenize(text, terms);
+		String[] distinct = new String[terms.count];
+		for (int t = 0; t < distinct.length; t++)
+		{
+			distinct[t] = new String(terms.chars, terms.starts[t], terms.lengths[t]);
+		}
+
+		synchronized (this)
+		{
+			int docId = urls.size();
+			urls.add(url);
+			if (docId == docLengths.length)
+			{
+				docLengths = Arrays.copyOf(docLengths, docId * 2);
+			}
+			docLengths[docId] = terms.tokens;
+			totalLength += terms.tokens;
+
+			for (int t = 0; t < distinct.length; t++)
+			{
+				int[] o = terms.positions[t];
+				postings.computeIfAbsent(distinct[t], this::inflate).add(docId, o[0]);
+				positions.computeIfAbsent(distinct[t], k -> new PositionList()).add(o, 1, o[0]);
+			}
+			return docId;
+		}
+	}
+
+	// Starts a growable list for a term, decompressing it first if compact() already ran
+	private PostingList inflate(String term)
+	{
+		CompressedPostingList c = compressed.remove(term);
+		return c == null ? new PostingList() : c.inflate();
+	}
+
+	/**
+	 * Compresses every posting list that is still growable
+	 * Every block records its highest BM25 impact under the default parameters, for block-max
+	 * WAND. Documents can still be added afterwards; the lists they touch are decompressed again,
+	 * and the impacts of the others no longer match the average length.
+	 */
+	public synchronized void compact()
+	{
+		if (postings.isEmpty())
+		{
+			return;
+		}
+		double averageLength = getAverageDocLength();
+		float[] norms = Bm25Scorer.defaultLengthNorms(docLengths, urls.size(), averageLength);
+		for (Map.Entry<String, PostingList> e : postings.entrySet())
+		{
+			compressed.put(e.getKey(), CompressedPostingList.of(e.getValue(), norms, averageLength));
+		}
+		postings.clear();
+	}
+
+	/**
+	 * Gets a cursor over the posting list of a term
+	 * @param term a lowercase term
+	 * @return an iterator over the documents containing the term, empty if there are none
+	 */
+	public synchronized PostingIterator postings(String term)
+	{
+		CompressedPostingList c = compressed.get(term);
+		if (c != null)
+		{
+			return c.iterator();
+		}
+		PostingList list = postings.get(term);
+		return (list == null ? EMPTY : list).iterator();
+	}
+
+	/**
+	 * Gets a reader over the positions of a term
+	 * @param term a lowercase term
+	 * @return a reader of the term's positions in every document of its posting list
+	 */
+	public synchronized PositionList.Reader positions(String term)
+	{
+		return positions.getOrDefault(term, EMPTY_POSITIONS).reader();
+	}
+
+	/**
+	 * Gets the position list of a term
+	 * @param term a lowercase term
+	 * @return the positions of the term, or null if the term is missing
+	 */
+	public synchronized PositionList getPositions(String term)
+	{
+		return positions.get(term);
+	}
+
+	/**
+	 * Gets the compressed posting list of a term
+	 * @param term a lowercase term
+	 * @return the compressed list, or null if the term is missing or compact() has not run since it changed
+	 */
+	public synchronized CompressedPostingList getCompressed(String term)
+	{
+		return compressed.get(term);
+	}
+
+	/**
+	 * Gets the number of documents containing a term
+	 * @param term a lowercase term
+	 * @return the document frequency of the term
+	 */
+	public synchronized int docFreq(String term)
+	{
+		CompressedPostingList c = compressed.get(term);
+		if (c != null)
+		{
+			return c.size();
+		}
+		PostingList list = postings.get(term);
+		return list == null ? 0 : list.size();
+	}
+
+	/**
+	 * Gets the URL of a document
+	 * @param docId the document ID
+	 * @return the URL of the document
+	 */
+	public synchronized String getUrl(int docId)
+	{
+		return urls.get(docId);
+	}
+
+	/**
+	 * Gets the number of terms in a document
+	 * @param docId the document ID
+	 * @return the length of the document
+	 */
+	public synchronized int getDocLength(int docId)
+	{
+		return docLengths[docId];
+	}
+
+	/**
+	 * Gets the number of indexed documents
+	 * @return the number of documents
+	 */
+	public synchronized int getDocCount()
+	{
+		return urls.size();
+	}
+
+	/**
+	 * Gets the number of distinct terms
+	 * @return the number of terms
+	 */
+	public synchronized int getTermCount()
+	{
+		return postings.size() + compressed.size();
+	}
+
+	/**
+	 * Gets every term in the index
+	 * @return a sorted snapshot of the terms
+	 */
+	public synchronized List<String> terms()
+	{
+		List<String> terms = new ArrayList<>(postings.size() + compressed.size());
+		terms.addAll(postings.keySet());
+		terms.addAll(compressed.keySet());
+		Collections.sort(terms);
+		return terms;
+	}
+
+	/**
+	 * Gets the number of bytes used by the compressed posting lists
+	 * @return the compressed size in bytes
+	 */
+	public synchronized long getCompressedBytes()
+	{
+		long bytes = 0;
+		for (CompressedPostingList c : compressed.values())
+		{
+			bytes += c.sizeInBytes();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Gets the number of bytes used by the position lists
+	 * @return the encoded size in bytes
+	 */
+	public synchronized long getPositionBytes()
+	{
+		long bytes = 0;
+		for (PositionList p : positions.values())
+		{
+			bytes += p.sizeInBytes();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Gets the average number of terms per document
+	 * @return the average document length
+	 */
+	public synchronized double getAverageDocLength()
+	{
+		return urls.isEmpty() ? 0 : (double) totalLength / urls.size();
+	}
+
+	/**
+	 * The distinct terms of one page and their positions, collected without a String per term
+	 * The chars of every term are appended to one array and found again through an
+	 * open-addressing table keyed by their hash.
+	 */
+	private static final class DocumentTerms implements Tokenizer.Handler
+	{
+		private char[] chars = new char[256];
+		private int charCount;
+
+		// start and length in chars of every distinct term, and its positions
+		private int[] starts = new int[16];
+		private int[] lengths = new int[16];
+		// slot 0 of the positions of a term holds their count
+		private int[][] positions = new int[16][];
+		private int count;
+
+		// term index + 1 in every slot, 0 if the slot is empty
+		private int[] table = new int[32];
+		private int tokens;
+
+		public void token(char[] term, int length, int position, int start, int end)
+		{
+			tokens++;
+			int h = 0;
+			for (int i = 0; i < length; i++)
+			{
+				h = 31 * h + term[i];
+			}
+			int mask = table.length - 1;
+			int slot = mix(h) & mask;
+			while (table[slot] != 0)
+			{
+				int t = table[slot] - 1;
+				if (lengths[t] == length && Arrays.equals(chars, starts[t], starts[t] + length, term, 0, length))
+				{
+					addPosition(t, position);
+					return;
+				}
+				slot = (slot + 1) & mask;
+			}
+
+			if (count == starts.length)
+			{
+				starts = Arrays.copyOf(starts, count * 2);
+				lengths = Arrays.copyOf(lengths, count * 2);
+				positions = Arrays.copyOf(positions, count * 2);
+			}
+			if (charCount + length > chars.length)
+			{
+				chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charCount + length));
+			}
+			System.arraycopy(term, 0, chars, charCount, length);
+			starts[count] = charCount;
+			lengths[count] = length;
+			positions[count] = new int[4];
+			charCount += length;
+			table[slot] = ++count;
+			addPosition(count - 1, position);
+			if (count * 2 > table.length)
+			{
+				rehash();
+			}
+		}
+
+		private void addPosition(int t, int position)
+		{
+			int[] o = positions[t];
+			if (o[0] + 1 == o.length)
+			{
+				o = positions[t] = Arrays.copyOf(o, o.length * 2);
+			}
+			o[++o[0]] = position;
+		}
+
+		private void rehash()
+		{
+			table = new int[table.length * 2];
+			int mask = table.length - 1;
+			for (int t = 0; t < count; t++)
+			{
+				int h = 0;
+				for (int i = starts[t]; i < starts[t] + lengths[t]; i++)
+				{
+					h = 31 * h + chars[i];
+				}
+				int slot = mix(h) & mask;
+				while (table[slot] != 0)
+				{
+					slot = (slot + 1) & mask;
+				}
+				table[slot] = t + 1;
+			}
+		}
+
+		// Spreads the bits of a String-style hash, whose low bits are weak for short terms
+		private static int mix(int h)
+		{
+			h *= 0x9E3779B9;
+			return h ^ (h >>> 16);
+		}
+	}
+}
@@ -0,0 +1,312 @@
+package searchengine.index;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Finds the documents in which the terms of a query form a phrase or occur close to each other
+ * Candidates come from intersecting the posting lists, rarest first, exactly like an AND query.
+ * Only for a candidate are the positions read. For a phrase, the rarest term leads: each of
+ * its positions gives a start, and the next term is only read once every term before it is at
+ * its place for that start, so a candidate that fails on the first terms never decodes the
+ * positions of the others, and their readers are not even moved to it. A proximity query moves
+ * every reader to the candidate and slides a window over all positions. A repeated query term
+ * gets its own cursor and reader, so "new york new" needs "new" twice, two positions apart.
+ *
+ * A matcher runs one query once and is not thread-safe.
+ *
+ */
+public class PhraseMatcher
+{
+	private final PostingIterator[] its;
+	private final PositionList.Reader[] positions;
+
+	// the place of every term in the query, in the order of its
+	private final int[] offsets;
+
+	// the most positions between the first and the last term, or -1 for an exact phrase
+	private final int maxDistance;
+
+	// the readers of the same term share a group; the last reader moved of every group
+	private final int[] groups;
+	private final int[] lastOfGroup;
+
+	// the candidate every phrase reader was last moved to
+	private final int[] seekedDocs;
+
+	private int doc = -1;
+
+	private PhraseMatcher(IndexReader reader, String query, int maxDistance)
+	{
+		List<String> terms = Tokenizer.tokenize(query);
+		int n = terms.size();
+		PostingIterator[] byPlace = new PostingIterator[n];
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; i++)
+		{
+			byPlace[i] = reader.postings(terms.get(i));
+			order[i] = i;
+		}
+		// the rarest term leads both the intersection and the position matching
+		Arrays.sort(order, (a, b) -> Integer.compare(byPlace[a].cost(), byPlace[b].cost()));
+		this.its = new PostingIterator[n];
+		this.positions = new PositionList.Reader[n];
+		this.offsets = new int[n];
+		for (int i = 0; i < n; i++)
+		{
+			its[i] = byPlace[order[i]];
+			positions[i] = reader.positions(terms.get(order[i]));
+			offsets[i] = order[i];
+		}
+		this.maxDistance = maxDistance;
+		this.groups = new int[n];
+		int groupCount = 0;
+		for (int i = 0; i < n; i++)
+		{
+			groups[i] = groupCount;
+			for (int j = 0; j < i; j++)
+			{
+				if (terms.get(order[j]).equals(terms.get(order[i])))
+				{
+					groups[i] = groups[j];
+					break;
+				}
+			}
+			if (groups[i] == groupCount)
+			{
+				groupCount++;
+			}
+		}
+		this.lastOfGroup = new int[groupCount];
+		this.seekedDocs = new int[n];
+		Arrays.fill(seekedDocs, -1);
+	}
+
+	/**
+	 * Creates a matcher for the documents that contain the terms next to each other, in query order
+	 * @param reader the index
+	 * @param phrase the phrase, tokenized like the pages
+	 * @return a matcher positioned before the first match
+	 */
+	public static PhraseMatcher phrase(IndexReader reader, String phrase)
+	{
+		return new PhraseMatcher(reader, phrase, -1);
+	}
+
+	/**
+	 * Creates a matcher for the documents that contain every term close to each other, in any order
+	 * @param reader the index
+	 * @param query the query text, tokenized like the pages
+	 * @param maxDistance the most positions between the first and the last of the terms
+	 * @return a matcher positioned before the first match
+	 */
+	public static PhraseMatcher near(IndexReader reader, String query, int maxDistance)
+	{
+		if (maxDistance < 0)
+		{
+			throw new IllegalArgumentException("ERROR: The distance must not be negative.");
+		}
+		return new PhraseMatcher(reader, query, maxDistance);
+	}
+
+	/**
+	 * Moves to the next matching document
+	 * @return the document ID, or NO_MORE_DOCS
+	 */
+	public int nextDoc()
+	{
+		if (its.length == 0 || doc == PostingIterator.NO_MORE_DOCS)
+		{
+			return doc = PostingIterator.NO_MORE_DOCS;
+		}
+		for (int d = IndexReader.intersectNext(its, doc + 1); d != PostingIterator.NO_MORE_DOCS; d = IndexReader.intersectNext(its, d + 1))
+		{
+			if (maxDistance < 0 ? matchesPhrase(d) : matchesNear())
+			{
+				return doc = d;
+			}
+		}
+		return doc = PostingIterator.NO_MORE_DOCS;
+	}
+
+	/**
+	 * Gets the current match
+	 * @return the document ID, -1 before the first call, or NO_MORE_DOCS at the end
+	 */
+	public int docId()
+	{
+		return doc;
+	}
+
+	/**
+	 * Gets the term cursors, e.g. to score the current match
+	 * The same array is returned every time.
+	 * @return the iterators, positioned on the current match and ordered rarest first
+	 */
+	public PostingIterator[] iterators()
+	{
+		return its;
+	}
+
+	/**
+	 * Collects every remaining match
+	 * @return the matching document IDs in increasing order
+	 */
+	public int[] matchAll()
+	{
+		int[] result = new int[16];
+		int count = 0;
+		for (int d = nextDoc(); d != PostingIterator.NO_MORE_DOCS; d = nextDoc())
+		{
+			if (count == result.length)
+			{
+				result = Arrays.copyOf(result, count * 2);
+			}
+			result[count++] = d;
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	// Looks for a start position where every term is at its place in the query. Every start comes
+	// from the lead term: a term past its place moves the lead to the first start it allows, and
+	// the terms are checked again from the second one; the starts only grow, so no reader goes back.
+	private boolean matchesPhrase(int d)
+	{
+		int n = positions.length;
+		seek(0, d);
+		int start = positions[0].nextPosition() - offsets[0];
+		int i = 1;
+		while (i < n)
+		{
+			seek(i, d);
+			int target = start + offsets[i];
+			int p = positions[i].advance(target);
+			if (p == PositionList.Reader.NO_MORE_POSITIONS)
+			{
+				return false;
+			}
+			if (p == target)
+			{
+				i++;
+				continue;
+			}
+			int lead = positions[0].advance(p - offsets[i] + offsets[0]);
+			if (lead == PositionList.Reader.NO_MORE_POSITIONS)
+			{
+				return false;
+			}
+			start = lead - offsets[0];
+			i = 1;
+		}
+		return true;
+	}
+
+	// Moves a phrase reader to the positions of a candidate, unless it already is there
+	private void seek(int i, int d)
+	{
+		if (seekedDocs[i] != d)
+		{
+			positions[i].seek(its[i].ordinal());
+			seekedDocs[i] = d;
+		}
+	}
+
+	// Slides a window over the positions: the term at the first position moves on until all fit.
+	// The readers of a repeated term hold consecutive, distinct occurrences of it, so "t0 t0"
+	// needs two occurrences; the first one moves on by jumping past the last one of its group.
+	private boolean matchesNear()
+	{
+		for (int i = 0; i < positions.length; i++)
+		{
+			positions[i].seek(its[i].ordinal());
+		}
+		Arrays.fill(lastOfGroup, -1);
+		int max = -1;
+		for (int i = 0; i < positions.length; i++)
+		{
+			if (!moveInGroup(i))
+			{
+				return false;
+			}
+			max = Math.max(max, positions[i].position());
+		}
+		while (true)
+		{
+			int first = 0;
+			for (int i = 1; i < positions.length; i++)
+			{
+				if (positions[i].position() < positions[first].position())
+				{
+					first = i;
+				}
+			}
+			if (max - positions[first].position() <= maxDistance)
+			{
+				return true;
+			}
+			if (!moveInGroup(first))
+			{
+				return false;
+			}
+			max = Math.max(max, positions[first].position());
+		}
+	}
+
+	// Moves a reader to the next occurrence after the last reader of its group; false if there is none
+	private boolean moveInGroup(int i)
+	{
+		int last = lastOfGroup[groups[i]];
+		int p = last < 0 ? positions[i].nextPosition() : positions[i].advance(positions[last].position() + 1);
+		lastOfGroup[groups[i]] = i;
+		return p != PositionList.Reader.NO_MORE_POSITIONS;
+	}
+
+	// Compares phrase and proximity queries with AND queries of the same terms: java PhraseMatcher [docs]
+	public static void main(String[] args)
+	{
+		int docs = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+		Random random = new Random(11);
+		InvertedIndex index = new InvertedIndex();
+		StringBuilder page = new StringBuilder();
+		for (int d = 0; d < docs; d++)
+		{
+			page.setLength(0);
+			int length = 20 + random.nextInt(200);
+			for (int w = 0; w < length; w++)
+			{
+				// term i occurs in about 1 / (i + 1) of the positions, so "t0" and "t1" are in most documents
+				page.append('t').append((int) Math.min(9999, Math.exp(random.nextDouble() * Math.log(10_000)) - 1)).append(' ');
+			}
+			index.addDocument("https://site" + d + ".com/", page.toString());
+		}
+		index.compact();
+		System.out.printf("postings: %.1f MB, positions: %.1f MB, stored apart%n",
+				index.getCompressedBytes() / 1e6, index.getPositionBytes() / 1e6);
+
+		for (String query : new String[] { "t0 t1", "t1 t2 t3", "t0 t0", "t5 t9", "t20 t300" })
+		{
+			double andMillis = Double.MAX_VALUE;
+			double phraseMillis = Double.MAX_VALUE;
+			double nearMillis = Double.MAX_VALUE;
+			int ands = 0, phrases = 0, nears = 0;
+			for (int round = 0; round < 10; round++)
+			{
+				long start = System.nanoTime();
+				ands = index.search(query).length;
+				andMillis = Math.min(andMillis, (System.nanoTime() - start) / 1e6);
+
+				start = System.nanoTime();
+				phrases = index.searchPhrase(query).length;
+				phraseMillis = Math.min(phraseMillis, (System.nanoTime() - start) / 1e6);
+
+				start = System.nanoTime();
+				nears = index.searchNear(query, 5).length;
+				nearMillis = Math.min(nearMillis, (System.nanoTime() - start) / 1e6);
+			}
+			System.out.printf("\"%s\": AND %d docs in %.1f ms, phrase %d docs in %.1f ms (%.1fx), within 5 %d docs in %.1f ms (%.1fx)%n",
+					query, ands, andMillis, phrases, phraseMillis, phraseMillis / andMillis,
+					nears, nearMillis, nearMillis / andMillis);
+		}
+	}
+}
@@ -0,0 +1,284 @@
+package searchengine.index;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * The positions of one term in every document of its posting list, kept apart from the postings
+ * Only phrase and proximity queries read positions, so the posting lists stay as small and as
+ * fast to decode as before. The positions of one posting are delta-encoded as variable-byte
+ * integers behind a variable-byte length, so a reader can jump over the postings it does not
+ * need. Every BLOCK_SIZE postings the byte offset is recorded, so a reader moved to a far
+ * posting starts from the nearest block instead of the beginning.
+ *
+ * The encoded layout, little-endian:
+ *   int postingCount, int blockCount, blockCount x int blockOffset,
+ *   posting bytes (offsets are relative to the start of the posting bytes)
+ *
+ * Postings are appended in the same order as to the term's posting list, so the n-th posting of
+ * both belongs to the same document; see PostingIterator.ordinal().
+ *
+ */
+public class PositionList
+{
+	// number of postings per block
+	public static final int BLOCK_SIZE = CompressedPostingList.BLOCK_SIZE;
+
+	private byte[] data = new byte[16];
+	private int length;
+	private int[] blockOffsets = new int[1];
+	private int size;
+
+	/**
+	 * Appends the positions of a term in the next document
+	 * @param positions an array holding the positions in increasing order
+	 * @param from the index of the first position in the array
+	 * @param count the number of positions, i.e. the term frequency
+	 */
+	public void add(int[] positions, int from, int count)
+	{
+		if (size % BLOCK_SIZE == 0)
+		{
+			int block = size / BLOCK_SIZE;
+			if (block == blockOffsets.length)
+			{
+				blockOffsets = Arrays.copyOf(blockOffsets, block * 2);
+			}
+			blockOffsets[block] = length;
+		}
+		int bytes = 0;
+		int prev = -1;
+		for (int i = from; i < from + count; i++)
+		{
+			if (positions[i] <= prev)
+			{
+				throw new IllegalArgumentException("ERROR: Positions must be added in increasing order.");
+			}
+			bytes += vIntSize(positions[i] - prev - 1);
+			prev = positions[i];
+		}
+		if (length + 5 + bytes > data.length)
+		{
+			data = Arrays.copyOf(data, Math.max(data.length * 2, length + 5 + bytes));
+		}
+		length = writeVInt(data, length, bytes);
+		prev = -1;
+		for (int i = from; i < from + count; i++)
+		{
+			length = writeVInt(data, length, positions[i] - prev - 1);
+			prev = positions[i];
+		}
+		size++;
+	}
+
+	/**
+	 * Gets the number of postings in the list
+	 * @return the document frequency of the term
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Gets the number of bytes used by the list
+	 * @return the encoded size in bytes
+	 */
+	public int sizeInBytes()
+	{
+		return 8 + blockCount() * 4 + length;
+	}
+
+	/**
+	 * Encodes the list, e.g. to write it to an index segment
+	 * @return a new array in the layout read by reader(ByteBuffer)
+	 */
+	public byte[] getBytes()
+	{
+		int blocks = blockCount();
+		ByteBuffer out = ByteBuffer.allocate(sizeInBytes()).order(ByteOrder.LITTLE_ENDIAN);
+		out.putInt(size).putInt(blocks);
+		for (int b = 0; b < blocks; b++)
+		{
+			out.putInt(blockOffsets[b]);
+		}
+		out.put(data, 0, length);
+		return out.array();
+	}
+
+	/**
+	 * Creates a reader over the list as it is now; postings added later are not seen
+	 * @return a new reader positioned before the first posting
+	 */
+	public Reader reader()
+	{
+		return new Reader(ByteBuffer.wrap(data, 0, length), IntBuffer.wrap(blockOffsets, 0, blockCount()));
+	}
+
+	/**
+	 * Creates a reader over a list encoded in any buffer, e.g. a memory-mapped index segment
+	 * @param encoded a little-endian buffer whose position 0 is the start of the list
+	 * @return a new reader positioned before the first posting
+	 */
+	public static Reader reader(ByteBuffer encoded)
+	{
+		int blocks = encoded.getInt(4);
+		int bytesStart = 8 + blocks * 4;
+		ByteBuffer offsets = encoded.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		offsets.position(8).limit(bytesStart);
+		ByteBuffer bytes = encoded.duplicate();
+		bytes.position(bytesStart);
+		return new Reader(bytes.slice(), offsets.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer());
+	}
+
+	private int blockCount()
+	{
+		return (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+	}
+
+	private static int vIntSize(int value)
+	{
+		int bytes = 1;
+		while ((value & ~0x7F) != 0)
+		{
+			value >>>= 7;
+			bytes++;
+		}
+		return bytes;
+	}
+
+	private static int writeVInt(byte[] out, int pos, int value)
+	{
+		while ((value & ~0x7F) != 0)
+		{
+			out[pos++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out[pos++] = (byte) value;
+		return pos;
+	}
+
+	/**
+	 * A forward-only reader of the positions of one posting at a time
+	 * It never allocates, so phrase queries can read the positions of many candidates.
+	 */
+	public static final class Reader
+	{
+		// returned by nextPosition() and advance() once the posting has no more positions
+		public static final int NO_MORE_POSITIONS = Integer.MAX_VALUE;
+
+		private final ByteBuffer bytes;
+		private final IntBuffer blockOffsets;
+
+		// the current posting, the bytes of its positions and the read position inside them
+		private int ordinal = -1;
+		private int start;
+		private int end;
+		private int p;
+		private int position;
+
+		Reader(ByteBuffer bytes, IntBuffer blockOffsets)
+		{
+			this.bytes = bytes;
+			this.blockOffsets = blockOffsets;
+		}
+
+		/**
+		 * Moves to the positions of a posting
+		 * @param target the posting's ordinal; must not be less than the current one
+		 */
+		public void seek(int target)
+		{
+			if (target < ordinal)
+			{
+				throw new IllegalArgumentException("ERROR: Positions can only be read forward.");
+			}
+			position = -1;
+			if (target == ordinal)
+			{
+				// read the current posting again from its first position
+				p = start;
+				return;
+			}
+			int next = ordinal + 1;
+			p = end;
+			if (ordinal < 0 || target / BLOCK_SIZE > ordinal / BLOCK_SIZE)
+			{
+				// start from the block holding the target instead of walking every posting
+				next = target - target % BLOCK_SIZE;
+				p = blockOffsets.get(target / BLOCK_SIZE);
+			}
+			for (; next < target; next++)
+			{
+				int skip = readVInt();
+				p += skip;
+			}
+			int bytesLength = readVInt();
+			start = p;
+			end = p + bytesLength;
+			ordinal = target;
+		}
+
+		/**
+		 * Moves to the next position of the current posting
+		 * @return the position, or NO_MORE_POSITIONS
+		 */
+		public int nextPosition()
+		{
+			if (p >= end)
+			{
+				return position = NO_MORE_POSITIONS;
+			}
+			// most gaps take one byte
+			byte x = bytes.get(p);
+			if (x >= 0)
+			{
+				p++;
+				return position += x + 1;
+			}
+			return position += readVInt() + 1;
+		}
+
+		/**
+		 * Moves to the first position at or after a target; stays if the current one already is
+		 * @param target the position to reach
+		 * @return the position, or NO_MORE_POSITIONS
+		 */
+		public int advance(int target)
+		{
+			if (position < 0)
+			{
+				nextPosition();
+			}
+			while (position < target)
+			{
+				nextPosition();
+			}
+			return position;
+		}
+
+		/**
+		 * Gets the current position
+		 * @return the current position, -1 before the first call, or NO_MORE_POSITIONS at the end
+		 */
+		public int position()
+		{
+			return position;
+		}
+
+		private int readVInt()
+		{
+			int v = 0, shift = 0, x;
+			do
+			{
+				x = bytes.get(p++);
+				v |= (x & 0x7F) << shift;
+				shift += 7;
+			}
+			while ((x & 0x80) != 0);
+			return v;
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package searchengine.index;
+
+/**
+ * A forward-only cursor over one posting list, in increasing document ID order
+ * The cursor starts before the first document; call nextDoc() or advance() to move it.
+ * No method allocates or boxes, so queries can walk millions of postings without garbage.
+ *
+ */
+public interface PostingIterator
+{
+	// returned by nextDoc() and advance() once the list is exhausted
+	int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+	/**
+	 * Gets the current document ID
+	 * @return the current document ID, -1 before the first call, or NO_MORE_DOCS at the end
+	 */
+	int docId();
+
+	/**
+	 * Moves to the next document
+	 * @return the new document ID, or NO_MORE_DOCS
+	 */
+	int nextDoc();
+
+	/**
+	 * Moves to the first document whose ID is at least target
+	 * @param target the document ID to reach; must be greater than the current document ID
+	 * @return the new document ID, or NO_MORE_DOCS
+	 */
+	int advance(int target);
+
+	/**
+	 * Gets the number of times the term occurs in the current document
+	 * @return the term frequency
+	 */
+	int freq();
+
+	/**
+	 * Gets the position of the current document in the whole list, e.g. to find its term positions
+	 * @return the number of documents before the current one
+	 */
+	int ordinal();
+
+	/**
+	 * Gets the total number of documents in the list, used to order iterators by cost
+	 * @return the length of the posting list
+	 */
+	int cost();
+}
@@ -0,0 +1,140 @@
+package searchengine.index;
+
+import java.util.Arrays;
+
+/**
+ * A growable posting list of one term: document IDs in increasing order with their term frequencies
+ *
+ */
+public class PostingList
+{
+	private int[] docIds;
+	private int[] freqs;
+	private int size;
+
+	/**
+	 * Constructs an empty posting list
+	 */
+	public PostingList()
+	{
+		docIds = new int[4];
+		freqs = new int[4];
+	}
+
+	/**
+	 * Appends a posting; documents must be added in increasing ID order
+	 * @param docId the document ID
+	 * @param freq the number of times the term occurs in the document
+	 */
+	public void add(int docId, int freq)
+	{
+		if (size > 0 && docId <= docIds[size - 1])
+		{
+			throw new IllegalArgumentException("ERROR: Document IDs must be added in increasing order.");
+		}
+		if (size == docIds.length)
+		{
+			docIds = Arrays.copyOf(docIds, size * 2);
+			freqs = Arrays.copyOf(freqs, size * 2);
+		}
+		docIds[size] = docId;
+		freqs[size] = freq;
+		size++;
+	}
+
+	/**
+	 * Gets the number of documents in the list
+	 * @return the document frequency of the term
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Gets the document ID at a position
+	 * @param i the position
+	 * @return the document ID
+	 */
+	public int docIdAt(int i)
+	{
+		return docIds[i];
+	}
+
+	/**
+	 * Gets the term frequency at a position
+	 * @param i the position
+	 * @return the term frequency
+	 */
+	public int freqAt(int i)
+	{
+		return freqs[i];
+	}
+
+	/**
+	 * Creates a cursor over the list
+	 * @return a new iterator positioned before the first document
+	 */
+	public PostingIterator iterator()
+	{
+		return new PostingIterator()
+		{
+			private int pos = -1;
+			private int doc = -1;
+
+			public int docId()
+			{
+				return doc;
+			}
+
+			public int nextDoc()
+			{
+				return doc = ++pos < size ? docIds[pos] : NO_MORE_DOCS;
+			}
+
+			public int advance(int target)
+			{
+				// galloping search from the current position, then binary search in the last gap
+				int lo = pos + 1;
+				int step = 1;
+				int hi = lo;
+				while (hi < size && docIds[hi] < target)
+				{
+					lo = hi + 1;
+					hi += step;
+					step <<= 1;
+				}
+				hi = Math.min(hi, size - 1);
+				while (lo <= hi)
+				{
+					int mid = (lo + hi) >>> 1;
+					if (docIds[mid] < target)
+					{
+						lo = mid + 1;
+					}
+					else
+					{
+						hi = mid - 1;
+					}
+				}
+				pos = lo;
+				return doc = pos < size ? docIds[pos] : NO_MORE_DOCS;
+			}
+
+			public int freq()
+			{
+				return freqs[pos];
+			}
+
+			public int ordinal()
+			{
+				return pos;
+			}
+
+			public int cost()
+			{
+				return size;
+			}
+		};
+	}
+}
@@ -0,0 +1,84 @@
+package searchengine.index;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The queries users searched for, counted and appended to a text file, one query per line
+ * The counts weight the query suggestions; see SuggestionIndex.
+ *
+ */
+public class QueryLog
+{
+	private final Path file;
+	private final Map<String, Integer> counts = new HashMap<>();
+
+	/**
+	 * Constructs an empty log; call load() to read the queries already in the file
+	 * @param file the log file
+	 */
+	public QueryLog(Path file)
+	{
+		this.file = file;
+	}
+
+	/**
+	 * Reads the queries already in the file, if it exists
+	 * @throws IOException if the file cannot be read
+	 */
+	public synchronized void load() throws IOException
+	{
+		if (Files.exists(file))
+		{
+			for (String line : Files.readAllLines(file, StandardCharsets.UTF_8))
+			{
+				String query = normalize(line);
+				if (!query.isEmpty())
+				{
+					counts.merge(query, 1, Integer::sum);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Counts a query and appends it to the file
+	 * @param query the query the user searched for
+	 * @throws IOException if the file cannot be written
+	 */
+	public synchronized void record(String query) throws IOException
+	{
+		String normalized = normalize(query);
+		if (normalized.isEmpty())
+		{
+			return;
+		}
+		counts.merge(normalized, 1, Integer::sum);
+		Files.writeString(file, normalized + System.lineSeparator(), StandardCharsets.UTF_8,
+				StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+	}
+
+	/**
+	 * Gets how often every query was searched
+	 * @return a copy of the counts, by normalized query
+	 */
+	public synchronized Map<String, Integer> getCounts()
+	{
+		return new HashMap<>(counts);
+	}
+
+	/**
+	 * Rewrites a query as its terms, so that equal queries are counted together
+	 * @param query the query
+	 * @return the query's terms joined by single spaces, empty if it has none
+	 */
+	public static String normalize(String query)
+	{
+		return Tokenizer.normalize(query);
+	}
+}
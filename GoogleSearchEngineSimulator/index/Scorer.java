@@ -0,0 +1,16 @@
+package searchengine.index;
+
+/**
+ * Scores a document that matched a query
+ *
+ */
+public interface Scorer
+{
+	/**
+	 * Scores the current match
+	 * @param docId the matching document
+	 * @param its the iterators of the query terms, all positioned on docId and ordered rarest first
+	 * @return the score of the document; higher is better
+	 */
+	double score(int docId, PostingIterator[] its);
+}
@@ -0,0 +1,344 @@
+package searchengine.index;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Suggests the most popular completions of a prefix, e.g. as a user types a query
+ * The keys are stored once, sorted by their UTF-8 bytes, in one byte array with an offset per
+ * key, so the keys starting with a prefix form one range found by two binary searches. A
+ * segment tree over the weights gives the heaviest key of any range in O(log n); the best k
+ * keys of the prefix range are taken one at a time by splitting the range around each key
+ * found, so a lookup costs O(k log n) no matter how many keys share the prefix.
+ *
+ * Memory is the UTF-8 bytes of the keys plus 16 bytes per key: an offset, a weight and two
+ * tree slots. A million terms of 8 letters take 24 MB. The index is immutable and may be
+ * shared by many threads.
+ *
+ */
+public class SuggestionIndex
+{
+	private final byte[] keyBytes;
+	private final int[] keyOffsets;
+	private final int[] weights;
+
+	// tree[n + i] = i; every inner node holds the heavier key of its two children
+	private final int[] tree;
+
+	private SuggestionIndex(byte[] keyBytes, int[] keyOffsets, int[] weights)
+	{
+		this.keyBytes = keyBytes;
+		this.keyOffsets = keyOffsets;
+		this.weights = weights;
+		int n = weights.length;
+		this.tree = new int[2 * n];
+		for (int i = 0; i < n; i++)
+		{
+			tree[n + i] = i;
+		}
+		for (int i = n - 1; i > 0; i--)
+		{
+			tree[i] = heavier(tree[2 * i], tree[2 * i + 1]);
+		}
+	}
+
+	/**
+	 * Builds an index of weighted keys
+	 * @param popularity the weight of every key, e.g. how often it was searched
+	 * @return the index
+	 */
+	public static SuggestionIndex build(Map<String, Integer> popularity)
+	{
+		String[] keys = new String[popularity.size()];
+		int[] weights = new int[keys.length];
+		int i = 0;
+		for (Map.Entry<String, Integer> e : popularity.entrySet())
+		{
+			keys[i] = e.getKey();
+			weights[i++] = e.getValue();
+		}
+		return build(keys, weights);
+	}
+
+	/**
+	 * Builds an index of the terms of an index, weighted by the number of documents containing them
+	 * @param reader the index
+	 * @return the index
+	 */
+	public static SuggestionIndex ofTerms(IndexReader reader)
+	{
+		List<String> terms = reader.terms();
+		String[] keys = terms.toArray(new String[0]);
+		int[] weights = new int[keys.length];
+		for (int i = 0; i < keys.length; i++)
+		{
+			weights[i] = reader.docFreq(keys[i]);
+		}
+		return build(keys, weights);
+	}
+
+	/**
+	 * Builds an index of weighted keys; the weights of equal keys are added up
+	 * @param keys the keys
+	 * @param weights the weight of every key, in the same order
+	 * @return the index
+	 */
+	public static SuggestionIndex build(String[] keys, int[] weights)
+	{
+		if (keys.length != weights.length)
+		{
+			throw new IllegalArgumentException("ERROR: Expected a weight for each key.");
+		}
+		byte[][] bytes = new byte[keys.length][];
+		Integer[] order = new Integer[keys.length];
+		for (int i = 0; i < keys.length; i++)
+		{
+			bytes[i] = keys[i].getBytes(StandardCharsets.UTF_8);
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(bytes[a], bytes[b]));
+
+		int n = 0;
+		long total = 0;
+		int[] sortedWeights = new int[keys.length];
+		int[] unique = new int[keys.length];
+		for (int i = 0; i < keys.length; i++)
+		{
+			int k = order[i];
+			if (n > 0 && Arrays.equals(bytes[unique[n - 1]], bytes[k]))
+			{
+				sortedWeights[n - 1] = (int) Math.min(Integer.MAX_VALUE, (long) sortedWeights[n - 1] + weights[k]);
+				continue;
+			}
+			unique[n] = k;
+			sortedWeights[n++] = weights[k];
+			total += bytes[k].length;
+		}
+		if (total > Integer.MAX_VALUE)
+		{
+			throw new IllegalArgumentException("ERROR: The keys are larger than 2 GB.");
+		}
+
+		byte[] keyBytes = new byte[(int) total];
+		int[] keyOffsets = new int[n + 1];
+		int offset = 0;
+		for (int i = 0; i < n; i++)
+		{
+			keyOffsets[i] = offset;
+			byte[] b = bytes[unique[i]];
+			System.arraycopy(b, 0, keyBytes, offset, b.length);
+			offset += b.length;
+		}
+		keyOffsets[n] = offset;
+		return new SuggestionIndex(keyBytes, keyOffsets, Arrays.copyOf(sortedWeights, n));
+	}
+
+	/**
+	 * Finds the most popular keys starting with a prefix
+	 * The prefix is rewritten by the rules of the index Tokenizer, like the keys are expected to
+	 * be, and keeps a trailing space once its last term is finished.
+	 * @param prefix what the user typed so far
+	 * @param k the most suggestions to return
+	 * @return up to k keys, heaviest first; of two equally heavy keys the smaller one comes first
+	 */
+	public List<String> suggest(String prefix, int k)
+	{
+		List<String> result = new ArrayList<>(Math.max(0, Math.min(k, 16)));
+		String normalized = Tokenizer.normalize(prefix);
+		if (!normalized.isEmpty() && !Character.isLetterOrDigit(prefix.codePointBefore(prefix.length())))
+		{
+			normalized += " ";
+		}
+		byte[] p = normalized.getBytes(StandardCharsets.UTF_8);
+		int lo = rangeStart(p, false);
+		int hi = rangeStart(p, true);
+		if (lo >= hi || k <= 0)
+		{
+			return result;
+		}
+
+		// candidate ranges [from, to) and the heaviest key of each
+		int[] from = new int[k + 1];
+		int[] to = new int[k + 1];
+		int[] best = new int[k + 1];
+		from[0] = lo;
+		to[0] = hi;
+		best[0] = heaviest(lo, hi);
+		int ranges = 1;
+		while (result.size() < k && ranges > 0)
+		{
+			int r = 0;
+			for (int i = 1; i < ranges; i++)
+			{
+				if (heavier(best[i], best[r]) == best[i])
+				{
+					r = i;
+				}
+			}
+			int key = best[r];
+			result.add(keyAt(key));
+
+			// the chosen range is replaced by the parts before and after its heaviest key
+			int start = from[r];
+			int end = to[r];
+			ranges--;
+			from[r] = from[ranges];
+			to[r] = to[ranges];
+			best[r] = best[ranges];
+			if (start < key)
+			{
+				from[ranges] = start;
+				to[ranges] = key;
+				best[ranges++] = heaviest(start, key);
+			}
+			if (key + 1 < end)
+			{
+				from[ranges] = key + 1;
+				to[ranges] = end;
+				best[ranges++] = heaviest(key + 1, end);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the number of distinct keys
+	 * @return the number of keys
+	 */
+	public int size()
+	{
+		return weights.length;
+	}
+
+	/**
+	 * Gets the number of bytes used by the index
+	 * @return the size of the arrays in bytes
+	 */
+	public long sizeInBytes()
+	{
+		return keyBytes.length + 4L * (keyOffsets.length + weights.length + tree.length);
+	}
+
+	private String keyAt(int i)
+	{
+		return new String(keyBytes, keyOffsets[i], keyOffsets[i + 1] - keyOffsets[i], StandardCharsets.UTF_8);
+	}
+
+	// Finds the first key that does not sort before the prefix, or, if after, the first key past
+	// every key starting with the prefix
+	private int rangeStart(byte[] prefix, boolean after)
+	{
+		int lo = 0, hi = weights.length;
+		while (lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			int cmp = comparePrefix(mid, prefix);
+			if (cmp < 0 || (after && cmp == 0))
+			{
+				lo = mid + 1;
+			}
+			else
+			{
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	// Compares the first prefix.length bytes of a key with the prefix; a shorter key sorts first
+	private int comparePrefix(int key, byte[] prefix)
+	{
+		int start = keyOffsets[key];
+		int length = keyOffsets[key + 1] - start;
+		int n = Math.min(length, prefix.length);
+		for (int i = 0; i < n; i++)
+		{
+			int c = (keyBytes[start + i] & 0xFF) - (prefix[i] & 0xFF);
+			if (c != 0)
+			{
+				return c;
+			}
+		}
+		return length < prefix.length ? -1 : 0;
+	}
+
+	// Gets the heaviest key in [from, to) from the segment tree
+	private int heaviest(int from, int to)
+	{
+		int n = weights.length;
+		int best = -1;
+		for (int l = from + n, r = to + n; l < r; l >>= 1, r >>= 1)
+		{
+			if ((l & 1) == 1)
+			{
+				best = heavier(best, tree[l++]);
+			}
+			if ((r & 1) == 1)
+			{
+				best = heavier(best, tree[--r]);
+			}
+		}
+		return best;
+	}
+
+	private int heavier(int a, int b)
+	{
+		if (a < 0)
+		{
+			return b;
+		}
+		if (weights[a] != weights[b])
+		{
+			return weights[a] > weights[b] ? a : b;
+		}
+		return a < b ? a : b;
+	}
+
+	// Times keystroke-by-keystroke lookups over millions of Zipf-weighted terms: java SuggestionIndex [terms]
+	public static void main(String[] args)
+	{
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+		Random random = new Random(11);
+		String[] keys = new String[n];
+		int[] weights = new int[n];
+		char[] word = new char[12];
+		for (int i = 0; i < n; i++)
+		{
+			int length = 3 + random.nextInt(10);
+			for (int c = 0; c < length; c++)
+			{
+				// skewed letters, so some prefixes are shared by hundreds of thousands of terms
+				word[c] = (char) ('a' + (int) (26 * Math.pow(random.nextDouble(), 2)));
+			}
+			keys[i] = new String(word, 0, length);
+			weights[i] = 1_000_000 / (1 + random.nextInt(n));
+		}
+		long start = System.nanoTime();
+		SuggestionIndex index = build(keys, weights);
+		System.out.printf("%d terms built in %.0f ms, %.1f MB (%.1f bytes per term)%n", index.size(),
+				(System.nanoTime() - start) / 1e6, index.sizeInBytes() / 1e6, (double) index.sizeInBytes() / index.size());
+
+		for (int round = 0; round < 5; round++)
+		{
+			int lookups = 0;
+			long found = 0;
+			start = System.nanoTime();
+			for (int q = 0; q < 20_000; q++)
+			{
+				// type a random term one keystroke at a time
+				String typed = keys[random.nextInt(n)];
+				for (int c = 1; c <= typed.length(); c++)
+				{
+					found += index.suggest(typed.substring(0, c), 10).size();
+					lookups++;
+				}
+			}
+			System.out.printf("%d keystrokes: %.2f us per lookup, %.1f suggestions on average, top of \"a\": %s%n", lookups,
+					(System.nanoTime() - start) / 1e3 / lookups, (double) found / lookups, index.suggest("a", 3));
+		}
+	}
+}
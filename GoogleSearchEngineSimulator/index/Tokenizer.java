@@ -0,0 +1,311 @@
+package searchengine.index;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Splits text into lowercase terms made of letters and digits
+ * The same rules are used for indexing pages and for parsing queries.
+ *
+ * The text is walked one code point at a time and every term is lowercased into one reusable
+ * char buffer that is handed to a Handler, so no String is created per term. Letters and digits
+ * are recognized and lowercased with the Unicode tables of Character, so letters outside the
+ * Basic Multilingual Plane stay whole; ASCII takes a shortcut through a table. A
+ * tokenizer may also drop English stopwords and strip plural endings; the positions handed to
+ * the handler still count dropped stopwords, so phrases keep their gaps.
+ *
+ * A tokenizer holds no state between calls and may be shared by many threads.
+ *
+ */
+public class Tokenizer
+{
+	/**
+	 * Receives the terms of a text, one at a time
+	 */
+	public interface Handler
+	{
+		/**
+		 * Receives one term
+		 * @param term a buffer holding the term; it is overwritten by the next term
+		 * @param length the number of chars of the term
+		 * @param position the index of the term in the text, counting dropped stopwords
+		 * @param start the offset of the first char of the term in the text
+		 * @param end the offset just after the last char of the term in the text
+		 */
+		void token(char[] term, int length, int position, int start, int end);
+	}
+
+	// the rules used by the index and by queries: lowercasing only
+	public static final Tokenizer DEFAULT = new Tokenizer(false, false);
+
+	// the English stopwords dropped on request
+	private static final String[] STOPWORDS = { "a", "an", "and", "are", "as", "at", "be", "but", "by", "for",
+			"if", "in", "into", "is", "it", "no", "not", "of", "on", "or", "such", "that", "the", "their",
+			"then", "there", "these", "they", "this", "to", "was", "will", "with" };
+
+	// open-addressing table of the stopwords, probed with String.hashCode() of the term's chars
+	private static final char[][] STOPWORD_TABLE = new char[64][];
+
+	// ASCII letters and digits
+	private static final boolean[] ASCII_WORD = new boolean[128];
+
+	static
+	{
+		for (String word : STOPWORDS)
+		{
+			int slot = word.hashCode() & (STOPWORD_TABLE.length - 1);
+			while (STOPWORD_TABLE[slot] != null)
+			{
+				slot = (slot + 1) & (STOPWORD_TABLE.length - 1);
+			}
+			STOPWORD_TABLE[slot] = word.toCharArray();
+		}
+		for (int c = 0; c < 128; c++)
+		{
+			ASCII_WORD[c] = Character.isLetterOrDigit(c);
+		}
+	}
+
+	private final boolean dropStopwords;
+	private final boolean stem;
+
+	/**
+	 * Constructs a tokenizer
+	 * @param dropStopwords true to drop common English words such as "the" and "of"
+	 * @param stem true to strip English plural endings, e.g. "queries" becomes "query"
+	 */
+	public Tokenizer(boolean dropStopwords, boolean stem)
+	{
+		this.dropStopwords = dropStopwords;
+		this.stem = stem;
+	}
+
+	/**
+	 * Splits text into terms with the default rules
+	 * @param text the text to split
+	 * @return the terms in the order they occur
+	 */
+	public static List<String> tokenize(String text)
+	{
+		List<String> terms = new ArrayList<>();
+		DEFAULT.tokenize(text, (term, length, position, start, end) -> terms.add(new String(term, 0, length)));
+		return terms;
+	}
+
+	/**
+	 * Rewrites text as its terms with the default rules, joined by single spaces
+	 * @param text the text to rewrite, e.g. a query
+	 * @return the lowercase terms separated by spaces, empty if there are none
+	 */
+	public static String normalize(CharSequence text)
+	{
+		StringBuilder normalized = new StringBuilder(text.length());
+		DEFAULT.tokenize(text, (term, length, position, start, end) ->
+		{
+			if (normalized.length() > 0)
+			{
+				normalized.append(' ');
+			}
+			normalized.append(term, 0, length);
+		});
+		return normalized.toString();
+	}
+
+	/**
+	 * Splits text into terms and hands each one to a handler
+	 * Apart from the term buffer, which grows only for terms longer than 64 chars, nothing is allocated.
+	 * @param text the text to split
+	 * @param handler receives the terms in the order they occur
+	 */
+	public void tokenize(CharSequence text, Handler handler)
+	{
+		char[] buffer = new char[64];
+		int length = 0;
+		int start = 0;
+		int position = 0;
+		int n = text.length();
+		int i = 0;
+		while (i < n)
+		{
+			char c = text.charAt(i);
+			int next = i + 1;
+			if (c < 128)
+			{
+				if (ASCII_WORD[c])
+				{
+					if (length == 0)
+					{
+						start = i;
+					}
+					if (length == buffer.length)
+					{
+						buffer = Arrays.copyOf(buffer, length * 2);
+					}
+					buffer[length++] = c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+					i = next;
+					continue;
+				}
+			}
+			else
+			{
+				int cp = c;
+				if (Character.isHighSurrogate(c) && next < n && Character.isLowSurrogate(text.charAt(next)))
+				{
+					cp = Character.toCodePoint(c, text.charAt(next++));
+				}
+				if (Character.isLetterOrDigit(cp))
+				{
+					if (length == 0)
+					{
+						start = i;
+					}
+					if (length + 2 > buffer.length)
+					{
+						buffer = Arrays.copyOf(buffer, buffer.length * 2);
+					}
+					length += Character.toChars(Character.toLowerCase(cp), buffer, length);
+					i = next;
+					continue;
+				}
+			}
+			if (length > 0)
+			{
+				position = emit(buffer, length, position, start, i, handler);
+				length = 0;
+			}
+			i = next;
+		}
+		if (length > 0)
+		{
+			emit(buffer, length, position, start, n, handler);
+		}
+	}
+
+	// Hands a finished term to the handler unless it is a dropped stopword; returns the next position
+	private int emit(char[] term, int length, int position, int start, int end, Handler handler)
+	{
+		if (dropStopwords && isStopword(term, length))
+		{
+			return position + 1;
+		}
+		if (stem)
+		{
+			length = stemPlural(term, length);
+		}
+		handler.token(term, length, position, start, end);
+		return position + 1;
+	}
+
+	/**
+	 * Checks if a term is one of the English stopwords
+	 * @param term a buffer holding a lowercase term
+	 * @param length the number of chars of the term
+	 * @return true if the term is a stopword
+	 */
+	public static boolean isStopword(char[] term, int length)
+	{
+		if (length > 5)
+		{
+			return false;
+		}
+		int h = 0;
+		for (int i = 0; i < length; i++)
+		{
+			h = 31 * h + term[i];
+		}
+		for (int slot = h & (STOPWORD_TABLE.length - 1); STOPWORD_TABLE[slot] != null; slot = (slot + 1) & (STOPWORD_TABLE.length - 1))
+		{
+			char[] word = STOPWORD_TABLE[slot];
+			if (word.length == length && Arrays.equals(word, 0, length, term, 0, length))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Strips an English plural ending in place, following Harman's S stemmer:
+	 * "ies" becomes "y", "es" becomes "e" and a final "s" is dropped, except after "u" or "s"
+	 * Terms of three chars or less are left alone, so "is" and "gas" stay whole.
+	 * @param term a buffer holding a lowercase term
+	 * @param length the number of chars of the term
+	 * @return the new length of the term
+	 */
+	public static int stemPlural(char[] term, int length)
+	{
+		if (length <= 3 || term[length - 1] != 's')
+		{
+			return length;
+		}
+		char c2 = term[length - 2];
+		char c3 = term[length - 3];
+		if (c2 == 'e' && c3 == 'i' && term[length - 4] != 'e' && term[length - 4] != 'a')
+		{
+			term[length - 3] = 'y';
+			return length - 2;
+		}
+		if (c2 == 'e' && c3 != 'a' && c3 != 'e' && c3 != 'o')
+		{
+			return length - 1;
+		}
+		if (c2 != 'u' && c2 != 's')
+		{
+			return length - 1;
+		}
+		return length;
+	}
+
+	// Measures tokenizing throughput and allocation per MB of UTF-8 text: java Tokenizer [megabytes]
+	public static void main(String[] args)
+	{
+		int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+		Random random = new Random(11);
+		String[] words = { "The", "search", "engine", "crawls", "pages", "and", "ranks", "them", "by", "links",
+				"Queries", "of", "users", "are", "matched", "with", "terms", "in", "the", "index", "Stra\u00DFe",
+				"caf\u00E9", "\u041C\u043E\u0441\u043A\u0432\u0430", "\u6771\u4EAC", "2024", "HTML5" };
+		StringBuilder text = new StringBuilder(megabytes << 20);
+		while (text.length() < megabytes << 20)
+		{
+			text.append(words[random.nextInt(words.length)]).append(random.nextInt(8) == 0 ? ". " : " ");
+		}
+		String page = text.toString();
+		double size = page.getBytes(StandardCharsets.UTF_8).length / (double) (1 << 20);
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		Tokenizer full = new Tokenizer(true, true);
+		long[] sum = new long[1];
+		Handler counter = (term, length, position, start, end) -> sum[0] += length;
+		for (int round = 0; round < 5; round++)
+		{
+			long allocated = threads.getThreadAllocatedBytes(thread);
+			long start = System.nanoTime();
+			// what a page went through before: a lowercased copy split into a String per term
+			List<String> strings = tokenize(page.toLowerCase());
+			double listMillis = (System.nanoTime() - start) / 1e6;
+			double listAllocated = (threads.getThreadAllocatedBytes(thread) - allocated) / size;
+
+			allocated = threads.getThreadAllocatedBytes(thread);
+			start = System.nanoTime();
+			DEFAULT.tokenize(page, counter);
+			double plainMillis = (System.nanoTime() - start) / 1e6;
+			double plainAllocated = (threads.getThreadAllocatedBytes(thread) - allocated) / size;
+
+			allocated = threads.getThreadAllocatedBytes(thread);
+			start = System.nanoTime();
+			full.tokenize(page, counter);
+			double fullMillis = (System.nanoTime() - start) / 1e6;
+			double fullAllocated = (threads.getThreadAllocatedBytes(thread) - allocated) / size;
+
+			System.out.printf("%d terms: String list %.0f MB/s (%.1f MB allocated per MB), callback %.0f MB/s (%.0f bytes per MB),"
+					+ " with stopwords and stemming %.0f MB/s (%.0f bytes per MB)%n",
+					strings.size(), size / (listMillis / 1e3), listAllocated / (1 << 20), size / (plainMillis / 1e3), plainAllocated,
+					size / (fullMillis / 1e3), fullAllocated);
+		}
+	}
+}
@@ -0,0 +1,210 @@
+package searchengine.index;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Keeps the k best-scoring documents of a stream of scored documents
+ * The documents are held in a min-heap of size k, so the worst of the current top k is always
+ * at the root and every other document is rejected with one comparison. Ranking n documents
+ * takes O(n log k) time and O(k) memory, and the candidates are never materialized or sorted.
+ *
+ * Of two documents with the same score the one with the lower ID ranks higher, so the result
+ * does not depend on the order in which the documents arrive.
+ *
+ */
+public class TopKCollector
+{
+	private final int k;
+	private final double[] scores;
+	private final int[] docs;
+	private int size;
+
+	/**
+	 * Constructs an empty collector
+	 * @param k the number of documents to keep
+	 */
+	public TopKCollector(int k)
+	{
+		if (k < 1)
+		{
+			throw new IllegalArgumentException("ERROR: k must be positive.");
+		}
+		this.k = k;
+		this.scores = new double[k];
+		this.docs = new int[k];
+	}
+
+	/**
+	 * Offers a scored document
+	 * @param docId the document ID
+	 * @param score the score of the document
+	 * @return true if the document is in the current top k
+	 */
+	public boolean collect(int docId, double score)
+	{
+		if (size < k)
+		{
+			scores[size] = score;
+			docs[size] = docId;
+			siftUp(size++);
+			return true;
+		}
+		if (!ranksBelow(scores[0], docs[0], score, docId))
+		{
+			return false;
+		}
+		scores[0] = score;
+		docs[0] = docId;
+		siftDown(scores, docs, 0, size);
+		return true;
+	}
+
+	/**
+	 * Gets the score a new document must beat to enter the top k
+	 * Scorers can use it to stop scoring documents that cannot make it.
+	 * @return the lowest score kept, or negative infinity while fewer than k documents are kept
+	 */
+	public double minCompetitiveScore()
+	{
+		return size < k ? Double.NEGATIVE_INFINITY : scores[0];
+	}
+
+	/**
+	 * Gets the number of documents kept
+	 * @return at most k
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Removes every document so the collector can be reused for another query
+	 */
+	public void clear()
+	{
+		size = 0;
+	}
+
+	/**
+	 * Gets the kept documents, best first; the collector itself is not changed
+	 * @return the document IDs in decreasing score order
+	 */
+	public int[] topDocs()
+	{
+		int[] sortedDocs = Arrays.copyOf(docs, size);
+		sortInto(Arrays.copyOf(scores, size), sortedDocs);
+		return sortedDocs;
+	}
+
+	/**
+	 * Gets the scores of the kept documents, best first, in the same order as topDocs()
+	 * @return the scores in decreasing order
+	 */
+	public double[] topScores()
+	{
+		double[] sortedScores = Arrays.copyOf(scores, size);
+		sortInto(sortedScores, Arrays.copyOf(docs, size));
+		return sortedScores;
+	}
+
+	// Heapsorts a copy of the min-heap: popping the worst document to the end leaves the best first
+	private static void sortInto(double[] s, int[] d)
+	{
+		for (int end = s.length - 1; end > 0; end--)
+		{
+			double ts = s[0];
+			s[0] = s[end];
+			s[end] = ts;
+			int td = d[0];
+			d[0] = d[end];
+			d[end] = td;
+			siftDown(s, d, 0, end);
+		}
+	}
+
+	// Checks if document (s1, d1) ranks below document (s2, d2)
+	private static boolean ranksBelow(double s1, int d1, double s2, int d2)
+	{
+		return s1 < s2 || (s1 == s2 && d1 > d2);
+	}
+
+	private void siftUp(int i)
+	{
+		double s = scores[i];
+		int d = docs[i];
+		while (i > 0)
+		{
+			int parent = (i - 1) >>> 1;
+			if (!ranksBelow(s, d, scores[parent], docs[parent]))
+			{
+				break;
+			}
+			scores[i] = scores[parent];
+			docs[i] = docs[parent];
+			i = parent;
+		}
+		scores[i] = s;
+		docs[i] = d;
+	}
+
+	private static void siftDown(double[] s, int[] d, int i, int size)
+	{
+		double score = s[i];
+		int doc = d[i];
+		int half = size >>> 1;
+		while (i < half)
+		{
+			int child = 2 * i + 1;
+			int right = child + 1;
+			if (right < size && ranksBelow(s[right], d[right], s[child], d[child]))
+			{
+				child = right;
+			}
+			if (!ranksBelow(s[child], d[child], score, doc))
+			{
+				break;
+			}
+			s[i] = s[child];
+			d[i] = d[child];
+			i = child;
+		}
+		s[i] = score;
+		d[i] = doc;
+	}
+
+	// Compares the time to pick the top k of n random scores with sorting all of them
+	public static void main(String[] args)
+	{
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		int k = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		Random random = new Random(11);
+		double[] candidates = new double[n];
+		for (int i = 0; i < n; i++)
+		{
+			candidates[i] = random.nextInt(1000);
+		}
+
+		TopKCollector top = new TopKCollector(k);
+		for (int round = 0; round < 5; round++)
+		{
+			long start = System.nanoTime();
+			top.clear();
+			for (int d = 0; d < n; d++)
+			{
+				top.collect(d, candidates[d]);
+			}
+			int[] best = top.topDocs();
+			double topMillis = (System.nanoTime() - start) / 1e6;
+
+			start = System.nanoTime();
+			double[] all = candidates.clone();
+			Arrays.sort(all);
+			double sortMillis = (System.nanoTime() - start) / 1e6;
+
+			System.out.printf("top %d of %d: %.1f ms, full sort: %.1f ms, best score %.0f = %.0f%n",
+					k, n, topMillis, sortMillis, candidates[best[0]], all[n - 1]);
+		}
+	}
+}
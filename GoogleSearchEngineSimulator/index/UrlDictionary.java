@@ -0,0 +1,487 @@
+package searchengine.index;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * An immutable dictionary that maps every URL of a crawl to a dense int ID, stored off the heap
+ * The IDs come from a minimal perfect hash built with the hash-and-displace (CHD) method: the
+ * URLs are hashed into small buckets, and each bucket gets the first seed that sends all of its
+ * URLs to free slots. A lookup hashes the URL once, reads the seed of its bucket and compares
+ * the URL bytes stored in the slot, so it takes O(1) time whatever the number of URLs. Buckets
+ * with a single URL store its slot directly, which keeps the build fast when few slots are left.
+ *
+ * The seeds, the URL offsets and the URL bytes live in one direct or memory-mapped buffer, so
+ * millions of URLs add no objects for the garbage collector to trace.
+ *
+ * It trades lookup speed for that heap. A lookup reads the seed, then the URL's offset, then its
+ * bytes, each from a place the previous read gives, so it is two to three times slower than a
+ * HashMap lookup; it suits UrlIdTable, which keeps the crawler's node IDs. The URLs are stored
+ * whole: there is no prefix sharing between URLs of the same host, and no FST.
+ *
+ * The layout, little-endian:
+ *   int magic, int size, int bucketCount, int urlBytesLength,
+ *   bucketCount ints: seed + 1, or -(slot + 1) for a bucket with one URL, or 0 for an empty bucket
+ *   (size + 1) ints: offsets of the URL of every ID into the URL bytes
+ *   URL bytes, UTF-8
+ *
+ */
+public class UrlDictionary
+{
+	private static final int MAGIC = 0x55444943; // "UDIC"
+	private static final int HEADER_BYTES = 16;
+
+	// average number of URLs per bucket; larger buckets make the table smaller and the build slower
+	private static final int BUCKET_SIZE = 4;
+
+	// reads eight bytes of a byte array as one little-endian long, like the buffer does
+	private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+	private final ByteBuffer buf;
+	private final int size;
+	private final int bucketCount;
+	private final int offsetsStart;
+	private final int bytesStart;
+
+	private UrlDictionary(ByteBuffer buf)
+	{
+		if (buf.getInt(0) != MAGIC)
+		{
+			throw new IllegalArgumentException("ERROR: Not a URL dictionary.");
+		}
+		this.buf = buf;
+		this.size = buf.getInt(4);
+		this.bucketCount = buf.getInt(8);
+		this.offsetsStart = HEADER_BYTES + 4 * bucketCount;
+		this.bytesStart = offsetsStart + 4 * (size + 1);
+	}
+
+	/**
+	 * Builds a dictionary in a direct buffer
+	 * @param urls the URLs; duplicates get one ID
+	 * @return the dictionary
+	 */
+	public static UrlDictionary build(Collection<String> urls)
+	{
+		List<byte[]> keys = new ArrayList<>(urls.size());
+		for (String url : new LinkedHashSet<>(urls))
+		{
+			keys.add(url.getBytes(StandardCharsets.UTF_8));
+		}
+		return build(keys, new int[keys.size()]);
+	}
+
+	/**
+	 * Builds a dictionary of distinct UTF-8 keys in a direct buffer
+	 * @param keys the keys, no two equal
+	 * @param ids receives the ID of every key, in the same order
+	 * @return the dictionary
+	 */
+	static UrlDictionary build(List<byte[]> keys, int[] ids)
+	{
+		int n = keys.size();
+		int buckets = Math.max(1, (n + BUCKET_SIZE - 1) / BUCKET_SIZE);
+
+		long[] hashes = new long[n];
+		long urlBytes = 0;
+		for (int i = 0; i < n; i++)
+		{
+			hashes[i] = hash(keys.get(i));
+			urlBytes += keys.get(i).length;
+		}
+		long total = HEADER_BYTES + 4L * buckets + 4L * (n + 1) + urlBytes;
+		if (total > Integer.MAX_VALUE)
+		{
+			throw new IllegalArgumentException("ERROR: Too many URLs for one dictionary.");
+		}
+
+		// group the keys by bucket with a counting sort, then place the largest buckets first
+		int[] bucketStart = new int[buckets + 1];
+		for (long h : hashes)
+		{
+			bucketStart[bucketOf(h, buckets) + 1]++;
+		}
+		for (int b = 0; b < buckets; b++)
+		{
+			bucketStart[b + 1] += bucketStart[b];
+		}
+		int[] members = new int[n];
+		int[] fill = Arrays.copyOf(bucketStart, buckets);
+		for (int i = 0; i < n; i++)
+		{
+			members[fill[bucketOf(hashes[i], buckets)]++] = i;
+		}
+		long[] bySize = new long[buckets];
+		for (int b = 0; b < buckets; b++)
+		{
+			// larger buckets sort first; equal sizes keep bucket order
+			bySize[b] = ((long) (Integer.MAX_VALUE - (bucketStart[b + 1] - bucketStart[b])) << 32) | b;
+		}
+		Arrays.sort(bySize);
+
+		int[] seeds = new int[buckets];
+		int[] slotOf = new int[n];
+		boolean[] taken = new boolean[n];
+		int[] slots = new int[64];
+		int nextFree = 0;
+		for (long entry : bySize)
+		{
+			int b = (int) entry;
+			int from = bucketStart[b];
+			int count = bucketStart[b + 1] - from;
+			if (count == 0)
+			{
+				break;
+			}
+			if (count == 1)
+			{
+				while (taken[nextFree])
+				{
+					nextFree++;
+				}
+				taken[nextFree] = true;
+				slotOf[members[from]] = nextFree;
+				seeds[b] = -(nextFree + 1);
+				continue;
+			}
+			if (count > slots.length)
+			{
+				slots = new int[count];
+			}
+			checkDistinct(hashes, members, from, count);
+			for (int seed = 0; ; seed++)
+			{
+				if (tryPlace(hashes, members, from, count, seed, n, taken, slots))
+				{
+					for (int k = 0; k < count; k++)
+					{
+						taken[slots[k]] = true;
+						slotOf[members[from + k]] = slots[k];
+					}
+					seeds[b] = seed + 1;
+					break;
+				}
+			}
+		}
+
+		// write the table and the URLs in slot order, so the slot is the ID
+		byte[][] bySlot = new byte[n][];
+		for (int i = 0; i < n; i++)
+		{
+			bySlot[slotOf[i]] = keys.get(i);
+			ids[i] = slotOf[i];
+		}
+		ByteBuffer out = ByteBuffer.allocateDirect((int) total).order(ByteOrder.LITTLE_ENDIAN);
+		out.putInt(MAGIC).putInt(n).putInt(buckets).putInt((int) urlBytes);
+		for (int seed : seeds)
+		{
+			out.putInt(seed);
+		}
+		int offset = 0;
+		for (byte[] key : bySlot)
+		{
+			out.putInt(offset);
+			offset += key.length;
+		}
+		out.putInt(offset);
+		for (byte[] key : bySlot)
+		{
+			out.put(key);
+		}
+		out.clear();
+		return new UrlDictionary(out);
+	}
+
+	/**
+	 * Maps a dictionary file written by write()
+	 * @param path the dictionary file
+	 * @return the dictionary
+	 * @throws IOException if the file cannot be read
+	 */
+	public static UrlDictionary open(Path path) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			if (channel.size() > Integer.MAX_VALUE)
+			{
+				throw new IOException("ERROR: Dictionary is larger than 2 GB.");
+			}
+			// the mapping stays valid after the channel is closed
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			try
+			{
+				return new UrlDictionary(mapped.order(ByteOrder.LITTLE_ENDIAN));
+			}
+			catch (IllegalArgumentException e)
+			{
+				throw new IOException(e.getMessage(), e);
+			}
+		}
+	}
+
+	/**
+	 * Writes the dictionary to a file, replacing it atomically
+	 * @param path the dictionary file
+	 * @throws IOException if the file cannot be written
+	 */
+	public void write(Path path) throws IOException
+	{
+		Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			ByteBuffer view = buf.duplicate();
+			view.clear();
+			while (view.hasRemaining())
+			{
+				channel.write(view);
+			}
+			channel.force(true);
+		}
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Gets the ID of a URL
+	 * @param url the URL
+	 * @return its ID from 0 to size() - 1, or -1 if the URL is not in the dictionary
+	 */
+	public int idOf(String url)
+	{
+		if (size == 0)
+		{
+			return -1;
+		}
+		byte[] key = url.getBytes(StandardCharsets.UTF_8);
+		long h = hash(key);
+		int seed = buf.getInt(HEADER_BYTES + 4 * bucketOf(h, bucketCount));
+		if (seed == 0)
+		{
+			return -1;
+		}
+		int slot = seed < 0 ? -seed - 1 : slotOf(h, seed - 1, size);
+		return matches(slot, key) ? slot : -1;
+	}
+
+	/**
+	 * Gets the URL of an ID
+	 * @param id the ID
+	 * @return the URL
+	 */
+	public String urlOf(int id)
+	{
+		if (id < 0 || id >= size)
+		{
+			throw new IllegalArgumentException("ERROR: No URL with ID " + id + ".");
+		}
+		return new String(bytesOf(id), StandardCharsets.UTF_8);
+	}
+
+	// Copies the UTF-8 bytes of the URL of an ID
+	byte[] bytesOf(int id)
+	{
+		int start = buf.getInt(offsetsStart + 4 * id);
+		int end = buf.getInt(offsetsStart + 4 * id + 4);
+		byte[] bytes = new byte[end - start];
+		ByteBuffer view = buf.duplicate();
+		view.position(bytesStart + start);
+		view.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Gets the number of URLs
+	 * @return the number of IDs
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Gets the number of off-heap bytes used
+	 * @return the size of the buffer
+	 */
+	public int sizeInBytes()
+	{
+		return buf.capacity();
+	}
+
+	// Compares the stored URL with the key eight bytes at a time
+	private boolean matches(int slot, byte[] key)
+	{
+		int start = buf.getInt(offsetsStart + 4 * slot);
+		int length = buf.getInt(offsetsStart + 4 * slot + 4) - start;
+		if (length != key.length)
+		{
+			return false;
+		}
+		int p = bytesStart + start;
+		int i = 0;
+		for (; i + 8 <= length; i += 8)
+		{
+			if (buf.getLong(p + i) != (long) LONGS.get(key, i))
+			{
+				return false;
+			}
+		}
+		for (; i < length; i++)
+		{
+			if (buf.get(p + i) != key[i])
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// No seed can separate two keys with the same 64-bit hash
+	private static void checkDistinct(long[] hashes, int[] members, int from, int count)
+	{
+		for (int k = 1; k < count; k++)
+		{
+			for (int j = 0; j < k; j++)
+			{
+				if (hashes[members[from + k]] == hashes[members[from + j]])
+				{
+					throw new IllegalArgumentException("ERROR: Two URLs have the same hash.");
+				}
+			}
+		}
+	}
+
+	// Checks if every key of a bucket lands on a different free slot with this seed
+	private static boolean tryPlace(long[] hashes, int[] members, int from, int count, int seed, int n,
+			boolean[] taken, int[] slots)
+	{
+		for (int k = 0; k < count; k++)
+		{
+			int slot = slotOf(hashes[members[from + k]], seed, n);
+			if (taken[slot])
+			{
+				return false;
+			}
+			for (int j = 0; j < k; j++)
+			{
+				if (slots[j] == slot)
+				{
+					return false;
+				}
+			}
+			slots[k] = slot;
+		}
+		return true;
+	}
+
+	private static int bucketOf(long h, int buckets)
+	{
+		return (int) ((h >>> 32) * buckets >>> 32);
+	}
+
+	private static int slotOf(long h, int seed, int n)
+	{
+		long x = mix(h ^ (seed * 0x9E3779B97F4A7C15L));
+		return (int) (((x >>> 32) * n) >>> 32);
+	}
+
+	// Hashes the bytes eight at a time, each word mixed in with a multiply, then finishes with a strong mixer
+	private static long hash(byte[] key)
+	{
+		long h = 0xCBF29CE484222325L ^ key.length;
+		int i = 0;
+		for (; i + 8 <= key.length; i += 8)
+		{
+			h = (h ^ (long) LONGS.get(key, i)) * 0x9E3779B97F4A7C15L;
+			h ^= h >>> 29;
+		}
+		for (; i < key.length; i++)
+		{
+			h = (h ^ (key[i] & 0xFF)) * 0x100000001B3L;
+		}
+		return mix(h);
+	}
+
+	private static long mix(long x)
+	{
+		x ^= x >>> 33;
+		x *= 0xFF51AFD7ED558CCDL;
+		x ^= x >>> 33;
+		x *= 0xC4CEB9FE1A85EC53L;
+		x ^= x >>> 33;
+		return x;
+	}
+
+	// Builds a dictionary of n URLs and times lookups against a HashMap: java UrlDictionary [n]
+	public static void main(String[] args)
+	{
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		List<String> urls = new ArrayList<>(n);
+		for (int i = 0; i < n; i++)
+		{
+			urls.add("https://www.site" + (i * 7919L % 1_000_003) + ".com/page/" + i);
+		}
+		long start = System.nanoTime();
+		UrlDictionary dictionary = build(urls);
+		System.out.printf("%d URLs built in %.0f ms, %.1f off-heap bytes/URL%n", n,
+				(System.nanoTime() - start) / 1e6, (double) dictionary.sizeInBytes() / n);
+
+		boolean[] seen = new boolean[n];
+		boolean ok = true;
+		for (String url : urls)
+		{
+			int id = dictionary.idOf(url);
+			ok &= id >= 0 && !seen[id] && dictionary.urlOf(id).equals(url);
+			seen[id] = true;
+		}
+		ok &= dictionary.idOf("https://not.crawled/") == -1;
+		System.out.println("every URL has its own ID: " + ok);
+
+		java.util.Map<String, Integer> map = new java.util.HashMap<>();
+		for (int i = 0; i < n; i++)
+		{
+			map.put(urls.get(i), i);
+		}
+		// look the URLs up in random order, so neither side benefits from allocation order, and as
+		// new strings each round, as they arrive from a crawl, so no cached String hash is reused
+		List<String> shuffled = new ArrayList<>(urls);
+		java.util.Collections.shuffle(shuffled, new java.util.Random(1));
+		for (int round = 0; round < 3; round++)
+		{
+			List<String> queries = new ArrayList<>(n);
+			for (String url : shuffled)
+			{
+				queries.add(new String(url));
+			}
+			start = System.nanoTime();
+			long sum = 0;
+			for (String url : queries)
+			{
+				sum += dictionary.idOf(url);
+			}
+			double dictMillis = (System.nanoTime() - start) / 1e6;
+			start = System.nanoTime();
+			for (String url : queries)
+			{
+				sum += map.get(url);
+			}
+			double mapMillis = (System.nanoTime() - start) / 1e6;
+			System.out.printf("lookups: dictionary %.0f ns, HashMap %.0f ns (%d)%n",
+					dictMillis * 1e6 / n, mapMillis * 1e6 / n, sum);
+		}
+	}
+}
@@ -0,0 +1,305 @@
+package searchengine.index;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Gives every URL a dense ID, 0, 1, 2, ... in order of first sight, e.g. the node IDs of a crawl
+ * The URLs seen before the last merge live in a UrlDictionary, off the heap, with the ID of
+ * every dictionary slot in one int array; only the URLs seen since are kept as Strings in a map.
+ * Once the map holds a quarter as many URLs as the dictionary, the two are merged into a new
+ * dictionary. The heap so holds about a fifth of the URLs as Strings, and every URL is copied
+ * about five times over the life of the table.
+ *
+ * A URL in the dictionary is found in O(1) by its minimal perfect hash. The table is
+ * thread-safe, and lookups take no lock: the dictionary and its IDs are one immutable snapshot,
+ * and the maps are concurrent. A merge builds the new dictionary outside the lock while the
+ * other threads go on adding URLs to a fresh map, then swaps it in, so only the thread whose
+ * URL started the merge waits for it.
+ *
+ */
+public class UrlIdTable
+{
+	// the map is never merged while it is smaller than this, so small crawls never build a dictionary
+	private static final int MIN_PENDING = 1 << 16;
+
+	// replaced as a whole by every merge
+	private volatile Frozen frozen = new Frozen(UrlDictionary.build(Collections.emptyList()), new int[0]);
+
+	// the URLs seen since the running or last merge started; only written while holding the lock
+	private volatile Map<String, Integer> pending = new ConcurrentHashMap<>();
+
+	// the URLs the running merge moves into the dictionary, or null; no longer written
+	private volatile Map<String, Integer> merging;
+
+	private int size;
+
+	/**
+	 * Gets the ID of a URL, giving it the next ID on first sight
+	 * @param url the URL
+	 * @return its ID
+	 */
+	public int idOf(String url)
+	{
+		int id = find(url);
+		if (id >= 0)
+		{
+			return id;
+		}
+		Map<String, Integer> toMerge;
+		synchronized (this)
+		{
+			id = find(url);
+			if (id >= 0)
+			{
+				return id;
+			}
+			id = size++;
+			pending.put(url, id);
+			if (merging != null || pending.size() < Math.max(MIN_PENDING, frozen.dictionary.size() / 4))
+			{
+				return id;
+			}
+			toMerge = pending;
+			merging = toMerge;
+			pending = new ConcurrentHashMap<>();
+		}
+		Frozen merged = null;
+		try
+		{
+			merged = merge(frozen, toMerge);
+		}
+		finally
+		{
+			synchronized (this)
+			{
+				if (merged != null)
+				{
+					frozen = merged;
+				}
+				else
+				{
+					// the merge failed: keep its URLs in the map, for the next merge to try again
+					pending.putAll(toMerge);
+				}
+				merging = null;
+			}
+		}
+		return id;
+	}
+
+	/**
+	 * Gets the ID of a URL without adding it
+	 * @param url the URL
+	 * @return its ID, or -1 if the URL was never seen
+	 */
+	public int find(String url)
+	{
+		// most URLs are in the dictionary, so it is read first
+		Frozen snapshot = frozen;
+		int slot = snapshot.dictionary.idOf(url);
+		if (slot >= 0)
+		{
+			return snapshot.ids[slot];
+		}
+		// a merge sets merging before it replaces pending, and replaces frozen before it clears
+		// merging, so a URL missing from both maps is in the latest dictionary if anywhere
+		Integer id = pending.get(url);
+		if (id == null)
+		{
+			Map<String, Integer> moving = merging;
+			id = moving == null ? null : moving.get(url);
+		}
+		if (id != null)
+		{
+			return id;
+		}
+		Frozen latest = frozen;
+		if (latest == snapshot)
+		{
+			return -1;
+		}
+		slot = latest.dictionary.idOf(url);
+		return slot < 0 ? -1 : latest.ids[slot];
+	}
+
+	/**
+	 * Gets the number of URLs seen
+	 * @return the number of IDs given out
+	 */
+	public synchronized int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Gets the number of off-heap bytes used by the dictionary
+	 * @return the size of the dictionary buffer
+	 */
+	public int offHeapBytes()
+	{
+		return frozen.dictionary.sizeInBytes();
+	}
+
+	// Builds a new dictionary of the URLs of a snapshot and of a map
+	private static Frozen merge(Frozen old, Map<String, Integer> added)
+	{
+		int n = old.dictionary.size() + added.size();
+		List<byte[]> keys = new ArrayList<>(n);
+		int[] ids = new int[n];
+		for (int slot = 0; slot < old.dictionary.size(); slot++)
+		{
+			ids[keys.size()] = old.ids[slot];
+			keys.add(old.dictionary.bytesOf(slot));
+		}
+		for (Map.Entry<String, Integer> e : added.entrySet())
+		{
+			ids[keys.size()] = e.getValue();
+			keys.add(e.getKey().getBytes(StandardCharsets.UTF_8));
+		}
+		int[] slots = new int[n];
+		UrlDictionary merged = UrlDictionary.build(keys, slots);
+		int[] mergedIds = new int[n];
+		for (int i = 0; i < n; i++)
+		{
+			mergedIds[slots[i]] = ids[i];
+		}
+		return new Frozen(merged, mergedIds);
+	}
+
+	// A dictionary and the ID of every one of its slots
+	private static final class Frozen
+	{
+		final UrlDictionary dictionary;
+		final int[] ids;
+
+		Frozen(UrlDictionary dictionary, int[] ids)
+		{
+			this.dictionary = dictionary;
+			this.ids = ids;
+		}
+	}
+
+	// Gives IDs to n crawl-like URLs and measures the heap against a ConcurrentHashMap: java UrlIdTable [n]
+	public static void main(String[] args)
+	{
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+		long before = usedHeap();
+		long start = System.nanoTime();
+		UrlIdTable table = new UrlIdTable();
+		for (int i = 0; i < n; i++)
+		{
+			// every URL is seen a few times, as links to it are found on several pages
+			table.idOf(url(i));
+			table.idOf(url(i / 2));
+		}
+		double millis = (System.nanoTime() - start) / 1e6;
+		long tableHeap = usedHeap() - before;
+		System.out.printf("UrlIdTable: %d URLs in %.0f ms, %.1f heap and %.1f off-heap bytes/URL%n", table.size(), millis,
+				(double) tableHeap / n, (double) table.offHeapBytes() / n);
+
+		boolean ok = table.size() == n && table.find("https://not.crawled/") == -1;
+		for (int i = 0; i < n; i++)
+		{
+			ok &= table.find(url(i)) == i;
+		}
+		System.out.println("every URL keeps the ID of its first sight: " + ok);
+
+		before = usedHeap();
+		start = System.nanoTime();
+		Map<String, Integer> map = new ConcurrentHashMap<>();
+		int next = 0;
+		for (int i = 0; i < n; i++)
+		{
+			for (String url : new String[] { url(i), url(i / 2) })
+			{
+				if (!map.containsKey(url))
+				{
+					map.put(url, next++);
+				}
+			}
+		}
+		millis = (System.nanoTime() - start) / 1e6;
+		System.out.printf("ConcurrentHashMap: %d URLs in %.0f ms, %.1f heap bytes/URL%n", map.size(), millis,
+				(double) (usedHeap() - before) / n);
+
+		for (int round = 0; round < 3; round++)
+		{
+			// each side gets its own new strings, so neither reuses a String hash the other computed
+			List<String> queries = new ArrayList<>(n);
+			List<String> mapQueries = new ArrayList<>(n);
+			java.util.Random random = new java.util.Random(round);
+			for (int i = 0; i < n; i++)
+			{
+				queries.add(url(random.nextInt(n)));
+				mapQueries.add(new String(queries.get(i)));
+			}
+			start = System.nanoTime();
+			long sum = 0;
+			for (String url : queries)
+			{
+				sum += table.find(url);
+			}
+			double tableNanos = (System.nanoTime() - start) / (double) n;
+			start = System.nanoTime();
+			for (String url : mapQueries)
+			{
+				sum += map.get(url);
+			}
+			System.out.printf("lookups: UrlIdTable %.0f ns, ConcurrentHashMap %.0f ns (%d)%n", tableNanos,
+					(System.nanoTime() - start) / (double) n, sum);
+		}
+
+		// a second thread looks URLs up while this one fills a new table through its merges
+		UrlIdTable filling = new UrlIdTable();
+		AtomicBoolean done = new AtomicBoolean();
+		long[] worst = new long[2];
+		Thread reader = new Thread(() ->
+		{
+			java.util.Random random = new java.util.Random(3);
+			while (!done.get())
+			{
+				String url = url(random.nextInt(n / 4));
+				long t = System.nanoTime();
+				filling.find(url);
+				worst[0] = Math.max(worst[0], System.nanoTime() - t);
+				worst[1]++;
+			}
+		});
+		reader.start();
+		for (int i = 0; i < n / 4; i++)
+		{
+			filling.idOf(url(i));
+		}
+		done.set(true);
+		try
+		{
+			reader.join();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		System.out.printf("lookups during a fill of %d URLs: %d, the slowest took %.1f ms%n", n / 4, worst[1], worst[0] / 1e6);
+	}
+
+	private static String url(int i)
+	{
+		return "https://www.site" + (i * 7919L % 100_003) + ".com/articles/" + i + "/index.html";
+	}
+
+	private static long usedHeap()
+	{
+		for (int i = 0; i < 3; i++)
+		{
+			System.gc();
+		}
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}